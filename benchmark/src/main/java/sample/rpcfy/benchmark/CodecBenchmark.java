@@ -0,0 +1,175 @@
+package sample.rpcfy.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import rpcfy.JsonRPCMessageHandler;
+import rpcfy.MessageSender;
+import rpcfy.json.BinaryJsonify;
+import rpcfy.json.GsonJsonify;
+import sample.rpcfy.ComplexObject;
+import sample.rpcfy.EchoService;
+import sample.rpcfy.EchoService_JsonRpcProxy;
+import sample.rpcfy.EchoService_JsonRpcStub;
+import sample.rpcfy.MyObj;
+
+/**
+ * Compares the JSON text messages of {@link GsonJsonify} with the binary messages of {@link BinaryJsonify}, by
+ * making EchoService calls whose request and response go through both codecs.
+ * <p/>
+ * The client and the server handlers deliver their messages to each other directly, on the calling thread.
+ * Run {@link #main(String[])} to print the sizes of the messages of each call.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CodecBenchmark {
+
+    public enum Codec {
+        JSON,
+        BINARY
+    }
+
+    @Param({"JSON", "BINARY"})
+    public Codec codec;
+
+    private JsonRPCMessageHandler serverHandler;
+    private JsonRPCMessageHandler clientHandler;
+    private EchoService echoService;
+    private int requestSize;
+    private int responseSize;
+
+    private ComplexObject complexObject;
+    private List<String> strings;
+    private List<MyObj> objects1;
+    private List<MyObj> objects2;
+    private Map<Integer, String> stringMap;
+    private Map<String, MyObj> objectMap;
+    private Map<Long, MyObj> longObjectMap;
+
+    @Setup
+    public void setup() {
+        if (codec == Codec.BINARY) {
+            BinaryJsonify binaryJsonify = new BinaryJsonify();
+            serverHandler = new JsonRPCMessageHandler(new MessageSender<byte[]>() {
+                @Override
+                public void sendMessage(byte[] message) {
+                    responseSize = message.length;
+                    clientHandler.onMessage(message);
+                }
+            }, binaryJsonify);
+            clientHandler = new JsonRPCMessageHandler(new MessageSender<byte[]>() {
+                @Override
+                public void sendMessage(byte[] message) {
+                    requestSize = message.length;
+                    serverHandler.onMessage(message);
+                }
+            }, binaryJsonify);
+        } else {
+            //the messages are ASCII, so their length is their size in UTF-8
+            serverHandler = new JsonRPCMessageHandler(new MessageSender<String>() {
+                @Override
+                public void sendMessage(String message) {
+                    responseSize = message.length();
+                    clientHandler.onMessage(message);
+                }
+            });
+            clientHandler = new JsonRPCMessageHandler(new MessageSender<String>() {
+                @Override
+                public void sendMessage(String message) {
+                    requestSize = message.length();
+                    serverHandler.onMessage(message);
+                }
+            });
+        }
+        new EchoService_JsonRpcStub(serverHandler, new QuietEchoService());
+        echoService = new EchoService_JsonRpcProxy(clientHandler);
+
+        complexObject = new ComplexObject();
+        complexObject.name = "Name";
+        complexObject.sex = ComplexObject.SEX.FEMALE;
+        complexObject.family = new ComplexObject.Family();
+        complexObject.family.familyName = "Family";
+
+        strings = new ArrayList<>();
+        strings.add("1");
+        strings.add("2");
+        objects1 = new ArrayList<>();
+        objects1.add(new MyObj("A", 1));
+        objects1.add(new MyObj("B", 2));
+        objects2 = new ArrayList<>();
+        objects2.add(new MyObj("C", 10));
+        objects2.add(new MyObj("D", 20));
+
+        stringMap = new HashMap<>();
+        stringMap.put(1, "1");
+        stringMap.put(2, "2");
+        objectMap = new HashMap<>();
+        objectMap.put("1", new MyObj("A", 1));
+        objectMap.put("2", new MyObj("B", 2));
+        longObjectMap = new HashMap<>();
+        longObjectMap.put(1L, new MyObj("AB", 10));
+        longObjectMap.put(2L, new MyObj("BB", 20));
+    }
+
+    @Benchmark
+    public String echoString() {
+        return echoService.echoString("World");
+    }
+
+    @Benchmark
+    public ComplexObject echoComplexObject() {
+        return echoService.echoComplexObject(complexObject);
+    }
+
+    @Benchmark
+    public List<MyObj> testMultipleListParams() {
+        return echoService.testMultipleListParams(strings, objects1, objects2);
+    }
+
+    @Benchmark
+    public Map<Long, MyObj> testMultipleMapParams() {
+        return echoService.testMultipleMapParams(stringMap, objectMap, longObjectMap);
+    }
+
+    /**
+     * Prints the sizes of the request and the response of each call, with each codec
+     */
+    public static void main(String[] args) {
+        for (Codec codec : Codec.values()) {
+            CodecBenchmark benchmark = new CodecBenchmark();
+            benchmark.codec = codec;
+            benchmark.setup();
+            benchmark.echoString();
+            benchmark.printSizes("echoString");
+            benchmark.echoComplexObject();
+            benchmark.printSizes("echoComplexObject");
+            benchmark.testMultipleListParams();
+            benchmark.printSizes("testMultipleListParams");
+            benchmark.testMultipleMapParams();
+            benchmark.printSizes("testMultipleMapParams");
+        }
+    }
+
+    private void printSizes(String call) {
+        System.out.println(codec + " " + call + ": request " + requestSize + " bytes, response " + responseSize + " bytes");
+    }
+}
@@ -0,0 +1,119 @@
+package sample.rpcfy.benchmark;
+
+import com.google.gson.reflect.TypeToken;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.lang.reflect.Type;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import rpcfy.JsonRPCMessageHandler;
+import rpcfy.MessageSender;
+import sample.rpcfy.EchoService;
+import sample.rpcfy.EchoService_JsonRpcProxy;
+import sample.rpcfy.EchoService_JsonRpcStub;
+import sample.rpcfy.MyObj;
+
+/**
+ * Measures the cost of the generic types of testMultipleMapParams, which the generated proxy and stub resolve
+ * once into static fields instead of on each call.
+ * <p/>
+ * Run with <code>-prof gc</code> to see the allocations per call in <code>gc.alloc.rate.norm</code>.
+ * <p/>
+ * The requests are delivered on the calling thread, and the responses on a thread of their own like a transport
+ * would, so that this can also be run against the code generated by earlier versions.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GenericTypeBenchmark {
+
+    private ExecutorService responseExecutor;
+    private JsonRPCMessageHandler serverHandler;
+    private JsonRPCMessageHandler clientHandler;
+    private EchoService echoService;
+    private Map<Integer, String> stringMap;
+    private Map<String, MyObj> objectMap;
+    private Map<Long, MyObj> longObjectMap;
+
+    @Setup
+    public void setup() {
+        responseExecutor = Executors.newSingleThreadExecutor();
+        serverHandler = new JsonRPCMessageHandler(new MessageSender<String>() {
+            @Override
+            public void sendMessage(final String message) {
+                responseExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        clientHandler.onMessage(message);
+                    }
+                });
+            }
+        });
+        clientHandler = new JsonRPCMessageHandler(new MessageSender<String>() {
+            @Override
+            public void sendMessage(String message) {
+                serverHandler.onMessage(message);
+            }
+        });
+        new EchoService_JsonRpcStub(serverHandler, new QuietEchoService());
+        echoService = new EchoService_JsonRpcProxy(clientHandler);
+
+        stringMap = new HashMap<>();
+        stringMap.put(1, "1");
+        stringMap.put(2, "2");
+        objectMap = new HashMap<>();
+        objectMap.put("1", new MyObj("A", 1));
+        objectMap.put("2", new MyObj("B", 2));
+        longObjectMap = new HashMap<>();
+        longObjectMap.put(1L, new MyObj("AB", 10));
+        longObjectMap.put(2L, new MyObj("BB", 20));
+    }
+
+    @TearDown
+    public void tearDown() {
+        responseExecutor.shutdownNow();
+    }
+
+    /**
+     * A call through the generated proxy and stub
+     */
+    @Benchmark
+    public Map<Long, MyObj> testMultipleMapParams() {
+        return echoService.testMultipleMapParams(stringMap, objectMap, longObjectMap);
+    }
+
+    /**
+     * The resolution of the types of the parameters and of the result of a call, as done before on each call
+     */
+    @Benchmark
+    public Type[] resolveGenericTypes() {
+        return new Type[]{
+                new TypeToken<Map<Integer, String>>() {
+                }.getType(),
+                new TypeToken<Map<String, ? extends MyObj>>() {
+                }.getType(),
+                new TypeToken<Map<Long, ? extends MyObj>>() {
+                }.getType(),
+                new TypeToken<Map<Long, MyObj>>() {
+                }.getType()
+        };
+    }
+}
@@ -0,0 +1,91 @@
+package sample.rpcfy.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import rpcfy.JsonRPCMessageHandler;
+import rpcfy.MessageSender;
+import sample.rpcfy.EchoService;
+import sample.rpcfy.EchoServiceListener;
+import sample.rpcfy.EchoService_JsonRpcProxy;
+import sample.rpcfy.EchoService_JsonRpcStub;
+
+/**
+ * Measures the cost of setting up a connection: a client and a server handler with their default JSONify, a stub
+ * and an EchoService proxy, and a listener whose callback proxy is created by the server, followed by a call
+ * that calls the listener back and a plain call.
+ * <p/>
+ * The requests are delivered on the calling thread, and the responses on a thread of their own like a transport
+ * would, so that this can also be run against the code generated by earlier versions.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ProxyCreationBenchmark {
+
+    private ExecutorService responseExecutor;
+    private EchoServiceListener listener;
+
+    @Setup
+    public void setup() {
+        responseExecutor = Executors.newSingleThreadExecutor();
+        listener = new EchoServiceListener() {
+        };
+    }
+
+    @TearDown
+    public void tearDown() {
+        responseExecutor.shutdownNow();
+    }
+
+    /**
+     * Creates the handlers and the proxies of a connection, and makes a call with a callback and a plain call
+     */
+    @Benchmark
+    public String createProxies() {
+        //set once the client handler is created
+        final JsonRPCMessageHandler[] client = new JsonRPCMessageHandler[1];
+        final JsonRPCMessageHandler serverHandler = new JsonRPCMessageHandler(new MessageSender<String>() {
+            @Override
+            public void sendMessage(final String message) {
+                responseExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        client[0].onMessage(message);
+                    }
+                });
+            }
+        });
+        final JsonRPCMessageHandler clientHandler = new JsonRPCMessageHandler(new MessageSender<String>() {
+            @Override
+            public void sendMessage(String message) {
+                serverHandler.onMessage(message);
+            }
+        });
+        client[0] = clientHandler;
+        new EchoService_JsonRpcStub(serverHandler, new QuietEchoService());
+        EchoService echoService = new EchoService_JsonRpcProxy(clientHandler);
+
+        echoService.registerListener(listener);
+        String result = echoService.echoString("World");
+        clientHandler.clear();
+        serverHandler.clear();
+        return result;
+    }
+}
@@ -0,0 +1,44 @@
+package sample.rpcfy.benchmark;
+
+import java.util.List;
+import java.util.Map;
+
+import sample.rpcfy.ComplexObject;
+import sample.rpcfy.EchoServiceImpl;
+import sample.rpcfy.EchoServiceListener;
+import sample.rpcfy.MyObj;
+
+/**
+ * The sample service without its logging, which would otherwise take most of the time of a call
+ */
+class QuietEchoService extends EchoServiceImpl {
+
+    @Override
+    public ComplexObject echoComplexObject(ComplexObject complexObject) {
+        return complexObject;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public List<MyObj> testMultipleListParams(List<String> listOfStrings, List<? extends MyObj> listofObjs1, List<? extends MyObj> listofObjs2) {
+        return (List<MyObj>) listofObjs1;
+    }
+
+    /**
+     * Calls the given listener back, without keeping it
+     */
+    @Override
+    public boolean registerListener(EchoServiceListener listener) {
+        if (listener == null) {
+            return false;
+        }
+        listener.onRegistered();
+        return true;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public Map<Long, MyObj> testMultipleMapParams(Map<Integer, String> strings, Map<String, ? extends MyObj> obj1, Map<Long, ? extends MyObj> obj2) {
+        return (Map<Long, MyObj>) obj2;
+    }
+}
@@ -0,0 +1,104 @@
+package sample.rpcfy.benchmark;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+import sample.rpcfy.ComplexObject;
+import sample.rpcfy.EchoService_JsonRpcTypeAdapterFactory;
+
+/**
+ * Compares the generated type adapters of EchoService with the reflective Gson adapters, on the first use in a
+ * fresh JVM and once warmed up.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TypeAdapterBenchmark {
+
+    private Gson reflectiveGson;
+    private Gson generatedGson;
+    private ComplexObject complexObject;
+    private String json;
+
+    @Setup
+    public void setup() {
+        reflectiveGson = new Gson();
+        generatedGson = newGeneratedGson();
+        complexObject = newComplexObject();
+        json = reflectiveGson.toJson(complexObject);
+    }
+
+    @Benchmark
+    public String writeReflective() {
+        return reflectiveGson.toJson(complexObject);
+    }
+
+    @Benchmark
+    public String writeGenerated() {
+        return generatedGson.toJson(complexObject);
+    }
+
+    @Benchmark
+    public ComplexObject readReflective() {
+        return reflectiveGson.fromJson(json, ComplexObject.class);
+    }
+
+    @Benchmark
+    public ComplexObject readGenerated() {
+        return generatedGson.fromJson(json, ComplexObject.class);
+    }
+
+    /**
+     * The first write and read of a fresh JVM, which includes creating the adapters
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    @Warmup(iterations = 0)
+    @Measurement(iterations = 1)
+    @Fork(20)
+    public ComplexObject firstUseReflective() {
+        Gson gson = new Gson();
+        return gson.fromJson(gson.toJson(newComplexObject()), ComplexObject.class);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    @Warmup(iterations = 0)
+    @Measurement(iterations = 1)
+    @Fork(20)
+    public ComplexObject firstUseGenerated() {
+        Gson gson = newGeneratedGson();
+        return gson.fromJson(gson.toJson(newComplexObject()), ComplexObject.class);
+    }
+
+    private static Gson newGeneratedGson() {
+        return new GsonBuilder().registerTypeAdapterFactory(new EchoService_JsonRpcTypeAdapterFactory()).create();
+    }
+
+    private static ComplexObject newComplexObject() {
+        ComplexObject complexObject = new ComplexObject();
+        complexObject.name = "Name";
+        complexObject.sex = ComplexObject.SEX.FEMALE;
+        complexObject.family = new ComplexObject.Family();
+        complexObject.family.familyName = "Family";
+        return complexObject;
+    }
+}
@@ -0,0 +1,128 @@
+package sample.rpcfy.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import rpcfy.JsonRPCMessageHandler;
+import rpcfy.MessageSender;
+import rpcfy.VirtualThreads;
+import sample.rpcfy.EchoService;
+import sample.rpcfy.EchoServiceImpl;
+import sample.rpcfy.EchoService_JsonRpcProxy;
+import sample.rpcfy.EchoService_JsonRpcStub;
+
+/**
+ * Makes the given number of concurrent blocking calls, each to a service method that blocks for a while, with
+ * the callers and the dispatched calls on either pooled platform threads or virtual threads.
+ * <p/>
+ * The client and the server handlers deliver their messages to each other directly, so the cost measured is
+ * the cost of the threads and of the handlers. Virtual threads need Java 21 or later.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class VirtualThreadBenchmark {
+
+    /**
+     * How long each call blocks at the service
+     */
+    private static final int SERVICE_MILLIS = 10;
+
+    public enum ThreadMode {
+        PLATFORM,
+        VIRTUAL
+    }
+
+    @Param({"1000", "10000"})
+    public int concurrency;
+
+    @Param({"PLATFORM", "VIRTUAL"})
+    public ThreadMode mode;
+
+    private JsonRPCMessageHandler serverHandler;
+    private JsonRPCMessageHandler clientHandler;
+    private EchoService echoService;
+    private ExecutorService dispatchExecutor;
+    private ExecutorService callerExecutor;
+
+    @Setup
+    public void setup() {
+        dispatchExecutor = newExecutor();
+        callerExecutor = newExecutor();
+        serverHandler = new JsonRPCMessageHandler(new MessageSender<String>() {
+            @Override
+            public void sendMessage(String message) {
+                clientHandler.onMessage(message);
+            }
+        });
+        clientHandler = new JsonRPCMessageHandler(new MessageSender<String>() {
+            @Override
+            public void sendMessage(String message) {
+                serverHandler.onMessage(message);
+            }
+        });
+        serverHandler.setDispatchExecutor(dispatchExecutor, JsonRPCMessageHandler.DispatchOrder.UNORDERED);
+        clientHandler.setRequestTimeout(TimeUnit.MINUTES.toMillis(1));
+        new EchoService_JsonRpcStub(serverHandler, new EchoServiceImpl());
+        echoService = new EchoService_JsonRpcProxy(clientHandler);
+    }
+
+    @TearDown
+    public void tearDown() {
+        callerExecutor.shutdownNow();
+        dispatchExecutor.shutdownNow();
+        clientHandler.clear();
+        serverHandler.clear();
+    }
+
+    /**
+     * Makes a call from each of the concurrent callers, and waits for all of them to complete
+     */
+    @Benchmark
+    public int concurrentCalls() throws InterruptedException {
+        final CountDownLatch done = new CountDownLatch(concurrency);
+        final AtomicInteger failures = new AtomicInteger();
+        for (int i = 0; i < concurrency; i++) {
+            callerExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        echoService.callThatTimesout(SERVICE_MILLIS);
+                    } catch (RuntimeException ex) {
+                        failures.incrementAndGet();
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            });
+        }
+        done.await();
+        if (failures.get() > 0) {
+            throw new IllegalStateException(failures.get() + " of " + concurrency + " calls failed");
+        }
+        return concurrency;
+    }
+
+    private ExecutorService newExecutor() {
+        return mode == ThreadMode.VIRTUAL ? VirtualThreads.newVirtualThreadPerTaskExecutor() : Executors.newCachedThreadPool();
+    }
+}
@@ -0,0 +1,205 @@
+package rpcfy;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A {@link MessageSender} that coalesces the messages sent from many threads into fewer writes to the
+ * {@link MessageSender} it wraps, by sending the messages of a write as one JSON RPC batch.
+ * <p/>
+ * The messages are added to a lock free queue that is drained by a single daemon writer thread, so a thread
+ * sending a message neither waits for the transport nor contends with the others for it.
+ * Without a delay, the messages queued while a write is in progress go out together in the next write.
+ * With a delay, the writer waits up to the delay for more messages before each write, unless the write is full.
+ * The writer parks while there are no messages.
+ * <p/>
+ * As the messages are written after {@link #sendMessage(String)} returns, a write that fails is only logged by
+ * the handler, and its messages are lost like messages dropped by the transport, so their calls time out.
+ *
+ * @see JsonRPCMessageHandler#setWriteCoalescing(int, int, long)
+ */
+final class CoalescingMessageSender implements MessageSender<String>, Runnable {
+
+    private final JsonRPCMessageHandler handler;
+    private final MessageSender<String> sender;
+    private final int maxMessages;
+    private final int maxLength;
+    private final long delayNanos;
+    private final Queue<Entry> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger queuedCount = new AtomicInteger();
+    private final AtomicLong queuedLength = new AtomicLong();
+    private volatile Thread writer;
+    private volatile boolean idle;
+    private volatile boolean closed;
+
+    /**
+     * Creates an instance that writes the messages of the given handler using the given {@link MessageSender}
+     *
+     * @param handler     The {@link JsonRPCMessageHandler} that logs the failed writes
+     * @param sender      The {@link MessageSender} of the transport
+     * @param maxMessages The maximum number of messages in a write
+     * @param maxLength   The maximum length of the messages in a write, a longer message is written on its own
+     * @param delayMicros How long the writer waits for more messages before a write, or 0 for no wait
+     */
+    CoalescingMessageSender(JsonRPCMessageHandler handler, MessageSender<String> sender, int maxMessages, int maxLength, long delayMicros) {
+        if (sender == null) {
+            throw new RuntimeException("MessageSender cannot be null");
+        }
+        this.handler = handler;
+        this.sender = sender;
+        this.maxMessages = Math.max(1, maxMessages);
+        this.maxLength = maxLength;
+        this.delayNanos = TimeUnit.MICROSECONDS.toNanos(delayMicros);
+    }
+
+    @Override
+    public void sendMessage(String message) throws IOException {
+        sendRequests(message, Collections.<JsonRPCMessageHandler.PendingCall>emptyList());
+    }
+
+    /**
+     * Sends the given message, which holds the requests of the given calls.
+     * If this writes to a {@link SenderPool}, the calls are counted for the connection of their write.
+     */
+    void sendRequests(String message, List<JsonRPCMessageHandler.PendingCall> calls) {
+        queue.add(new Entry(message, calls));
+        int count = queuedCount.incrementAndGet();
+        long length = queuedLength.addAndGet(message.length());
+        if (closed) {
+            //the writer may be gone
+            while (!queue.isEmpty()) {
+                write();
+            }
+            return;
+        }
+        Thread thread = writer;
+        if (thread == null) {
+            start();
+        } else if (idle || isFull(count, length)) {
+            LockSupport.unpark(thread);
+        }
+    }
+
+    /**
+     * Writes the queued messages, and stops the writer.
+     * The messages sent after this are written by the thread sending them.
+     */
+    void close() {
+        closed = true;
+        Thread thread = writer;
+        if (thread != null) {
+            LockSupport.unpark(thread);
+        }
+        while (!queue.isEmpty()) {
+            write();
+        }
+    }
+
+    /**
+     * Returns a new instance that writes the messages of the same handler with the same {@link MessageSender}
+     * and settings as this, with a writer of its own
+     */
+    CoalescingMessageSender copy() {
+        return new CoalescingMessageSender(handler, sender, maxMessages, maxLength, TimeUnit.NANOSECONDS.toMicros(delayNanos));
+    }
+
+    /**
+     * Returns the {@link MessageSender} this writes the messages with
+     */
+    MessageSender<String> getSender() {
+        return sender;
+    }
+
+    private synchronized void start() {
+        if (writer == null) {
+            Thread thread = new Thread(this, "RPCfy-writer");
+            thread.setDaemon(true);
+            writer = thread;
+            thread.start();
+        }
+    }
+
+    @Override
+    public void run() {
+        while (!closed) {
+            if (queue.isEmpty()) {
+                idle = true;
+                if (queue.isEmpty() && !closed) {
+                    LockSupport.park(this);
+                }
+                idle = false;
+                continue;
+            }
+            awaitMessages();
+            write();
+        }
+    }
+
+    /**
+     * Waits up to the delay for the next write to fill up
+     */
+    private void awaitMessages() {
+        if (delayNanos <= 0) {
+            return;
+        }
+        long deadline = System.nanoTime() + delayNanos;
+        long remaining;
+        while (!closed && !isFull(queuedCount.get(), queuedLength.get()) && (remaining = deadline - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(this, remaining);
+        }
+    }
+
+    private boolean isFull(int count, long length) {
+        return count >= maxMessages || length >= maxLength;
+    }
+
+    /**
+     * Writes the queued messages that fit in a write
+     */
+    private synchronized void write() {
+        List<String> messages = new ArrayList<>();
+        List<JsonRPCMessageHandler.PendingCall> calls = new ArrayList<>();
+        int length = 0;
+        Entry entry;
+        while (messages.size() < maxMessages && (entry = queue.peek()) != null
+                && (messages.isEmpty() || length + entry.message.length() <= maxLength)) {
+            queue.poll();
+            messages.add(entry.message);
+            calls.addAll(entry.calls);
+            length += entry.message.length();
+        }
+        queuedCount.addAndGet(-messages.size());
+        queuedLength.addAndGet(-length);
+        if (messages.isEmpty()) {
+            return;
+        }
+        try {
+            String message = messages.size() == 1 ? messages.get(0) : JsonBatch.join(messages, length);
+            if (sender instanceof SenderPool) {
+                ((SenderPool) sender).sendRequests(message, calls);
+            } else {
+                sender.sendMessage(message);
+            }
+        } catch (Exception ex) {
+            handler.loge(ex);
+        }
+    }
+
+    private static final class Entry {
+        final String message;
+        final List<JsonRPCMessageHandler.PendingCall> calls;
+
+        Entry(String message, List<JsonRPCMessageHandler.PendingCall> calls) {
+            this.message = message;
+            this.calls = calls;
+        }
+    }
+}
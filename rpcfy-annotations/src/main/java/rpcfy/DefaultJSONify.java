@@ -0,0 +1,26 @@
+package rpcfy;
+
+
+import rpcfy.json.GsonJsonify;
+
+import java.util.ServiceLoader;
+
+/**
+ * Holds the default {@link JSONify}, which is loaded the first time it is used
+ *
+ * @see JSONify#getDefault()
+ */
+final class DefaultJSONify {
+
+    static final JSONify INSTANCE = load();
+
+    private DefaultJSONify() {
+    }
+
+    private static JSONify load() {
+        for (JSONify jsonify : ServiceLoader.load(JSONify.class)) {
+            return jsonify;
+        }
+        return new GsonJsonify(true);
+    }
+}
@@ -0,0 +1,63 @@
+package rpcfy;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Limits the number of calls that are waiting for a response at the same time.
+ *
+ * @see JsonRPCMessageHandler#setInFlightLimit(int)
+ */
+final class InFlightLimit {
+
+    private final Semaphore permits;
+
+    InFlightLimit(int maxCalls) {
+        this.permits = new Semaphore(maxCalls);
+    }
+
+    /**
+     * Takes a place for a call as per the given policy, returning whether it got one
+     */
+    boolean acquire(JsonRPCMessageHandler.InFlightPolicy policy, long maxWaitMillis) throws InterruptedException {
+        switch (policy) {
+            case BLOCK:
+                permits.acquire();
+                return true;
+            case WAIT:
+                return permits.tryAcquire(maxWaitMillis, TimeUnit.MILLISECONDS);
+            default:
+                return permits.tryAcquire();
+        }
+    }
+
+    /**
+     * Gives back the place of a call that completed
+     */
+    void release() {
+        permits.release();
+    }
+
+    /**
+     * Takes a place in each of the given limits without waiting, returning whether it got all of them.
+     * It takes none if it could not take all of them.
+     */
+    static boolean tryAcquire(InFlightLimit[] limits) {
+        for (int i = 0; i < limits.length; i++) {
+            if (!limits[i].permits.tryAcquire()) {
+                release(limits, i);
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Gives back the places taken in the first given number of the given limits
+     */
+    static void release(InFlightLimit[] limits, int count) {
+        for (int i = 0; i < count; i++) {
+            limits[i].release();
+        }
+    }
+}
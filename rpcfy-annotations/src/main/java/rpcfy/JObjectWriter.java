@@ -0,0 +1,66 @@
+package rpcfy;
+
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A {@link JSONify.JWriter} that builds the object using {@link JSONify.JObject}.
+ * <p/>
+ * Used for the {@link JSONify} implementations that does not provide their own {@link JSONify.JWriter}.
+ */
+class JObjectWriter implements JSONify.JWriter {
+
+    private final JSONify jsonify;
+    private final List<JSONify.JObject> objects = new ArrayList<>();
+    private final List<String> names = new ArrayList<>();
+
+    JObjectWriter(JSONify jsonify) {
+        this.jsonify = jsonify;
+        objects.add(jsonify.newJson());
+    }
+
+    @Override
+    public void beginObject(String name) {
+        objects.add(jsonify.newJson());
+        names.add(name);
+    }
+
+    @Override
+    public void endObject() {
+        JSONify.JObject object = objects.remove(objects.size() - 1);
+        current().put(names.remove(names.size() - 1), object);
+    }
+
+    @Override
+    public void put(String name, String value) {
+        current().put(name, value);
+    }
+
+    @Override
+    public void put(String name, int value) {
+        current().put(name, value);
+    }
+
+    @Override
+    public void putJson(String name, String value) {
+        current().putJson(name, value);
+    }
+
+    @Override
+    public void putValue(String name, Object value) {
+        current().put(name, jsonify.toJson(value));
+    }
+
+    @Override
+    public String toJson() {
+        while (!names.isEmpty()) {
+            endObject();
+        }
+        return current().toJson();
+    }
+
+    private JSONify.JObject current() {
+        return objects.get(objects.size() - 1);
+    }
+}
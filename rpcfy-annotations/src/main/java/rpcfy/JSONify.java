@@ -1,16 +1,33 @@
 package rpcfy;
 
-
 import java.lang.reflect.Type;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.ServiceLoader;
 import java.util.Set;
 
 /**
  * Converts an object to and from JSON.
  * <p/>
  * A default implementation of this is provided by {@link rpcfy.json.GsonJsonify} which uses {@link com.google.gson.Gson}.
+ * A different implementation can be made the default by registering it as a {@link ServiceLoader} service.
+ *
+ * @see #getDefault()
  */
 public interface JSONify {
 
+    /**
+     * Returns the default {@link JSONify}, which is the first implementation registered as a
+     * {@link ServiceLoader} service for {@link JSONify} if any, or a {@link rpcfy.json.GsonJsonify} otherwise.
+     * <p/>
+     * The same instance is shared by all the {@link JsonRPCMessageHandler}s that are not given a {@link JSONify},
+     * and by the proxies and stubs using them, so the implementation should be thread safe.
+     */
+    static JSONify getDefault() {
+        return DefaultJSONify.INSTANCE;
+    }
+
 
     /**
      * Returns a new {@link JObject}
@@ -42,11 +59,58 @@ public interface JSONify {
      */
     <T> T fromJSON(String json, String parameter, Type type);
 
+    /**
+     * Convert given json to object of given type
+     */
+    default <T> T fromJSON(String json, Type type) {
+        return fromJSON("{\"value\":" + json + "}", "value", type);
+    }
+
     /**
      * Returns the json element representing the given parameter from given json
      */
     String getJSONElement(String json, String parameter);
 
+    /**
+     * Parses the given JSON RPC message once, so that its headers and body can be accessed without parsing it again
+     */
+    default RPCMessage parseMessage(String message) {
+        return new RPCMessage(this, message, fromJson(message));
+    }
+
+    /**
+     * Parses the given message written by {@link JWriter#toByteBuffer()}, which is the UTF-8 encoding of
+     * the JSON RPC message unless this is an {@link RPCCodec}.
+     * <p/>
+     * The remaining bytes of the buffer are read without changing its position, and the buffer is not used
+     * once this returns, so that it can be reused by the transport.
+     */
+    default RPCMessage parseMessage(ByteBuffer message) {
+        return parseMessage(StandardCharsets.UTF_8.decode(message.duplicate()).toString());
+    }
+
+    /**
+     * Returns the json object representing the given parameter from given element
+     */
+    default JElement getElement(JElement element, String parameter) {
+        String json = element.getJsonValue(parameter);
+        return json != null ? fromJson(json) : null;
+    }
+
+    /**
+     * Convert given parameter from given element to object of given type
+     */
+    default <T> T fromJSON(JElement element, String parameter, Type type) {
+        return element != null ? this.<T>fromJSON(element.toJson(), parameter, type) : null;
+    }
+
+    /**
+     * Returns a new {@link JWriter} to write a JSON object in a single pass
+     */
+    default JWriter newWriter() {
+        return new JObjectWriter(this);
+    }
+
 
     /**
      * Represents a JSON element
@@ -102,4 +166,84 @@ public interface JSONify {
         void put(String name, JElement value);
 
     }
+
+
+    /**
+     * Writes a JSON object entry by entry, without building it in memory first.
+     * <p/>
+     * The object is started when the writer is created, and {@link #toJson()} completes it.
+     */
+    interface JWriter {
+
+        /**
+         * Starts a nested object as value of given parameter
+         */
+        void beginObject(String name);
+
+        /**
+         * Ends the current nested object
+         */
+        void endObject();
+
+        /**
+         * Adds a name value parameter
+         */
+        void put(String name, String value);
+
+        /**
+         * Adds a name value parameter
+         */
+        void put(String name, int value);
+
+        /**
+         * Adds a name value parameter
+         */
+        default void put(String name, long value) {
+            putJson(name, Long.toString(value));
+        }
+
+        /**
+         * Adds the given json string as value of given parameter
+         */
+        void putJson(String name, String value);
+
+        /**
+         * Adds the JSON representation of given object as value of given parameter
+         */
+        void putValue(String name, Object value);
+
+        /**
+         * Adds the given bytes as value of given parameter.
+         * <p/>
+         * These are written as a base64 string, unless the writer is from an {@link RPCCodec} that can hold bytes.
+         *
+         * @see RPCMessage#getBytes(String)
+         */
+        default void putBytes(String name, byte[] value) {
+            put(name, Base64.getEncoder().encodeToString(value));
+        }
+
+        /**
+         * Completes the object and returns its JSON representation
+         */
+        String toJson();
+
+        /**
+         * Completes the object and returns its encoded bytes.
+         * <p/>
+         * This is the UTF-8 encoding of the JSON, unless the writer is from an {@link RPCCodec} using a different format.
+         */
+        default byte[] toBytes() {
+            return toJson().getBytes(StandardCharsets.UTF_8);
+        }
+
+        /**
+         * Completes the object and returns its encoded bytes like {@link #toBytes()}, in a buffer that is
+         * owned by the caller from then on.
+         */
+        default ByteBuffer toByteBuffer() {
+            return ByteBuffer.wrap(toBytes());
+        }
+
+    }
 }
@@ -0,0 +1,134 @@
+package rpcfy;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads and writes JSON RPC batches, which are JSON arrays of messages.
+ * <p/>
+ * A batch is split into the JSON of its messages by scanning it once, without parsing the messages, so that
+ * each message is parsed by the {@link JSONify} of the handler like a message that is not batched.
+ */
+final class JsonBatch {
+
+    private JsonBatch() {
+    }
+
+    /**
+     * Returns whether the given message is a batch
+     */
+    static boolean isBatch(String message) {
+        for (int i = 0; i < message.length(); i++) {
+            char c = message.charAt(i);
+            if (!isWhitespace(c)) {
+                return c == '[';
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns whether the remaining bytes of the given UTF-8 encoded message are a batch
+     */
+    static boolean isBatch(ByteBuffer message) {
+        for (int i = message.position(); i < message.limit(); i++) {
+            char c = (char) message.get(i);
+            if (!isWhitespace(c)) {
+                return c == '[';
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the JSON of the messages in the given batch
+     */
+    static List<String> split(String batch) {
+        List<String> messages = new ArrayList<>();
+        int depth = 0;
+        int start = -1;
+        boolean inString = false;
+        for (int i = batch.indexOf('[') + 1; i < batch.length(); i++) {
+            char c = batch.charAt(i);
+            if (inString) {
+                if (c == '\\') {
+                    i++;
+                } else if (c == '"') {
+                    inString = false;
+                }
+                continue;
+            }
+            if (start < 0 && !isWhitespace(c) && c != ',' && c != ']') {
+                start = i;
+            }
+            switch (c) {
+                case '"':
+                    inString = true;
+                    break;
+                case '{':
+                case '[':
+                    depth++;
+                    break;
+                case '}':
+                case ']':
+                    if (depth == 0) {
+                        addMessage(messages, batch, start, i);
+                        return messages;
+                    }
+                    depth--;
+                    break;
+                case ',':
+                    if (depth == 0) {
+                        addMessage(messages, batch, start, i);
+                        start = -1;
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+        throw new IllegalArgumentException("Incomplete batch " + batch);
+    }
+
+    /**
+     * Returns a batch of the given messages, where a message that is itself a batch adds its messages
+     */
+    static String join(List<String> messages, int length) {
+        StringBuilder batch = new StringBuilder(length + messages.size() + 1);
+        batch.append('[');
+        for (String message : messages) {
+            int start = 0;
+            int end = message.length();
+            if (isBatch(message)) {
+                start = message.indexOf('[') + 1;
+                end = message.lastIndexOf(']');
+                while (start < end && isWhitespace(message.charAt(start))) {
+                    start++;
+                }
+                if (start == end) {
+                    continue;
+                }
+            }
+            if (batch.length() > 1) {
+                batch.append(',');
+            }
+            batch.append(message, start, end);
+        }
+        return batch.append(']').toString();
+    }
+
+    private static void addMessage(List<String> messages, String batch, int start, int end) {
+        if (start >= 0) {
+            int last = end;
+            while (last > start && isWhitespace(batch.charAt(last - 1))) {
+                last--;
+            }
+            messages.add(batch.substring(start, last));
+        }
+    }
+
+    private static boolean isWhitespace(char c) {
+        return c == ' ' || c == '\n' || c == '\r' || c == '\t';
+    }
+}
@@ -1,56 +1,455 @@
 package rpcfy;
 
 
-import rpcfy.json.GsonJsonify;
-
+import java.io.IOException;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
 import java.lang.reflect.Constructor;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
 
 /**
  * Takes care of sending the JSONRPC messages using the provided {@link MessageSender}, and
  * handles the incoming JSON RPC messages when delivered to {@link #onMessage(String)}.
  * <p/>
+ * When created with an {@link RPCCodec}, the messages are exchanged as bytes in the format of the codec
+ * instead, and the incoming messages are to be delivered to {@link #onMessage(byte[])}.
+ * <p/>
+ * When created using {@link #forByteBuffers(MessageSender, JSONify)}, the messages are exchanged as {@link ByteBuffer}s,
+ * and the incoming messages are to be delivered to {@link #onMessage(ByteBuffer)}.
+ * <p/>
+ * When created with a list of {@link MessageSender}s, the messages are spread over their connections, and the
+ * incoming messages of all the connections are to be delivered to {@link #onMessage(String)}.
  *
  * @see rpcfy.annotations.RPCfy
  */
 public final class JsonRPCMessageHandler implements MessageReceiver<String> {
 
     private static final String PREFIX_RELAY_PROPERTY = "custom_";
+    private static final Object NO_HANDLER = new Object();
+    private static final String CANCEL_METHOD = "$/cancelRequest";
 
     private final long REQUEST_TIMEOUT = 120000;
-    private MessageSender<String> sender;
-    private final Map<String, Map<Integer, RPCStub>> stubMap = new ConcurrentHashMap<>();
+    private volatile MessageSender<String> sender;
+    private SenderPool senderPool;
+    private MessageSender<byte[]> binarySender;
+    private MessageSender<ByteBuffer> byteBufferSender;
+    private final StubRegistry stubRegistry = new StubRegistry();
     private final Map<Object, RPCStub> stubInstanceMap = new ConcurrentHashMap<>();
-    private Map<RPCCallId, RPCCallId> waitingCallers = new ConcurrentHashMap<>();
-    private JSONify jsoNify = new GsonJsonify();
+    private final PendingCalls pendingCalls = new PendingCalls();
+    private final AtomicLong callIdGenerator = new AtomicLong();
+    private JSONify jsoNify;
     private boolean logEnabled;
     private long requestTimeout = REQUEST_TIMEOUT;
     private long oneWayRequestTimeout = REQUEST_TIMEOUT;
+    private final ConcurrentMap<String, Map<Integer, Long>> methodRequestTimeouts = new ConcurrentHashMap<>();
     private Map<String, String> requestExtras;
-    private Map<RPCMethodDelegate, Object> delegates = new HashMap<>();
-    private Map<RPCMethodDelegate, String> rpcMessage = new HashMap<>();
-    private ThreadLocal<Map<String,String>> rpcParameters = new ThreadLocal<>();
+    private volatile Map<Class<?>, Object[]> methodDelegates = Collections.emptyMap();
+    private final Map<RPCMethodDelegate, Object> instanceDelegates = new ConcurrentHashMap<>();
+    private final ThreadLocal<CallContext> callContext = new ThreadLocal<>();
+    private volatile Executor dispatchExecutor;
+    private volatile DispatchOrder dispatchOrder = DispatchOrder.UNORDERED;
+    private final ConcurrentMap<Object, SerialExecutor> serialExecutors = new ConcurrentHashMap<>();
+    private volatile InFlightLimit inFlightLimit;
+    private final Map<String, InFlightLimit> interfaceInFlightLimits = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Map<Integer, InFlightLimit>> methodInFlightLimits = new ConcurrentHashMap<>();
+    private volatile ConcurrentMap<String, ConcurrentMap<Integer, InFlightLimit[]>> resolvedInFlightLimits = new ConcurrentHashMap<>();
+    private final Queue<QueuedCall> queuedCalls = new ConcurrentLinkedQueue<>();
+    private volatile InFlightPolicy inFlightPolicy = InFlightPolicy.BLOCK;
+    private volatile long inFlightMaxWait;
+    private final LongAdder inFlightCalls = new LongAdder();
+    private final LongAdder rejectedCalls = new LongAdder();
+    private final LongAdder expiredCalls = new LongAdder();
+    private volatile MessageBatcher batcher;
+    private final Map<Integer, ProxyReference> notificationProxies = new ConcurrentHashMap<>();
+    private final ReferenceQueue<RPCProxy> collectedProxies = new ReferenceQueue<>();
+    private final ConcurrentMap<Long, Dispatch> dispatches = new ConcurrentHashMap<>();
+    private volatile boolean interruptOnCancel;
+
+    /**
+     * The order in which the calls received by the stubs of a handler are dispatched on its dispatch executor
+     *
+     * @see #setDispatchExecutor(Executor, DispatchOrder)
+     */
+    public enum DispatchOrder {
+        /**
+         * Calls are dispatched as soon as they are received, and may run concurrently
+         */
+        UNORDERED,
+        /**
+         * Calls to the same stub, which is the same service instance, run one after the other in the order they are received
+         */
+        PER_SERVICE,
+        /**
+         * Calls from the same remote handler run one after the other in the order they are received
+         */
+        PER_REMOTE_HANDLER
+    }
+
+    /**
+     * How a handler created with many {@link MessageSender}s picks the one to send a message with
+     *
+     * @see #JsonRPCMessageHandler(List, SenderSelection)
+     */
+    public enum SenderSelection {
+        /**
+         * The senders are used in turn
+         */
+        ROUND_ROBIN,
+        /**
+         * The sender with the fewest calls waiting for a response is used, or the next one in turn among those
+         */
+        LEAST_IN_FLIGHT
+    }
+
+    /**
+     * What happens to a call made when the in flight limit for it is reached
+     *
+     * @see #setInFlightPolicy(InFlightPolicy, long)
+     */
+    public enum InFlightPolicy {
+        /**
+         * The caller is blocked until the call can be made.
+         * An async call does not block the caller, it is queued and sent once the call can be made.
+         */
+        BLOCK,
+        /**
+         * The call fails with an {@link RPCException} of type {@link RPCException.Type#LIMIT_EXCEEDED}
+         */
+        FAIL_FAST,
+        /**
+         * The caller is blocked until the call can be made, and the call fails like {@link #FAIL_FAST} if
+         * that does not happen within the maximum wait time.
+         * An async call is queued instead of blocking the caller, and its future fails if it is not sent within
+         * the maximum wait time.
+         */
+        WAIT
+    }
 
 
     /**
      * Creates an instance of {@link JsonRPCMessageHandler}.
      * <p/>
      * Use a single instance for client side, and another single instance at server side.
+     * The messages are converted using the {@link JSONify#getDefault() default JSONify}.
      *
      * @param messageSender The generated messages will be send using this.
      */
     public JsonRPCMessageHandler(MessageSender<String> messageSender) {
         if (messageSender != null) {
             this.sender = messageSender;
+            this.jsoNify = JSONify.getDefault();
         } else {
             throw new RuntimeException("MessageSender cannot be null");
         }
     }
 
+    /**
+     * Creates an instance of {@link JsonRPCMessageHandler} that sends the messages over many connections, using
+     * the {@link MessageSender} of each of them as per the given {@link SenderSelection}.
+     * <p/>
+     * The responses are matched to their calls whichever connection they are received on, so the messages
+     * received on all the connections are to be delivered to this handler.
+     * With {@link #setWriteCoalescing(int, int, long)} or {@link #setBatching(int, int, long)}, the connection is
+     * picked for each write or batch instead, and the requests in it are counted for that connection.
+     *
+     * @param messageSenders The senders of the connections
+     * @param selection      How the sender for a message is picked
+     */
+    public JsonRPCMessageHandler(List<? extends MessageSender<String>> messageSenders, SenderSelection selection) {
+        if (messageSenders == null || messageSenders.isEmpty() || messageSenders.contains(null)) {
+            throw new RuntimeException("MessageSender cannot be null");
+        }
+        this.senderPool = new SenderPool(messageSenders, selection != null ? selection : SenderSelection.ROUND_ROBIN);
+        this.sender = senderPool;
+        this.jsoNify = JSONify.getDefault();
+    }
+
+    /**
+     * Creates an instance of {@link JsonRPCMessageHandler} that exchanges the messages as bytes using the given {@link RPCCodec}.
+     * <p/>
+     * Both the sides should use the same type of {@link RPCCodec}.
+     *
+     * @param messageSender The generated messages will be send using this.
+     * @param codec         The {@link RPCCodec} to encode and decode the messages.
+     */
+    public JsonRPCMessageHandler(MessageSender<byte[]> messageSender, RPCCodec codec) {
+        if (messageSender == null) {
+            throw new RuntimeException("MessageSender cannot be null");
+        }
+        if (codec == null) {
+            throw new RuntimeException("RPCCodec cannot be null");
+        }
+        this.binarySender = messageSender;
+        this.jsoNify = codec;
+    }
+
+    private JsonRPCMessageHandler(JSONify jsonify, MessageSender<ByteBuffer> messageSender) {
+        if (messageSender == null) {
+            throw new RuntimeException("MessageSender cannot be null");
+        }
+        if (jsonify == null) {
+            throw new RuntimeException("JSONify cannot be null");
+        }
+        this.byteBufferSender = messageSender;
+        this.jsoNify = jsonify;
+    }
+
+    /**
+     * Creates an instance of {@link JsonRPCMessageHandler} that exchanges the messages as {@link ByteBuffer}s, so that
+     * the transport can send and receive them without converting them to and from strings.
+     * <p/>
+     * The messages are UTF-8 encoded JSON, or in the format of the codec if the given {@link JSONify} is an {@link RPCCodec}.
+     * Both the sides should use the same type of {@link JSONify}.
+     *
+     * @param messageSender The generated messages will be send using this. The buffers given to it are not used by
+     *                      the handler afterwards.
+     * @param jsonify       The {@link JSONify} to encode and decode the messages.
+     */
+    public static JsonRPCMessageHandler forByteBuffers(MessageSender<ByteBuffer> messageSender, JSONify jsonify) {
+        return new JsonRPCMessageHandler(jsonify, messageSender);
+    }
+
+    /**
+     * Returns the {@link JSONify} used by this handler, which is also used by the proxies and stubs created
+     * without a {@link JSONify}
+     */
+    public JSONify getJSONify() {
+        return jsoNify;
+    }
+
+    /**
+     * Sets the {@link Executor} on which the calls received by the stubs registered with this are dispatched, or
+     * null to dispatch them in the thread that delivers the message, which is the default.
+     * <p/>
+     * With an executor, a slow call does not hold up the calls received after it, other than the ones that
+     * the given order requires to run after it. The responses to the calls made through this handler are
+     * always processed in the thread that delivers them.
+     *
+     * @see VirtualThreads#newVirtualThreadPerTaskExecutor()
+     */
+    public void setDispatchExecutor(Executor executor, DispatchOrder order) {
+        this.dispatchOrder = order != null ? order : DispatchOrder.UNORDERED;
+        this.dispatchExecutor = executor;
+        serialExecutors.clear();
+    }
+
+    /**
+     * Sets whether the thread running a call received by a stub registered with this is interrupted when the
+     * caller cancels the call. Default is false, in which case the stub implementation can check
+     * {@link #isCallCancelled()} to stop early.
+     * <p/>
+     * A call that is cancelled before it starts running on the dispatch executor is skipped, and a cancelled call
+     * gets no response either way.
+     */
+    public void setInterruptOnCancel(boolean interruptOnCancel) {
+        this.interruptOnCancel = interruptOnCancel;
+    }
+
+    /**
+     * Returns whether the call being dispatched on the current thread was cancelled by the caller, which
+     * no longer waits for its response.
+     * <p/>
+     * A caller cancels a call when it times out, when its future is cancelled, or when the handler of the caller
+     * is cleared.
+     */
+    public boolean isCallCancelled() {
+        CallContext context = callContext.get();
+        return context != null && context.dispatch != null && context.dispatch.isCancelled();
+    }
+
+    /**
+     * Returns the time in milliseconds left before the caller of the call being dispatched on the current thread
+     * stops waiting for its response, or -1 if that is not known.
+     * <p/>
+     * The time is counted from when the call was received, as per the request timeout the caller sent with it.
+     * The time the call spent in the transport is not counted, as that would rely on the clocks of both sides
+     * agreeing. A call whose time is up before it is dispatched is dropped.
+     *
+     * @see #getExpiredCount()
+     */
+    public long getRemainingTime() {
+        CallContext context = callContext.get();
+        Dispatch dispatch = context != null ? context.dispatch : null;
+        if (dispatch == null || !dispatch.hasDeadline) {
+            return -1;
+        }
+        return Math.max(0, TimeUnit.NANOSECONDS.toMillis(dispatch.deadline - System.nanoTime()));
+    }
+
+    /**
+     * Returns the number of calls received by the stubs registered with this that were dropped, as their caller
+     * had stopped waiting for the response by the time they were to be dispatched.
+     * <p/>
+     * As the time is counted from when a call is received, only the calls that wait too long for the
+     * {@link #setDispatchExecutor(Executor, DispatchOrder) dispatch executor} expire.
+     *
+     * @see #getRemainingTime()
+     */
+    public long getExpiredCount() {
+        return expiredCalls.sum();
+    }
+
+    /**
+     * Sets the maximum number of calls made through this handler that can be waiting for a response at
+     * the same time, or 0 for no limit, which is the default.
+     * <p/>
+     * A one way call is waiting until its result is received or it times out.
+     *
+     * @see #setInFlightPolicy(InFlightPolicy, long)
+     */
+    public void setInFlightLimit(int maxCalls) {
+        this.inFlightLimit = maxCalls > 0 ? new InFlightLimit(maxCalls) : null;
+        resolvedInFlightLimits = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Sets the maximum number of calls to the given interface that can be waiting for a response at the same
+     * time, or 0 for no limit.
+     *
+     * @see #setInFlightLimit(int)
+     */
+    public void setInFlightLimit(Class<?> rpcInterface, int maxCalls) {
+        if (maxCalls > 0) {
+            interfaceInFlightLimits.put(rpcInterface.getCanonicalName(), new InFlightLimit(maxCalls));
+        } else {
+            interfaceInFlightLimits.remove(rpcInterface.getCanonicalName());
+        }
+        resolvedInFlightLimits = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Sets the maximum number of calls to the given method of the given interface that can be waiting for a
+     * response at the same time, or 0 for no limit.
+     * The method is identified by the METHOD_xxx id of the generated proxy.
+     *
+     * @see #setInFlightLimit(int)
+     */
+    public void setInFlightLimit(Class<?> rpcInterface, int methodId, int maxCalls) {
+        String interfaceName = rpcInterface.getCanonicalName();
+        Map<Integer, InFlightLimit> methodLimits = methodInFlightLimits.get(interfaceName);
+        if (methodLimits == null) {
+            methodLimits = new ConcurrentHashMap<>();
+            Map<Integer, InFlightLimit> existing = methodInFlightLimits.putIfAbsent(interfaceName, methodLimits);
+            if (existing != null) {
+                methodLimits = existing;
+            }
+        }
+        if (maxCalls > 0) {
+            methodLimits.put(methodId, new InFlightLimit(maxCalls));
+        } else {
+            methodLimits.remove(methodId);
+        }
+        resolvedInFlightLimits = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Sets what happens to a call when an in flight limit for it is reached, which is to block the caller
+     * by default.
+     *
+     * @param policy        The {@link InFlightPolicy}
+     * @param maxWaitMillis The maximum time to wait for the {@link InFlightPolicy#WAIT} policy
+     */
+    public void setInFlightPolicy(InFlightPolicy policy, long maxWaitMillis) {
+        this.inFlightPolicy = policy;
+        this.inFlightMaxWait = maxWaitMillis;
+    }
+
+    /**
+     * Returns the number of calls made through this handler that are waiting for a response
+     */
+    public int getInFlightCount() {
+        return inFlightCalls.intValue();
+    }
+
+    /**
+     * Returns the number of calls that failed because an in flight limit was reached
+     */
+    public long getRejectedCount() {
+        return rejectedCalls.sum();
+    }
+
+    /**
+     * Sends the requests made through this handler in JSON RPC batches of up to the given number of requests,
+     * or 1 to send each request on its own, which is the default.
+     * <p/>
+     * Without a window, the requests made while a batch is being sent are sent together as the next batch, so
+     * batching does not delay a request. With a window, a request waits up to the window, at the resolution of
+     * the request timeouts, for others to join its batch. The responses to a batch are sent back as one batch.
+     * <p/>
+     * If a batch could not be sent, its calls fail like a call whose message could not be sent.
+     * Batching needs the messages to be JSON, so it is not available with an {@link RPCCodec}.
+     *
+     * @param maxMessages  The maximum number of requests in a batch
+     * @param maxLength    The maximum length of the JSON of the requests in a batch, a longer request is sent on its own
+     * @param windowMillis How long a request can wait for others to be batched with it, or 0 for no wait
+     */
+    public void setBatching(int maxMessages, int maxLength, long windowMillis) {
+        if (maxMessages > 1 && jsoNify instanceof RPCCodec) {
+            throw new RuntimeException("Batching is not supported with an RPCCodec");
+        }
+        MessageBatcher previous = batcher;
+        batcher = maxMessages > 1 ? new MessageBatcher(this, maxMessages, maxLength, windowMillis) : null;
+        if (previous != null) {
+            previous.flush();
+        }
+    }
+
+    /**
+     * Coalesces the messages sent by this handler from many threads, which are the requests and the responses,
+     * into fewer writes to its {@link MessageSender}, or stops coalescing them if the given number of messages is 1.
+     * <p/>
+     * The messages are written by a writer thread, so a message that could not be sent no longer fails its call
+     * right away, and the call times out instead.
+     * The messages of a write are sent as a JSON RPC batch, so this needs the {@link MessageSender} of JSON strings.
+     * A write can hold the batches of {@link #setBatching(int, int, long)}, whose requests are then added to it.
+     *
+     * @param maxMessages The maximum number of messages in a write
+     * @param maxLength   The maximum length of the messages in a write, a longer message is written on its own
+     * @param delayMicros How long a write waits for more messages, or 0 to only coalesce the messages sent while
+     *                    the previous write is in progress
+     * @see CoalescingMessageSender
+     */
+    public void setWriteCoalescing(int maxMessages, int maxLength, long delayMicros) {
+        if (sender == null) {
+            throw new RuntimeException("Write coalescing needs a MessageSender of JSON strings");
+        }
+        MessageSender<String> previous = sender;
+        MessageSender<String> transportSender = previous instanceof CoalescingMessageSender
+                ? ((CoalescingMessageSender) previous).getSender() : previous;
+        sender = maxMessages > 1 ? new CoalescingMessageSender(this, transportSender, maxMessages, maxLength, delayMicros) : transportSender;
+        if (previous instanceof CoalescingMessageSender) {
+            ((CoalescingMessageSender) previous).close();
+        }
+    }
+
     /**
      * Enable/disable debug loging
      */
@@ -85,288 +484,1058 @@ public final class JsonRPCMessageHandler implements MessageReceiver<String> {
         if (relay && !key.startsWith(PREFIX_RELAY_PROPERTY)) {
             key = PREFIX_RELAY_PROPERTY + key;
         }
-        requestExtras.put(key, value);
+        requestExtras.put(key, value);
+    }
+
+    /**
+     * Returns any property that was send as part of the current rpc call within this thread if any.
+     */
+    public String getProperty(String key) {
+        CallContext context = callContext.get();
+        RPCMessage params = context != null ? context.message : null;
+        String value = null;
+        if (params != null) {
+            value = params.getStringValue(key);
+            if (value == null && !key.startsWith(PREFIX_RELAY_PROPERTY)){
+                value = params.getStringValue(PREFIX_RELAY_PROPERTY + key);
+            }
+        }
+        return value;
+    }
+
+    /**
+     * Called internally by the stubs generated by earlier versions to set the properties of the call being
+     * dispatched on the current thread, or null once the call is done.
+     *
+     * @deprecated The properties are read from the message of the call being dispatched.
+     * The generated stubs no longer call this.
+     */
+    @Deprecated
+    public final void onRPCParameters(Map<String, String> params) {
+        CallContext context = callContext.get();
+        if (params == null) {
+            if (context != null && context.outsideDispatch) {
+                restoreCallContext(context.previous);
+            }
+        } else {
+            JSONify.JWriter jsonRPCWriter = jsoNify.newWriter();
+            for (Map.Entry<String, String> param : params.entrySet()) {
+                jsonRPCWriter.put(param.getKey(), param.getValue());
+            }
+            CallContext paramsContext = new CallContext(jsoNify.parseMessage(jsonRPCWriter.toJson()), context);
+            paramsContext.outsideDispatch = true;
+            callContext.set(paramsContext);
+        }
+    }
+
+    /**
+     * Adds a delegate for a given method in a interface.
+     * If this is added to the proxy side, the method will be called on the given instance without proxying to stub.
+     * If this is added to the stub side, the method will be called on the given instance instead of the implementation
+     * that the stub is wrapping
+     */
+    public synchronized void addMethodDelegate(RPCMethodDelegate methodDelegate) {
+        Object delegate = methodDelegate.getDelegate();
+        if (methodDelegate.getInstanceId() != null) {
+            if (delegate != null) {
+                instanceDelegates.put(methodDelegate, delegate);
+            } else {
+                instanceDelegates.remove(methodDelegate);
+            }
+            return;
+        }
+        //published as a new map, so that the lookups need no locking
+        Map<Class<?>, Object[]> delegates = new IdentityHashMap<>(methodDelegates);
+        int methodId = methodDelegate.getMethodId();
+        Object[] slots = delegates.get(methodDelegate.getInterfaceClass());
+        slots = slots != null ? Arrays.copyOf(slots, Math.max(slots.length, methodId + 1)) : new Object[methodId + 1];
+        slots[methodId] = delegate;
+        delegates.put(methodDelegate.getInterfaceClass(), slots);
+        methodDelegates = delegates;
+    }
+
+    /**
+     * Returns any method delegate set for the given method
+     */
+    public Object getMethodDelegate(RPCMethodDelegate delegate) {
+        if (delegate.getInstanceId() != null) {
+            return instanceDelegates.get(delegate);
+        }
+        return getMethodDelegate(delegate.getInterfaceClass(), delegate.getMethodId());
+    }
+
+    /**
+     * Returns any method delegate set for the method with the given id of the given interface.
+     * <p/>
+     * Used internally by generated Proxy/Stub for each call, so this does not allocate or lock.
+     */
+    public Object getMethodDelegate(Class<?> rpcInterface, int methodId) {
+        Map<Class<?>, Object[]> delegates = methodDelegates;
+        if (delegates.isEmpty()) {
+            return null;
+        }
+        Object[] slots = delegates.get(rpcInterface);
+        return slots != null && methodId < slots.length ? slots[methodId] : null;
+    }
+
+    /**
+     * Called internally to set the original json message that resulted in a method invocation, or null once
+     * the invocation is done.
+     * <p/>
+     * The message is kept with the call being dispatched on the current thread.
+     */
+    public void setOriginalMessage(RPCMethodDelegate method, RPCMessage message) {
+        CallContext context = callContext.get();
+        if (message == null) {
+            if (context != null && method.equals(context.method)) {
+                context.method = null;
+                if (context.outsideDispatch) {
+                    restoreCallContext(context.previous);
+                }
+            }
+        } else if (context != null && context.message == message) {
+            context.method = method;
+        } else {
+            //the stub is called directly instead of from this handler
+            CallContext stubContext = new CallContext(message, context);
+            stubContext.method = method;
+            stubContext.outsideDispatch = true;
+            callContext.set(stubContext);
+        }
+    }
+
+    /**
+     * Called internally by the stubs generated by earlier versions to set the original json message that resulted
+     * in a method invocation, or null once the invocation is done.
+     *
+     * @deprecated The message is parsed again here. Use {@link #setOriginalMessage(RPCMethodDelegate, RPCMessage)}
+     * with the message parsed by this handler.
+     */
+    @Deprecated
+    public void setOriginalMessage(RPCMethodDelegate method, String message) {
+        setOriginalMessage(method, message != null ? jsoNify.parseMessage(message) : null);
+    }
+
+    /**
+     * Returns the original json message that resulted in the invocation of the given method, if it is being
+     * invoked on the current thread
+     */
+    public String getOriginalMessage(RPCMethodDelegate method) {
+        CallContext context = callContext.get();
+        return context != null && method.equals(context.method) ? context.message.getMessage() : null;
+    }
+
+    private void restoreCallContext(CallContext context) {
+        if (context != null) {
+            callContext.set(context);
+        } else {
+            callContext.remove();
+        }
+    }
+
+    /**
+     * Return any extras set
+     */
+    public Map<String, String> getExtras() {
+        return requestExtras;
+    }
+
+    @Override
+    public void onMessage(String message) {
+        try {
+            logv("onMessage " + message);
+            if (JsonBatch.isBatch(message)) {
+                onBatch(JsonBatch.split(message));
+            } else {
+                onMessage(jsoNify.parseMessage(message));
+            }
+        } catch (Exception ex) {
+            loge(ex);
+        }
+    }
+
+    /**
+     * Processes the given message encoded by the {@link RPCCodec} of this handler
+     *
+     * @see #JsonRPCMessageHandler(MessageSender, RPCCodec)
+     */
+    public void onMessage(byte[] message) {
+        try {
+            if (!(jsoNify instanceof RPCCodec)) {
+                throw new IllegalStateException("No RPCCodec to decode the message");
+            }
+            RPCMessage rpcMessage = ((RPCCodec) jsoNify).parseMessage(message);
+            if (logEnabled) {
+                logv("onMessage " + rpcMessage);
+            }
+            onMessage(rpcMessage);
+        } catch (Exception ex) {
+            loge(ex);
+        }
+    }
+
+    /**
+     * Processes the given message, whose remaining bytes are read without changing the position of the buffer.
+     * <p/>
+     * The buffer is not used once this returns, so it can be a direct buffer that is reused by the transport.
+     *
+     * @see #forByteBuffers(MessageSender, JSONify)
+     */
+    public void onMessage(ByteBuffer message) {
+        try {
+            if (!(jsoNify instanceof RPCCodec) && JsonBatch.isBatch(message)) {
+                String batch = StandardCharsets.UTF_8.decode(message.duplicate()).toString();
+                if (logEnabled) {
+                    logv("onMessage " + batch);
+                }
+                onBatch(JsonBatch.split(batch));
+                return;
+            }
+            RPCMessage rpcMessage = jsoNify.parseMessage(message);
+            if (logEnabled) {
+                logv("onMessage " + rpcMessage);
+            }
+            onMessage(rpcMessage);
+        } catch (Exception ex) {
+            loge(ex);
+        }
+    }
+
+    /**
+     * Processes the messages of a received batch, and sends back the responses to its requests as one batch
+     */
+    private void onBatch(List<String> messages) {
+        ResponseBatch responses = new ResponseBatch();
+        try {
+            for (String message : messages) {
+                try {
+                    onMessage(jsoNify.parseMessage(message), responses);
+                } catch (Exception ex) {
+                    loge(ex);
+                }
+            }
+        } finally {
+            responses.release();
+        }
+    }
+
+    /**
+     * Processes the given parsed message
+     */
+    private void onMessage(RPCMessage rpcMessage) {
+        onMessage(rpcMessage, null);
+    }
+
+    /**
+     * Processes the given parsed message, whose response is added to the given batch if any
+     */
+    private void onMessage(RPCMessage rpcMessage, ResponseBatch responses) {
+        try {
+            String stubInterface = rpcMessage.getInterfaceName();
+            String methodName = rpcMessage.getMethod();
+            Integer handlerId = rpcMessage.getRemoteHandlerId();
+            boolean processMessage = (handlerId == null) || (hashCode() == handlerId);
+
+            if (processMessage) {
+                if (CANCEL_METHOD.equals(methodName)) {
+                    onCancelRequest(rpcMessage);
+                } else if (methodName != null) {
+                    RPCStub stub = stubInterface != null ? stubRegistry.get(stubInterface, rpcMessage.getRemoteId()) : null;
+
+                    if (stub != null) {
+                        if (responses != null) {
+                            responses.expect();
+                        }
+                        Dispatch dispatch = newDispatch(stub, rpcMessage, responses);
+                        Executor executor = dispatchExecutor;
+                        if (executor == null) {
+                            dispatch.run();
+                        } else {
+                            dispatch(executor, dispatch);
+                        }
+                    } else if (rpcMessage.getCallId() == null) {
+                        loge("No Matching Stub found to serve the notification " + rpcMessage + " " + stubRegistry);
+                    } else {
+                        loge("No Matching Stub found to serve the request " + rpcMessage + " " + stubRegistry);
+
+                        JSONify.JWriter jsonRPCWriter = jsoNify.newWriter();
+                        jsonRPCWriter.put("jsonrpc", "2.0");
+                        jsonRPCWriter.put("interface", stubInterface);
+                        jsonRPCWriter.put("method_id", rpcMessage.getMethodId());
+                        jsonRPCWriter.put("id", rpcMessage.getCallId());
+                        if (rpcMessage.getInstanceId() != null) {
+                            jsonRPCWriter.put("ins_id", rpcMessage.getInstanceId());
+                        }
+                        jsonRPCWriter.beginObject("error");
+                        jsonRPCWriter.put("code", -32001);
+                        jsonRPCWriter.endObject();
+
+                        if (responses != null) {
+                            responses.expect();
+                            responses.add(jsonRPCWriter);
+                        } else {
+                            sendMessage(jsonRPCWriter);
+                        }
+                    }
+                } else {
+                    //result call
+                    Long callId = rpcMessage.getCallId();
+                    PendingCall waitingReq = callId != null ? removePendingCall(callId) : null;
+                    if (waitingReq != null) {
+                        waitingReq.complete(rpcMessage);
+                    } else if (callId == null && rpcMessage.getError() != null) {
+                        onNotificationError(rpcMessage);
+                    } else {
+                        String result = rpcMessage.getStringValue("result");
+                        if (result != null && !result.isEmpty()) {
+                            loge("No Waiting request found for response " + rpcMessage);
+                        }
+                    }
+                }
+            } else if (logEnabled) {
+                logv("Ignoring message to different handler " + getMessageEntries(rpcMessage.getMessage()));
+            }
+        } catch (Exception ex) {
+            loge(ex);
+        }
+    }
+
+    /**
+     * Returns the dispatch of the given call to the given stub, which is tracked until it completes if the call
+     * is a request, so that the caller can cancel it
+     */
+    private Dispatch newDispatch(RPCStub stub, RPCMessage rpcMessage, ResponseBatch responses) {
+        Dispatch dispatch = new Dispatch(stub, rpcMessage, responses);
+        Long timeout = rpcMessage.getTimeout();
+        if (timeout != null) {
+            dispatch.deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+            dispatch.hasDeadline = true;
+        }
+        Long callId = rpcMessage.getCallId();
+        if (callId != null) {
+            Long key = dispatchKey(rpcMessage.getHandlerId(), callId);
+            //a call whose key is taken by a call from another handler can not be cancelled
+            if (dispatches.putIfAbsent(key, dispatch) == null) {
+                dispatch.key = key;
+            }
+        }
+        return dispatch;
+    }
+
+    /**
+     * Returns the key of the dispatch of the call with the given id, from the handler with the given id
+     */
+    private static Long dispatchKey(Integer handlerId, long callId) {
+        return callId ^ ((long) (handlerId != null ? handlerId : 0) << 32);
+    }
+
+    /**
+     * Cancels the dispatch of the call named by the given cancel request, if it has not completed yet
+     */
+    private void onCancelRequest(RPCMessage rpcMessage) {
+        JSONify.JElement params = rpcMessage.getParams();
+        String id = params != null ? params.getStringValue("id") : null;
+        if (id == null) {
+            return;
+        }
+        long callId = Long.parseLong(id);
+        Integer handlerId = rpcMessage.getHandlerId();
+        Dispatch dispatch = dispatches.get(dispatchKey(handlerId, callId));
+        if (dispatch != null && dispatch.isCall(handlerId, callId) && dispatch.cancel() && logEnabled) {
+            logv("Cancelled " + rpcMessage);
+        }
+    }
+
+    /**
+     * Delivers the error of a failed notification to the proxy that sent it
+     */
+    private void onNotificationError(RPCMessage rpcMessage) {
+        Integer instanceId = rpcMessage.getInstanceId();
+        ProxyReference proxyReference = instanceId != null ? notificationProxies.get(instanceId) : null;
+        RPCProxy proxy = proxyReference != null ? proxyReference.get() : null;
+        if (proxy != null) {
+            proxy.onRPCOneWayResult(rpcMessage);
+        } else {
+            if (proxyReference != null) {
+                notificationProxies.remove(instanceId, proxyReference);
+            }
+            loge("No proxy found for the failed notification " + rpcMessage);
+        }
+    }
+
+    /**
+     * Delivers the given call to its stub on the given executor, in the order set for the executor
+     */
+    private void dispatch(Executor executor, Dispatch call) {
+        try {
+            switch (dispatchOrder) {
+                case PER_SERVICE:
+                    getSerialExecutor(executor, call.stub).execute(call);
+                    break;
+                case PER_REMOTE_HANDLER:
+                    Integer remoteHandlerId = call.message.getHandlerId();
+                    getSerialExecutor(executor, remoteHandlerId != null ? remoteHandlerId : NO_HANDLER).execute(call);
+                    break;
+                default:
+                    executor.execute(call);
+                    break;
+            }
+        } catch (RuntimeException ex) {
+            //the call is not going to add its response
+            call.finish();
+            if (call.responses != null) {
+                call.responses.add(null);
+            }
+            throw ex;
+        }
+    }
+
+    /**
+     * Returns the {@link SerialExecutor} that runs the calls with the given ordering key in order
+     */
+    private Executor getSerialExecutor(Executor executor, Object key) {
+        SerialExecutor serialExecutor = serialExecutors.get(key);
+        if (serialExecutor == null) {
+            serialExecutor = new SerialExecutor(executor);
+            SerialExecutor existing = serialExecutors.putIfAbsent(key, serialExecutor);
+            if (existing != null) {
+                serialExecutor = existing;
+            }
+        }
+        return serialExecutor;
+    }
+
+    /**
+     * Used internally by generated Proxy/Stub to send the message using the {@link MessageSender} associated with this
+     */
+    public void sendMessage(String message) {
+        logv("Sending " + message);
+        try {
+            transmit(message);
+        } catch (Exception ex) {
+            loge(ex);
+            throw new RuntimeException(ex);
+        }
+    }
+
+    /**
+     * Used internally by generated Proxy/Stub to send the message using the {@link MessageSender} associated with this
+     */
+    public void sendMessage(JSONify.JWriter message) {
+        if (logEnabled) {
+            logv("Sending " + message.toJson());
+        }
+        try {
+            transmit(message);
+        } catch (Exception ex) {
+            loge(ex);
+            throw new RuntimeException(ex);
+        }
+    }
+
+    /**
+     * Used internally by generated Proxy/Stub to send the message using the {@link MessageSender} associated with this
+     *
+     * @deprecated The given rpcID is used as the call id, and has to be one returned by {@link #newCallId()}.
+     * Use {@link #sendMessage(JSONify.JWriter, String, int, long, RPCProxy)}.
+     */
+    @Deprecated
+    public void sendMessage(String message, String interfaceName, int methodID, int rpcID, int proxyInstanceId, RPCProxy proxy) {
+        sendMessage((Object) message, interfaceName, methodID, rpcID, proxy);
+    }
+
+    /**
+     * Used internally by generated Proxy to send the message of a one way call to the given method with the given
+     * call id using the {@link MessageSender} associated with this.
+     * The response, or a timeout failure if there is no response within the one way request timeout, is delivered
+     * to {@link RPCProxy#onRPCOneWayResult(RPCMessage)} of the given proxy.
+     *
+     * @throws RPCException if an in flight limit is reached, as per the {@link InFlightPolicy}
+     * @see #newCallId()
+     * @see #setOneWayRequestTimeout(long)
+     */
+    public void sendMessage(JSONify.JWriter message, String interfaceName, int methodID, long callId, RPCProxy proxy) {
+        sendMessage((Object) message, interfaceName, methodID, callId, proxy);
+    }
+
+    private void sendMessage(Object message, String interfaceName, int methodID, long callId, RPCProxy proxy) {
+        final PendingCall pendingCall = new PendingCall(this, callId);
+        pendingCall.methodId = methodID;
+        pendingCall.proxyInstance = proxy;
+        long timeout = getRequestTimeout(interfaceName, methodID, oneWayRequestTimeout);
+        putTimeout(message, timeout);
+        if (logEnabled) {
+            logv("Sending " + toJson(message) + " , " + pendingCall);
+        }
+        addPendingCall(pendingCall, interfaceName, methodID);
+        try {
+            TimerWheel.INSTANCE.schedule(pendingCall, timeout);
+            transmit(message, pendingCall);
+        } catch (Exception ex) {
+            loge(ex);
+            if (removePendingCall(pendingCall)) {
+                pendingCall.cancel();
+            }
+            throw new RuntimeException(ex);
+        }
+    }
+
+    /**
+     * Sends the given request of the given call, in a batch if batching is enabled
+     */
+    private void transmit(Object message, PendingCall pendingCall) throws IOException {
+        MessageBatcher messageBatcher = batcher;
+        if (messageBatcher != null) {
+            messageBatcher.add(toJson(message), pendingCall);
+        } else if (senderPool != null) {
+            transmitRequests(toJson(message), Collections.singletonList(pendingCall));
+        } else {
+            transmit(message);
+        }
+    }
+
+    /**
+     * Sends the given message, which is a batch holding the requests of the given calls, counting the calls for the
+     * connection of the {@link SenderPool} they go over.
+     * The calls of the notifications in the batch are null.
+     */
+    void transmitRequests(String message, List<PendingCall> calls) throws IOException {
+        MessageSender<String> currentSender = sender;
+        if (senderPool != null && currentSender == senderPool) {
+            senderPool.sendRequests(message, calls);
+        } else if (senderPool != null && currentSender instanceof CoalescingMessageSender) {
+            ((CoalescingMessageSender) currentSender).sendRequests(message, calls);
+        } else {
+            transmit(message);
+        }
+    }
+
+    /**
+     * Used internally by generated Proxy to send the message of a notification, which has no id and gets no response.
+     * <p/>
+     * If a proxy is given, the stub sends back the error if the call fails, which is delivered to
+     * {@link RPCProxy#onRPCOneWayResult(RPCMessage)} of the proxy. The proxy is found by the given instance id,
+     * and is not kept from being garbage collected. It is forgotten once it is collected.
+     */
+    public void sendNotification(JSONify.JWriter message, int proxyInstanceId, RPCProxy proxy) {
+        if (proxy != null) {
+            ProxyReference proxyReference = notificationProxies.get(proxyInstanceId);
+            if (proxyReference == null || proxyReference.get() != proxy) {
+                removeCollectedProxies();
+                notificationProxies.put(proxyInstanceId, new ProxyReference(proxyInstanceId, proxy, collectedProxies));
+            }
+        }
+        MessageBatcher messageBatcher = batcher;
+        if (messageBatcher != null) {
+            messageBatcher.add(message.toJson(), null);
+        } else {
+            sendMessage(message);
+        }
+    }
+
+    /**
+     * Removes the proxies that were garbage collected since they sent a notification
+     */
+    private void removeCollectedProxies() {
+        Reference<? extends RPCProxy> reference;
+        while ((reference = collectedProxies.poll()) != null) {
+            ProxyReference proxyReference = (ProxyReference) reference;
+            notificationProxies.remove(proxyReference.instanceId, proxyReference);
+        }
+    }
+
+    /**
+     * Sends the given message, which is either a JSON string or a {@link JSONify.JWriter}, using the {@link MessageSender}
+     */
+    void transmit(Object message) throws IOException {
+        if (byteBufferSender != null) {
+            if (message instanceof JSONify.JWriter || jsoNify instanceof RPCCodec) {
+                byteBufferSender.sendMessage(toWriter(message).toByteBuffer());
+            } else {
+                byteBufferSender.sendMessage(StandardCharsets.UTF_8.encode((String) message));
+            }
+        } else if (binarySender != null) {
+            binarySender.sendMessage(toWriter(message).toBytes());
+        } else {
+            sender.sendMessage(toJson(message));
+        }
+    }
+
+    /**
+     * Returns the {@link JSONify.JWriter} for the given message, which is either a JSON string or a {@link JSONify.JWriter}
+     */
+    private JSONify.JWriter toWriter(Object message) {
+        if (message instanceof JSONify.JWriter) {
+            return (JSONify.JWriter) message;
+        }
+        //re-encode the JSON in the format of the codec
+        JSONify.JWriter writer = jsoNify.newWriter();
+        JSONify.JElement element = jsoNify.fromJson((String) message);
+        for (String key : element.getKeys()) {
+            writer.putJson(key, element.getJsonValue(key));
+        }
+        return writer;
+    }
+
+    private static String toJson(Object message) {
+        return message instanceof JSONify.JWriter ? ((JSONify.JWriter) message).toJson() : (String) message;
+    }
+
+    /**
+     * Returns a map of entries in the given message
+     */
+    public Map<String, String> getMessageEntries(String message) {
+        Map<String, String> entries = new LinkedHashMap<>();
+        entries.put("this", "" + hashCode());
+        try {
+            if (JsonBatch.isBatch(message)) {
+                entries.put("batch", message);
+                return entries;
+            }
+            JSONify.JElement json = jsoNify.fromJson(message);
+            for (String key : json.getKeys()) {
+                entries.put(key, json.getJsonValue(key));
+            }
+        } catch (Exception ex) {
+            loge(ex);
+        }
+        return entries;
+    }
+
+    /**
+     * Returns a new id for a call made through this handler, which is unique among the calls of this handler.
+     * <p/>
+     * Used internally by generated Proxy as the id of the request, which the response carries back.
+     */
+    public long newCallId() {
+        return callIdGenerator.incrementAndGet();
+    }
+
+    /**
+     * Used internally by generated Proxy/Stub to send the message using the {@link MessageSender} associated with this
+     *
+     * @deprecated The given rpcID is used as the call id, and has to be one returned by {@link #newCallId()}.
+     * Use {@link #sendRequest(JSONify.JWriter, String, int, long)}.
+     */
+    @Deprecated
+    public String sendMessageAndWaitForResponse(String message, String interfaceName, int methodID, int rpcID, int proxyInstanceId) {
+        return sendRequest(message, interfaceName, methodID, rpcID).getMessage();
+    }
+
+    /**
+     * Used internally by generated Proxy to send the message of the call to the given method with the given call id
+     * using the {@link MessageSender} associated with this, and returns the parsed response.
+     *
+     * @throws RPCException if an in flight limit is reached, as per the {@link InFlightPolicy}
+     * @see #newCallId()
+     */
+    public RPCMessage sendRequest(JSONify.JWriter message, String interfaceName, int methodID, long callId) {
+        return sendRequest((Object) message, interfaceName, methodID, callId);
+    }
+
+    private RPCMessage sendRequest(Object message, String interfaceName, int methodID, long callId) {
+        final PendingCall pendingCall = new PendingCall(this, callId);
+        pendingCall.waiter = Thread.currentThread();
+        long timeout = getRequestTimeout(interfaceName, methodID, requestTimeout);
+        putTimeout(message, timeout);
+        if (logEnabled) {
+            logv("Sending and waiting " + toJson(message) + " , " + pendingCall);
+        }
+        addPendingCall(pendingCall, interfaceName, methodID);
+        try {
+            transmit(message, pendingCall);
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+            long remaining;
+            while (pendingCall.result == null && !pendingCall.cancelled && (remaining = deadline - System.nanoTime()) > 0) {
+                LockSupport.parkNanos(this, remaining);
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+            }
+            if (removePendingCall(pendingCall)) {
+                sendCancel(pendingCall);
+            } else {
+                awaitCompletion(pendingCall);
+            }
+            if (pendingCall.result == null) {
+                throw new RuntimeException(pendingCall.cancelled ? "Request cancelled" : "Request timed out");
+            }
+        } catch (Exception ex) {
+            loge(ex);
+            boolean interrupted = ex instanceof InterruptedException;
+            if (removePendingCall(pendingCall) && interrupted) {
+                sendCancel(pendingCall);
+            }
+            pendingCall.result = newErrorResult(ex);
+            loge(ex.getMessage());
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        return pendingCall.result;
+    }
+
+    /**
+     * Waits for the response or the cancellation of the given blocking call to be delivered, once whoever delivers
+     * it has taken it from the pending calls
+     */
+    private static void awaitCompletion(PendingCall pendingCall) {
+        boolean interrupted = false;
+        while (pendingCall.result == null && !pendingCall.cancelled) {
+            LockSupport.park(pendingCall);
+            if (Thread.interrupted()) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Used internally by generated Proxy to send the message of the call with the given call id using the
+     * {@link MessageSender} associated with this, and returns a future that is completed with the parsed response
+     * without blocking the calling thread.
+     * <p/>
+     * The future is completed with an error response if the message could not be sent, or if no response is
+     * received within the request timeout. When an in flight limit is reached, the call is queued until it can be
+     * sent, or its future fails with an {@link RPCException} as per the {@link InFlightPolicy}, so the calling
+     * thread is never blocked. Cancelling the future cancels the call.
+     *
+     * @see #setRequestTimeout(long)
+     * @see #newCallId()
+     */
+    public CompletableFuture<RPCMessage> sendRequestAsync(JSONify.JWriter message, String interfaceName, int methodID, long callId) {
+        final PendingCall pendingCall = new PendingCall(this, callId);
+        pendingCall.future = new CompletableFuture<>();
+        long timeout = getRequestTimeout(interfaceName, methodID, requestTimeout);
+        putTimeout(message, timeout);
+        pendingCall.future.whenComplete(new BiConsumer<RPCMessage, Throwable>() {
+            @Override
+            public void accept(RPCMessage response, Throwable exception) {
+                if (exception instanceof CancellationException) {
+                    QueuedCall queuedCall = pendingCall.queuedCall;
+                    if (removePendingCall(pendingCall)) {
+                        pendingCall.cancel();
+                        sendCancel(pendingCall);
+                    } else if (queuedCall != null && queuedCall.take()) {
+                        queuedCalls.remove(queuedCall);
+                        queuedCall.cancel();
+                    }
+                }
+            }
+        });
+        if (logEnabled) {
+            logv("Sending async " + message.toJson() + " , " + pendingCall);
+        }
+        InFlightLimit[] limits = getInFlightLimits(interfaceName, methodID);
+        if (limits != null && (!queuedCalls.isEmpty() || !InFlightLimit.tryAcquire(limits))) {
+            InFlightPolicy policy = inFlightPolicy;
+            if (policy == InFlightPolicy.FAIL_FAST) {
+                rejectedCalls.increment();
+                pendingCall.future.completeExceptionally(newLimitExceeded(interfaceName));
+            } else {
+                queueCall(new QueuedCall(pendingCall, message, interfaceName, limits, timeout),
+                        policy == InFlightPolicy.WAIT ? inFlightMaxWait : -1);
+            }
+            return pendingCall.future;
+        }
+        sendAsync(pendingCall, message, limits, timeout);
+        return pendingCall.future;
     }
 
     /**
-     * Returns any property that was send as part of the current rpc call within this thread if any.
+     * Sends the given async call, for which the given in flight limits are acquired
      */
-    public String getProperty(String key) {
-        Map<String, String> params = rpcParameters.get();
-        String value = null;
-        if (params != null) {
-            value = params.get(key);
-            if (value == null && !key.startsWith(PREFIX_RELAY_PROPERTY)){
-                value = params.get(PREFIX_RELAY_PROPERTY + key);
+    private void sendAsync(PendingCall pendingCall, JSONify.JWriter message, InFlightLimit[] limits, long timeout) {
+        pendingCall.inFlightLimits = limits;
+        inFlightCalls.increment();
+        pendingCalls.add(pendingCall);
+        if (pendingCall.future.isCancelled() && removePendingCall(pendingCall)) {
+            //cancelled before it was added
+            return;
+        }
+        try {
+            TimerWheel.INSTANCE.schedule(pendingCall, timeout);
+            transmit(message, pendingCall);
+        } catch (Exception ex) {
+            loge(ex);
+            if (removePendingCall(pendingCall)) {
+                pendingCall.cancel();
+                pendingCall.future.complete(newErrorResult(ex));
             }
         }
-        return value;
     }
 
     /**
-     * Called internally.
+     * Queues the given async call until its in flight limits allow it to be sent, failing it if that does not
+     * happen within the given wait time, unless that is negative
      */
-    public final void onRPCParameters(Map<String, String> params) {
-        if (params == null) {
-            rpcParameters.remove();
-        } else {
-            rpcParameters.set(params);
+    private void queueCall(QueuedCall queuedCall, long maxWaitMillis) {
+        queuedCall.pendingCall.queuedCall = queuedCall;
+        queuedCalls.add(queuedCall);
+        if (maxWaitMillis >= 0) {
+            TimerWheel.INSTANCE.schedule(queuedCall, maxWaitMillis);
         }
+        //the limits may have been released before it was queued
+        sendQueuedCalls();
     }
 
     /**
-     * Adds a delegate for a given method in a interface.
-     * If this is added to the proxy side, the method will be called on the given instance without proxying to stub.
-     * If this is added to the stub side, the method will be called on the given instance instead of the implementation
-     * that the stub is wrapping
+     * Sends the queued async calls whose in flight limits can now be acquired, in the order they were queued
      */
-    public void addMethodDelegate(RPCMethodDelegate methodDelegate) {
-        delegates.put(methodDelegate, methodDelegate.getDelegate());
+    private void sendQueuedCalls() {
+        for (QueuedCall queuedCall : queuedCalls) {
+            if (InFlightLimit.tryAcquire(queuedCall.limits)) {
+                if (queuedCall.take()) {
+                    queuedCalls.remove(queuedCall);
+                    queuedCall.cancel();
+                    sendAsync(queuedCall.pendingCall, queuedCall.message, queuedCall.limits, queuedCall.timeout);
+                } else {
+                    InFlightLimit.release(queuedCall.limits, queuedCall.limits.length);
+                }
+            }
+        }
+    }
+
+    private static RPCException newLimitExceeded(String interfaceName) {
+        return new RPCException(RPCException.Type.LIMIT_EXCEEDED, "Too many calls in flight to " + interfaceName);
     }
 
     /**
-     * Returns any method delegate set for the given method
+     * Used internally by generated Proxy to send the message of the call like
+     * {@link #sendRequestAsync(JSONify.JWriter, String, int, long)}, and returns a future that is completed with
+     * the result decoded from the response by the given decoder.
+     * Cancelling the returned future cancels the call.
      */
-    public Object getMethodDelegate(RPCMethodDelegate delegate) {
-        return delegates.get(delegate);
+    public <T> CompletableFuture<T> sendRequestAsync(JSONify.JWriter message, String interfaceName, int methodID, long callId,
+                                                     Function<RPCMessage, T> resultDecoder) {
+        final CompletableFuture<RPCMessage> request = sendRequestAsync(message, interfaceName, methodID, callId);
+        CompletableFuture<T> result = request.thenApply(resultDecoder);
+        result.whenComplete(new BiConsumer<T, Throwable>() {
+            @Override
+            public void accept(T value, Throwable exception) {
+                if (exception instanceof CancellationException) {
+                    request.cancel(false);
+                }
+            }
+        });
+        return result;
     }
 
     /**
-     * Called internally to set the original json message that resulted in a method invocation
+     * Returns the request timeout set for the given method, or the given default timeout
      */
-    public void setOriginalMessage(RPCMethodDelegate method, String message) {
-        if (message == null) {
-            rpcMessage.remove(method);
-        } else {
-            rpcMessage.put(method, message);
+    private long getRequestTimeout(String interfaceName, int methodID, long defaultTimeout) {
+        if (!methodRequestTimeouts.isEmpty()) {
+            Map<Integer, Long> methodTimeouts = methodRequestTimeouts.get(interfaceName);
+            Long timeout = methodTimeouts != null ? methodTimeouts.get(methodID) : null;
+            if (timeout != null) {
+                return timeout;
+            }
         }
+        return defaultTimeout;
     }
 
     /**
-     * Returns the original json message that resulted in the invocation of the given method
+     * Adds the given timeout to the given request, so that the stub can drop it once the caller stops waiting
      */
-    public String getOriginalMessage(RPCMethodDelegate method) {
-        return rpcMessage.get(method);
+    private static void putTimeout(Object message, long timeout) {
+        if (message instanceof JSONify.JWriter) {
+            ((JSONify.JWriter) message).put("timeout", timeout);
+        }
     }
 
     /**
-     * Return any extras set
+     * Tells the stub that got the given call that its response is no longer waited for
      */
-    public Map<String, String> getExtras() {
-        return requestExtras;
-    }
-
-    @Override
-    public void onMessage(String message) {
+    private void sendCancel(PendingCall pendingCall) {
+        JSONify.JWriter jsonRPCWriter = jsoNify.newWriter();
+        jsonRPCWriter.put("jsonrpc", "2.0");
+        jsonRPCWriter.put("method", CANCEL_METHOD);
+        jsonRPCWriter.put("handler_id", hashCode());
+        jsonRPCWriter.beginObject("params");
+        jsonRPCWriter.put("id", pendingCall.id);
+        jsonRPCWriter.endObject();
+        if (logEnabled) {
+            logv("Cancelling " + pendingCall);
+        }
         try {
-            logv("onMessage " + message);
-            String stubInterface = jsoNify.fromJSON(message, "interface", String.class);
-            String methodName = jsoNify.fromJSON(message, "method", String.class);
-            Integer handlerId = jsoNify.fromJSON(message, "r_handler_id", int.class);
-            boolean processMessage = (handlerId == null) || (hashCode() == handlerId);
-
-            if (processMessage) {
-                if (methodName != null) {
-                    RPCStub stub = null;
-                    Map<Integer, RPCStub> stubs = null;
-
-                    if (stubInterface != null) {
-                        stubs = stubMap.get(stubInterface);
-
-                        if (stubs != null) {
-                            Integer stubId = jsoNify.fromJSON(message, "remote_id", int.class);
-                            if (stubId == null) {
-                                if (!stubs.isEmpty()) {
-                                    stub = stubs.values().iterator().next();
-                                }
-                            } else {
-                                stub = stubs.get(stubId);
-                            }
-                        }
-                    }
-
-                    if (stub != null) {
-                        int methodId = jsoNify.fromJSON(message, "method_id", int.class);
-                        sendMessage(stub.onRPCCall(methodId, message));
-                    } else {
-                        loge("No Matching Stub found to serve the request " + message + " " + stubMap);
-
-                        JSONify.JObject jsonRPCObject = jsoNify.newJson();
-                        jsonRPCObject.put("jsonrpc", "2.0");
-                        jsonRPCObject.put("interface", jsoNify.fromJSON(message, "interface", String.class));
-                        jsonRPCObject.put("method_id", jsoNify.fromJSON(message, "method_id", int.class));
-                        jsonRPCObject.put("id", jsoNify.fromJSON(message, "id", int.class));
-                        if (jsoNify.getJSONElement(message, "ins_id") != null) {
-                            jsonRPCObject.put("ins_id", jsoNify.fromJSON(message, "ins_id", int.class));
-                        }
-                        JSONify.JObject jsonErrorObject = jsoNify.newJson();
-                        jsonErrorObject.put("code", -32001);
-                        jsonRPCObject.put("error", jsonErrorObject);
+            transmit(jsonRPCWriter);
+        } catch (Exception ex) {
+            loge(ex);
+        }
+    }
 
-                        sendMessage(jsonRPCObject.toJson());
-                    }
-                } else {
-                    //result call
-                    int methodId = jsoNify.fromJSON(message, "method_id", int.class);
-                    int callId = jsoNify.fromJSON(message, "id", int.class);
-                    RPCCallId rpcCallId;
-                    if (jsoNify.getJSONElement(message, "ins_id") != null) {
-                        int instanceId = jsoNify.fromJSON(message, "ins_id", int.class);
-                        rpcCallId = new RPCCallId(stubInterface, methodId, callId, instanceId);
-                    } else {
-                        rpcCallId = new RPCCallId(stubInterface, methodId, callId);
-                    }
-                    RPCCallId waitingReq = waitingCallers.get(rpcCallId);
-                    if (waitingReq == null && !rpcCallId.compareInstanceId) {
-                        for (RPCCallId req : waitingCallers.keySet()) {
-                            if (req.equals(rpcCallId)) {
-                                waitingReq = req;
-                                break;
-                            }
-                        }
-                    }
-                    if (waitingReq != null) {
-                        synchronized (waitingReq) {
-                            waitingReq.result = message;
-                            waitingReq.notifyAll();
-                            if (waitingReq.proxyInstance != null) {
-                                waitingReq.proxyInstance.onRPCOneWayResult(message);
-                                waitingCallers.remove(waitingReq);
-                            }
-                        }
-                    } else {
-                        String result = jsoNify.fromJSON(message, "result", String.class);
-                        if (result != null && !result.isEmpty()) {
-                            loge("No Waiting request found for response " + message);
-                        }
-                    }
+    /**
+     * Adds the given call to the ones waiting for a response, once the in flight limits allow it
+     */
+    private void addPendingCall(PendingCall pendingCall, String interfaceName, int methodID) {
+        InFlightLimit[] limits = getInFlightLimits(interfaceName, methodID);
+        if (limits != null) {
+            int acquired = 0;
+            try {
+                while (acquired < limits.length && limits[acquired].acquire(inFlightPolicy, inFlightMaxWait)) {
+                    acquired++;
                 }
-            } else {
-                logv("Ignoring message to different handler " + getMessageEntries(message));
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
             }
-        } catch (Exception ex) {
-            loge(ex);
+            if (acquired < limits.length) {
+                InFlightLimit.release(limits, acquired);
+                rejectedCalls.increment();
+                throw newLimitExceeded(interfaceName);
+            }
+            pendingCall.inFlightLimits = limits;
         }
-        rpcParameters.remove();
+        inFlightCalls.increment();
+        pendingCalls.add(pendingCall);
     }
 
     /**
-     * Used internally by generated Proxy/Stub to send the message using the {@link MessageSender} associated with this
+     * Returns the in flight limits that apply to a call to the given method, or null if there are none
      */
-    public void sendMessage(String message) {
-        logv("Sending " + message);
-        try {
-            sender.sendMessage(message);
-        } catch (Exception ex) {
-            loge(ex);
-            throw new RuntimeException(ex);
+    private InFlightLimit[] getInFlightLimits(String interfaceName, int methodID) {
+        if (inFlightLimit == null && interfaceInFlightLimits.isEmpty() && methodInFlightLimits.isEmpty()) {
+            return null;
+        }
+        ConcurrentMap<String, ConcurrentMap<Integer, InFlightLimit[]>> resolved = resolvedInFlightLimits;
+        ConcurrentMap<Integer, InFlightLimit[]> interfaceLimits = resolved.get(interfaceName);
+        if (interfaceLimits == null) {
+            interfaceLimits = new ConcurrentHashMap<>();
+            ConcurrentMap<Integer, InFlightLimit[]> existing = resolved.putIfAbsent(interfaceName, interfaceLimits);
+            if (existing != null) {
+                interfaceLimits = existing;
+            }
+        }
+        InFlightLimit[] limits = interfaceLimits.get(methodID);
+        if (limits == null) {
+            limits = resolveInFlightLimits(interfaceName, methodID);
+            interfaceLimits.put(methodID, limits);
         }
+        return limits.length > 0 ? limits : null;
     }
 
     /**
-     * Used internally by generated Proxy/Stub to send the message using the {@link MessageSender} associated with this
+     * Returns the in flight limits that are set for a call to the given method
      */
-    public void sendMessage(String message, String interfaceName, int methodID, int rpcID, int proxyInstanceId, RPCProxy proxy) {
-        clearTimedOutOneWayRequests();
-        final RPCCallId rpcCallId = new RPCCallId(interfaceName, methodID, rpcID, proxyInstanceId);
-        rpcCallId.proxyInstance = proxy;
-        rpcCallId.requestTimeOut = oneWayRequestTimeout;
-        logv("Sending " + message + " , " + rpcCallId);
-        try {
-            waitingCallers.put(rpcCallId, rpcCallId);
-            sender.sendMessage(message);
-        } catch (Exception ex) {
-            loge(ex);
-            throw new RuntimeException(ex);
+    private InFlightLimit[] resolveInFlightLimits(String interfaceName, int methodID) {
+        InFlightLimit globalLimit = inFlightLimit;
+        InFlightLimit interfaceLimit = null;
+        InFlightLimit methodLimit = null;
+        if (!interfaceInFlightLimits.isEmpty()) {
+            interfaceLimit = interfaceInFlightLimits.get(interfaceName);
+        }
+        if (!methodInFlightLimits.isEmpty()) {
+            Map<Integer, InFlightLimit> methodLimits = methodInFlightLimits.get(interfaceName);
+            methodLimit = methodLimits != null ? methodLimits.get(methodID) : null;
+        }
+        int count = (globalLimit != null ? 1 : 0) + (interfaceLimit != null ? 1 : 0) + (methodLimit != null ? 1 : 0);
+        InFlightLimit[] limits = new InFlightLimit[count];
+        int index = 0;
+        if (globalLimit != null) {
+            limits[index++] = globalLimit;
         }
+        if (interfaceLimit != null) {
+            limits[index++] = interfaceLimit;
+        }
+        if (methodLimit != null) {
+            limits[index] = methodLimit;
+        }
+        return limits;
     }
 
     /**
-     * Returns a map of entries in the given message
+     * Removes the given call from the ones waiting for a response, returning whether it was still waiting
      */
-    public Map<String, String> getMessageEntries(String message) {
-        Map<String, String> entries = new LinkedHashMap<>();
-        entries.put("this", "" + hashCode());
-        try {
-            JSONify.JElement json = jsoNify.fromJson(message);
-            for (String key : json.getKeys()) {
-                entries.put(key, json.getJsonValue(key));
-            }
-        } catch (Exception ex) {
-            loge(ex);
+    private boolean removePendingCall(PendingCall pendingCall) {
+        if (pendingCalls.remove(pendingCall)) {
+            onRemoved(pendingCall);
+            return true;
         }
-        return entries;
+        return false;
     }
 
     /**
-     * Clear out any pending timedout one way requests
+     * Removes and returns the call with the given id from the ones waiting for a response, if it was still waiting
      */
-    private void clearTimedOutOneWayRequests () {
-        for (RPCCallId req : waitingCallers.keySet()) {
-            if (req.proxyInstance != null && req.hasTimedOut()) {
-                waitingCallers.remove(req);
-//                loge("One way call timed out for  " + req);
-//                JSONify.JObject jsonRPCObject = jsoNify.newJson();
-//                jsonRPCObject.put("jsonrpc", "2.0");
-//                jsonRPCObject.put("interface", req.interfaceName);
-//                jsonRPCObject.put("method_id", req.methodId);
-//                jsonRPCObject.put("id", req.callId);
-//                jsonRPCObject.put("ins_id", req.instanceId);
-//                JSONify.JObject jsonErrorObject = jsoNify.newJson();
-//                jsonErrorObject.put("code", -32001);
-//                jsonRPCObject.put("error", jsonErrorObject);
-//                req.proxyInstance.onRPCOneWayResult(jsonRPCObject.toJson());
+    private PendingCall removePendingCall(long callId) {
+        PendingCall pendingCall = pendingCalls.remove(callId);
+        if (pendingCall != null) {
+            onRemoved(pendingCall);
+        }
+        return pendingCall;
+    }
+
+    private void onRemoved(PendingCall pendingCall) {
+        inFlightCalls.decrement();
+        if (senderPool != null) {
+            int connection = pendingCall.clearConnection();
+            if (connection >= 0) {
+                senderPool.release(connection);
+            }
+        }
+        if (pendingCall.inFlightLimits != null) {
+            InFlightLimit.release(pendingCall.inFlightLimits, pendingCall.inFlightLimits.length);
+            if (!queuedCalls.isEmpty()) {
+                sendQueuedCalls();
             }
         }
     }
 
     /**
-     * Used internally by generated Proxy/Stub to send the message using the {@link MessageSender} associated with this
+     * Runs the given work of an expired timeout on the dispatch executor, or on the common pool if there is none,
+     * so that the timer thread shared by all the handlers is not held up by it
      */
-    public String sendMessageAndWaitForResponse(String message, String interfaceName, int methodID, int rpcID, int proxyInstanceId) {
-        final RPCCallId rpcCallId = new RPCCallId(interfaceName, methodID, rpcID, proxyInstanceId);
-        logv("Sending and waiting " + message + " , " + rpcCallId);
-        try {
-            waitingCallers.put(rpcCallId, rpcCallId);
-            synchronized (rpcCallId) {
-                sender.sendMessage(message);
-                rpcCallId.wait(requestTimeout);
-                waitingCallers.remove(rpcCallId);
-                if (rpcCallId.result == null) {
-                    throw new RuntimeException("Request timed out");
-                }
+    void runExpired(Runnable task) {
+        Executor executor = dispatchExecutor;
+        if (executor != null) {
+            try {
+                executor.execute(task);
+                return;
+            } catch (RejectedExecutionException ex) {
+                //shut down, so use the common pool
             }
-        } catch (Exception ex) {
-            loge(ex);
-            waitingCallers.remove(rpcCallId);
-
-            JSONify.JObject jsonRPCObject = jsoNify.newJson();
-            jsonRPCObject.put("jsonrpc", "2.0");
-            JSONify.JObject jsonErrorObject = jsoNify.newJson();
-            jsonErrorObject.put("code", -32000);
-            jsonErrorObject.put("message", ex.getMessage());
-            jsonErrorObject.put("exception", ex.getClass().getName());
-            jsonRPCObject.put("error", jsonErrorObject);
-            rpcCallId.result = jsonRPCObject.toJson();
-            loge(ex.getMessage());
         }
-        return rpcCallId.result;
+        ForkJoinPool.commonPool().execute(task);
+    }
+
+    /**
+     * Returns a response with the error for the given exception, for a request that did not get a response
+     */
+    private RPCMessage newErrorResult(Exception ex) {
+        JSONify.JWriter jsonRPCWriter = jsoNify.newWriter();
+        jsonRPCWriter.put("jsonrpc", "2.0");
+        jsonRPCWriter.beginObject("error");
+        jsonRPCWriter.put("code", -32000);
+        jsonRPCWriter.put("message", ex.getMessage());
+        jsonRPCWriter.put("exception", ex.getClass().getName());
+        jsonRPCWriter.endObject();
+        return jsoNify.parseMessage(jsonRPCWriter.toJson());
     }
 
 
     /**
      * Register a {@link RPCStub} with this handler, so that any message intended
      * for the stub can be delivered.
+     * <p/>
+     * The first stub registered for an interface is its default stub, which gets the messages that are not
+     * intended for a specific stub of the interface, until it is cleared.
      */
     public void registerStub(RPCStub stub) {
         if (stub != null) {
-            String stubInterface = stub.getStubInterfaceName();
-            Map<Integer, RPCStub> stubs = stubMap.get(stubInterface);
-            if (stubs == null) {
-                stubs = new ConcurrentHashMap<>();
-                stubMap.put(stubInterface, stubs);
-            }
-            stubs.put(stub.getStubId(), stub);
+            stubRegistry.register(stub);
+            registerStub(stub.getService(), stub);
+        }
+    }
+
+    /**
+     * Register a {@link RPCStub} with this handler like {@link #registerStub(RPCStub)}, making it the stub
+     * that gets the messages which are not intended for a specific stub of its interface.
+     */
+    public void registerDefaultStub(RPCStub stub) {
+        if (stub != null) {
+            stubRegistry.registerDefault(stub);
             registerStub(stub.getService(), stub);
         }
     }
@@ -387,10 +1556,9 @@ public final class JsonRPCMessageHandler implements MessageReceiver<String> {
      * @see #registerStub(RPCStub)
      */
     public void clearStub(RPCStub stub) {
-        for (Map<Integer, RPCStub> stubs : stubMap.values()) {
-            stubs.remove(stub.getStubId());
-            stubInstanceMap.remove(stub.getService());
-        }
+        stubRegistry.unregister(stub);
+        stubInstanceMap.remove(stub.getService());
+        serialExecutors.remove(stub);
     }
 
     public void clearStubOfService(Object serviceInstance) {
@@ -402,19 +1570,42 @@ public final class JsonRPCMessageHandler implements MessageReceiver<String> {
 
     /**
      * Cancels all pending requests, and clears all the stubs registered with this.
+     * The stubs that got the pending requests are told about their cancellation.
+     * The batched requests are sent first, and the writer thread of the write coalescing is stopped once the
+     * cancels are written. The batching and the write coalescing settings are kept, so the coalescing resumes
+     * with a new writer thread once messages are sent again.
      */
     public void clear() {
-        for (RPCCallId waitingCall : new ArrayList<>(waitingCallers.keySet())) {
-            synchronized (waitingCall) {
-                waitingCall.notifyAll();
+        MessageBatcher currentBatcher = batcher;
+        if (currentBatcher != null) {
+            currentBatcher.flush();
+        }
+        notificationProxies.clear();
+        for (QueuedCall queuedCall : queuedCalls) {
+            if (queuedCall.take()) {
+                queuedCalls.remove(queuedCall);
+                queuedCall.cancel();
+                queuedCall.pendingCall.cancelRequest();
+            }
+        }
+        for (PendingCall waitingCall : pendingCalls.getCalls()) {
+            if (removePendingCall(waitingCall)) {
+                waitingCall.cancelRequest();
+                sendCancel(waitingCall);
             }
         }
-        waitingCallers.clear();
-        stubMap.clear();
+        MessageSender<String> currentSender = sender;
+        if (currentSender instanceof CoalescingMessageSender) {
+            //writes the cancels, and stops the writer thread
+            sender = ((CoalescingMessageSender) currentSender).copy();
+            ((CoalescingMessageSender) currentSender).close();
+        }
+        stubRegistry.clear();
         stubInstanceMap.clear();
+        serialExecutors.clear();
         requestExtras = null;
-        delegates.clear();
-        rpcMessage.clear();
+        methodDelegates = Collections.emptyMap();
+        instanceDelegates.clear();
     }
 
     /**
@@ -447,7 +1638,7 @@ public final class JsonRPCMessageHandler implements MessageReceiver<String> {
     }
 
     /**
-     * Sets the request timeout for blocking requests.
+     * Sets the request timeout for blocking and asynchronous requests.
      * Default timeout is 2 minutes
      */
     public void setRequestTimeout(long requestTimeout) {
@@ -457,13 +1648,41 @@ public final class JsonRPCMessageHandler implements MessageReceiver<String> {
     /**
      * Sets the request timeout for non blocking requests.
      * Default timeout is 2 minutes.
-     * The listener will only be triggered on any next one way call.
+     * The listener is notified of a timed out call with an {@link RPCException} of type {@link RPCException.Type#TIMEOUT}.
      * @see RPCProxy#setRPCRemoteListener(RPCProxy.RemoteListener)
      */
     public void setOneWayRequestTimeout(long requestTimeout) {
         this.oneWayRequestTimeout = requestTimeout;
     }
 
+    /**
+     * Sets the request timeout for the calls to the given method of the given interface, which overrides the
+     * request timeouts of this handler, or 0 to use them again.
+     * The method is identified by the METHOD_xxx id of the generated proxy.
+     * <p/>
+     * The timeout is sent with each request, so that the stub drops a request that it gets to only after
+     * the caller stopped waiting for it.
+     *
+     * @see #setRequestTimeout(long)
+     * @see #getRemainingTime()
+     */
+    public void setRequestTimeout(Class<?> rpcInterface, int methodId, long requestTimeout) {
+        String interfaceName = rpcInterface.getCanonicalName();
+        Map<Integer, Long> methodTimeouts = methodRequestTimeouts.get(interfaceName);
+        if (methodTimeouts == null) {
+            methodTimeouts = new ConcurrentHashMap<>();
+            Map<Integer, Long> existing = methodRequestTimeouts.putIfAbsent(interfaceName, methodTimeouts);
+            if (existing != null) {
+                methodTimeouts = existing;
+            }
+        }
+        if (requestTimeout > 0) {
+            methodTimeouts.put(methodId, requestTimeout);
+        } else {
+            methodTimeouts.remove(methodId);
+        }
+    }
+
     /**
      * Internal use to convert exception
      */
@@ -491,7 +1710,7 @@ public final class JsonRPCMessageHandler implements MessageReceiver<String> {
         }
     }
 
-    private void loge(Exception exception) {
+    void loge(Exception exception) {
         exception.printStackTrace();
     }
 
@@ -499,56 +1718,389 @@ public final class JsonRPCMessageHandler implements MessageReceiver<String> {
         System.err.println(message);
     }
 
+    /**
+     * A proxy that sent a notification, which is queued once it is garbage collected so that it can be removed
+     */
+    private static final class ProxyReference extends WeakReference<RPCProxy> {
+        private final int instanceId;
+
+        ProxyReference(int instanceId, RPCProxy proxy, ReferenceQueue<RPCProxy> queue) {
+            super(proxy, queue);
+            this.instanceId = instanceId;
+        }
+    }
+
+    /**
+     * The call being dispatched on a thread, with the method of the stub it invoked
+     */
+    private static final class CallContext {
+        private final RPCMessage message;
+        private final CallContext previous;
+        private Dispatch dispatch;
+        private RPCMethodDelegate method;
+        private boolean outsideDispatch;
+
+        CallContext(RPCMessage message, CallContext previous) {
+            this.message = message;
+            this.previous = previous;
+        }
+    }
+
+    /**
+     * The delivery of a call to a stub, which sends back its response, or adds it to the batch of the call if any.
+     * <p/>
+     * A call cancelled before it runs is skipped, and one cancelled while it runs gets no response.
+     * A call whose caller stopped waiting for it before it runs is skipped as well.
+     */
+    private final class Dispatch implements Runnable {
+        private static final int QUEUED = 0;
+        private static final int RUNNING = 1;
+        private static final int CANCELLED = 2;
+        private static final int DONE = 3;
+
+        private final RPCStub stub;
+        private final RPCMessage message;
+        private final ResponseBatch responses;
+        private Long key;
+        private long deadline;
+        private boolean hasDeadline;
+        private int state;
+        private Thread runner;
+
+        Dispatch(RPCStub stub, RPCMessage message, ResponseBatch responses) {
+            this.stub = stub;
+            this.message = message;
+            this.responses = responses;
+        }
+
+        @Override
+        public void run() {
+            boolean expired = hasDeadline && System.nanoTime() - deadline >= 0;
+            synchronized (this) {
+                if (state == CANCELLED || expired) {
+                    state = DONE;
+                } else {
+                    state = RUNNING;
+                    runner = Thread.currentThread();
+                }
+            }
+            if (runner == null) {
+                if (expired) {
+                    expiredCalls.increment();
+                    if (logEnabled) {
+                        logv("Dropping expired " + message);
+                    }
+                }
+                finish();
+                if (responses != null) {
+                    responses.add(null);
+                }
+                return;
+            }
+            try {
+                invoke();
+            } catch (Exception ex) {
+                loge(ex);
+            }
+        }
+
+        private void invoke() {
+            JSONify.JWriter response = null;
+            CallContext previousContext = callContext.get();
+            CallContext context = new CallContext(message, previousContext);
+            context.dispatch = this;
+            callContext.set(context);
+            try {
+                response = stub.onRPCCall(message);
+            } finally {
+                restoreCallContext(previousContext);
+                if (finish()) {
+                    response = null;
+                }
+                if (responses != null) {
+                    responses.add(response);
+                }
+            }
+            if (responses == null && response != null) {
+                sendMessage(response);
+            }
+        }
+
+        /**
+         * Stops tracking this, returning whether it was cancelled while running
+         */
+        boolean finish() {
+            boolean cancelled;
+            synchronized (this) {
+                cancelled = state == CANCELLED && runner != null;
+                state = DONE;
+                runner = null;
+            }
+            if (cancelled && interruptOnCancel) {
+                //the interrupt is for the cancelled call only
+                Thread.interrupted();
+            }
+            if (key != null) {
+                dispatches.remove(key, this);
+            }
+            return cancelled;
+        }
+
+        /**
+         * Cancels this if it has not completed, returning whether it did
+         */
+        synchronized boolean cancel() {
+            if (state == DONE || state == CANCELLED) {
+                return false;
+            }
+            if (state == RUNNING && interruptOnCancel) {
+                runner.interrupt();
+            }
+            state = CANCELLED;
+            return true;
+        }
+
+        synchronized boolean isCancelled() {
+            return state == CANCELLED;
+        }
+
+        boolean isCall(Integer handlerId, long callId) {
+            return callId == message.getCallId() && (handlerId == null ? message.getHandlerId() == null : handlerId.equals(message.getHandlerId()));
+        }
+    }
+
+    /**
+     * Collects the responses to the requests of a received batch, and sends them back as one batch once all of
+     * them are added, which can be from the threads of the dispatch executor.
+     */
+    private final class ResponseBatch {
+        private final AtomicInteger pending = new AtomicInteger(1);
+        private final List<JSONify.JWriter> responses = new ArrayList<>();
+
+        /**
+         * Expects a response to be added
+         */
+        void expect() {
+            pending.incrementAndGet();
+        }
+
+        /**
+         * Adds an expected response, or null if there is none
+         */
+        void add(JSONify.JWriter response) {
+            if (response != null) {
+                synchronized (responses) {
+                    responses.add(response);
+                }
+            }
+            release();
+        }
+
+        /**
+         * Called once all the requests of the batch are dispatched
+         */
+        void release() {
+            if (pending.decrementAndGet() == 0) {
+                send();
+            }
+        }
+
+        private void send() {
+            if (responses.isEmpty()) {
+                return;
+            }
+            if (responses.size() == 1) {
+                sendMessage(responses.get(0));
+                return;
+            }
+            List<String> messages = new ArrayList<>(responses.size());
+            int length = 0;
+            for (JSONify.JWriter response : responses) {
+                String message = response.toJson();
+                messages.add(message);
+                length += message.length();
+            }
+            sendMessage(JsonBatch.join(messages, length));
+        }
+    }
+
     /**
      * Represents an request that is waiting for a response.
      */
-    private static class RPCCallId {
-        private String interfaceName;
+    static final class PendingCall extends TimerWheel.Timeout {
+        private static final int NO_CONNECTION = -1;
+        private static final int REMOVED = -2;
+        private static final AtomicIntegerFieldUpdater<PendingCall> CONNECTION =
+                AtomicIntegerFieldUpdater.newUpdater(PendingCall.class, "connection");
+
+        final long id;
+        private final JsonRPCMessageHandler handler;
         private int methodId;
-        private int callId;
-        private int instanceId;
-        private boolean compareInstanceId;
-        private String result;
+        private Thread waiter;
+        private CompletableFuture<RPCMessage> future;
         private RPCProxy proxyInstance;
-        private long requestTime = System.currentTimeMillis();
-        private long requestTimeOut = 60000;
+        private InFlightLimit[] inFlightLimits;
+        private volatile QueuedCall queuedCall;
+        private volatile RPCMessage result;
+        private volatile boolean cancelled;
+        private volatile int connection = NO_CONNECTION;
 
-        RPCCallId(String interfaceName, int methodId, int callId) {
-            this.interfaceName = interfaceName;
-            this.methodId = methodId;
-            this.callId = callId;
+        PendingCall(JsonRPCMessageHandler handler, long id) {
+            this.handler = handler;
+            this.id = id;
         }
 
-        RPCCallId(String interfaceName, int methodId, int callId, int instanceId) {
-            this(interfaceName, methodId, callId);
-            this.instanceId = instanceId;
-            this.compareInstanceId = true;
+        /**
+         * Sets the index of the connection of the {@link SenderPool} this call is sent over, returning false if
+         * the call is no longer waiting for a response
+         */
+        boolean setConnection(int index) {
+            return CONNECTION.compareAndSet(this, NO_CONNECTION, index);
         }
 
-        @Override
-        public int hashCode() {
-            return interfaceName.hashCode() * 67 + methodId * 89 + callId * 97 + instanceId * 71;
+        /**
+         * Returns the index of the connection this call was sent over if any, as it is no longer waiting for a response
+         */
+        int clearConnection() {
+            return CONNECTION.getAndSet(this, REMOVED);
+        }
+
+        /**
+         * Delivers the response to whoever is waiting for it
+         */
+        void complete(RPCMessage response) {
+            cancel();
+            result = response;
+            if (future != null) {
+                future.complete(response);
+            } else if (waiter != null) {
+                LockSupport.unpark(waiter);
+            } else if (proxyInstance != null) {
+                proxyInstance.onRPCOneWayResult(response);
+            }
+        }
+
+        /**
+         * Wakes up whoever is waiting for the response, which is not going to be received
+         */
+        void cancelRequest() {
+            cancel();
+            cancelled = true;
+            if (future != null) {
+                future.complete(handler.newErrorResult(new RuntimeException("Request cancelled")));
+            } else if (waiter != null) {
+                LockSupport.unpark(waiter);
+            }
         }
 
         @Override
-        public boolean equals(Object o) {
-            if (o instanceof RPCCallId) {
-                RPCCallId other = (RPCCallId) o;
-                return interfaceName.equals(other.interfaceName)
-                        && methodId == other.methodId
-                        && callId == other.callId
-                        && (!compareInstanceId || !other.compareInstanceId || (instanceId == other.instanceId));
+        void onTimeout() {
+            handler.runExpired(new Runnable() {
+                @Override
+                public void run() {
+                    expired();
+                }
+            });
+        }
+
+        /**
+         * Fails this call as it timed out, if it is still waiting for a response
+         */
+        private void expired() {
+            if (handler.removePendingCall(this)) {
+                if (handler.logEnabled) {
+                    handler.logv("Request timed out " + this);
+                }
+                handler.sendCancel(this);
+                if (future != null) {
+                    future.complete(handler.newErrorResult(new RuntimeException("Request timed out")));
+                } else if (proxyInstance != null) {
+                    proxyInstance.onRPCOneWayResult(newOneWayError(-32002, "Request timed out", null));
+                }
+            }
+        }
+
+        /**
+         * Fails this call with the given exception if it is still waiting, as its message could not be sent
+         */
+        void fail(Exception ex) {
+            if (handler.removePendingCall(this)) {
+                cancel();
+                if (future != null) {
+                    future.complete(handler.newErrorResult(ex));
+                } else if (waiter != null) {
+                    result = handler.newErrorResult(ex);
+                    LockSupport.unpark(waiter);
+                } else if (proxyInstance != null) {
+                    proxyInstance.onRPCOneWayResult(newOneWayError(-32000, ex.getMessage(), ex.getClass().getName()));
+                }
             }
-            return false;
         }
 
-        public boolean hasTimedOut() {
-            return (System.currentTimeMillis() - requestTime) >= requestTimeOut;
+        /**
+         * Returns an error result of this one way call with the given error
+         */
+        private RPCMessage newOneWayError(int code, String message, String exception) {
+            JSONify.JWriter jsonRPCWriter = handler.jsoNify.newWriter();
+            jsonRPCWriter.put("jsonrpc", "2.0");
+            jsonRPCWriter.put("method_id", methodId);
+            jsonRPCWriter.put("id", id);
+            jsonRPCWriter.beginObject("error");
+            jsonRPCWriter.put("code", code);
+            jsonRPCWriter.put("message", message);
+            if (exception != null) {
+                jsonRPCWriter.put("exception", exception);
+            }
+            jsonRPCWriter.endObject();
+            return handler.jsoNify.parseMessage(jsonRPCWriter.toJson());
         }
 
         @Override
         public String toString() {
-            return interfaceName + " " + methodId + " " + callId + " " + instanceId;
+            return "call " + id;
+        }
+    }
+
+    /**
+     * Represents an async request that is waiting for its in flight limits to allow it to be sent.
+     * It expires if it is not sent within the maximum wait time of the {@link InFlightPolicy#WAIT} policy.
+     */
+    private static final class QueuedCall extends TimerWheel.Timeout {
+        final PendingCall pendingCall;
+        final JSONify.JWriter message;
+        final String interfaceName;
+        final InFlightLimit[] limits;
+        final long timeout;
+        private final AtomicBoolean taken = new AtomicBoolean();
+
+        QueuedCall(PendingCall pendingCall, JSONify.JWriter message, String interfaceName, InFlightLimit[] limits, long timeout) {
+            this.pendingCall = pendingCall;
+            this.message = message;
+            this.interfaceName = interfaceName;
+            this.limits = limits;
+            this.timeout = timeout;
+        }
+
+        /**
+         * Takes this call out of the queue, returning false if it was already taken to be sent, cancelled or expired
+         */
+        boolean take() {
+            return taken.compareAndSet(false, true);
+        }
+
+        @Override
+        void onTimeout() {
+            final JsonRPCMessageHandler handler = pendingCall.handler;
+            if (take()) {
+                handler.queuedCalls.remove(this);
+                handler.rejectedCalls.increment();
+                handler.runExpired(new Runnable() {
+                    @Override
+                    public void run() {
+                        pendingCall.future.completeExceptionally(newLimitExceeded(interfaceName));
+                    }
+                });
+            }
         }
     }
 
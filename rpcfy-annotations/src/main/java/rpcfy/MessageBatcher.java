@@ -0,0 +1,124 @@
+package rpcfy;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Coalesces the requests sent by a {@link JsonRPCMessageHandler} into JSON RPC batches.
+ * <p/>
+ * Without a window, a request is sent right away together with the ones queued while the previous batch was
+ * being sent, so a single caller is never delayed and concurrent callers share the cost of a message.
+ * With a window, a request waits up to the window for others to join its batch.
+ * In both cases a batch is sent as soon as it is full.
+ *
+ * @see JsonRPCMessageHandler#setBatching(int, int, long)
+ */
+final class MessageBatcher {
+
+    private final JsonRPCMessageHandler handler;
+    private final int maxMessages;
+    private final int maxLength;
+    private final long windowMillis;
+    private final Queue<Entry> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger queuedCount = new AtomicInteger();
+    private final AtomicLong queuedLength = new AtomicLong();
+    private final AtomicBoolean flushing = new AtomicBoolean();
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+
+    MessageBatcher(JsonRPCMessageHandler handler, int maxMessages, int maxLength, long windowMillis) {
+        this.handler = handler;
+        this.maxMessages = maxMessages;
+        this.maxLength = maxLength;
+        this.windowMillis = windowMillis;
+    }
+
+    /**
+     * Queues the given request of the given call, which is failed if the batch it is in could not be sent.
+     * A notification has no call.
+     */
+    void add(String message, JsonRPCMessageHandler.PendingCall call) {
+        queue.add(new Entry(message, call));
+        int count = queuedCount.incrementAndGet();
+        long length = queuedLength.addAndGet(message.length());
+        if (windowMillis <= 0 || count >= maxMessages || length >= maxLength) {
+            flush();
+        } else if (flushScheduled.compareAndSet(false, true)) {
+            TimerWheel.INSTANCE.schedule(new FlushTimeout(), windowMillis);
+        }
+    }
+
+    /**
+     * Sends all the queued requests, unless another thread is sending them
+     */
+    void flush() {
+        while (!queue.isEmpty() && flushing.compareAndSet(false, true)) {
+            try {
+                sendBatch();
+            } finally {
+                flushing.set(false);
+            }
+        }
+    }
+
+    private void sendBatch() {
+        List<String> messages = new ArrayList<>();
+        List<JsonRPCMessageHandler.PendingCall> calls = new ArrayList<>();
+        int length = 0;
+        Entry entry;
+        //only the flushing thread takes from the queue
+        while (messages.size() < maxMessages && (entry = queue.peek()) != null
+                && (messages.isEmpty() || length + entry.message.length() <= maxLength)) {
+            queue.poll();
+            messages.add(entry.message);
+            calls.add(entry.call);
+            length += entry.message.length();
+        }
+        queuedCount.addAndGet(-messages.size());
+        queuedLength.addAndGet(-length);
+        if (messages.isEmpty()) {
+            return;
+        }
+        try {
+            handler.transmitRequests(messages.size() == 1 ? messages.get(0) : JsonBatch.join(messages, length), calls);
+        } catch (Exception ex) {
+            handler.loge(ex);
+            for (JsonRPCMessageHandler.PendingCall call : calls) {
+                if (call != null) {
+                    call.fail(ex);
+                }
+            }
+        }
+    }
+
+    private static final class Entry {
+        final String message;
+        final JsonRPCMessageHandler.PendingCall call;
+
+        Entry(String message, JsonRPCMessageHandler.PendingCall call) {
+            this.message = message;
+            this.call = call;
+        }
+    }
+
+    /**
+     * Sends the queued requests once the window has passed, off the timer thread
+     */
+    private final class FlushTimeout extends TimerWheel.Timeout implements Runnable {
+
+        @Override
+        void onTimeout() {
+            flushScheduled.set(false);
+            handler.runExpired(this);
+        }
+
+        @Override
+        public void run() {
+            flush();
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package rpcfy;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * The calls of a {@link JsonRPCMessageHandler} that are waiting for a response, indexed by their call id.
+ * <p/>
+ * Call ids are allocated in sequence by the handler, so each call is kept in the slot of the table given by
+ * the low bits of its id. The slot is free unless a call made a whole table length earlier is still waiting,
+ * in which case the new call is kept in an overflow map instead.
+ * Adding, finding and removing a call neither locks nor hashes anything other than the id.
+ */
+final class PendingCalls {
+
+    private static final int TABLE_SIZE = 1 << 10;
+    private static final int MASK = TABLE_SIZE - 1;
+
+    private final AtomicReferenceArray<JsonRPCMessageHandler.PendingCall> table = new AtomicReferenceArray<>(TABLE_SIZE);
+    private final Map<Long, JsonRPCMessageHandler.PendingCall> overflow = new ConcurrentHashMap<>();
+
+    /**
+     * Adds the given call
+     */
+    void add(JsonRPCMessageHandler.PendingCall call) {
+        if (!table.compareAndSet(slot(call.id), null, call)) {
+            overflow.put(call.id, call);
+        }
+    }
+
+    /**
+     * Removes and returns the call with the given id, or null if it is not waiting anymore
+     */
+    JsonRPCMessageHandler.PendingCall remove(long id) {
+        int slot = slot(id);
+        JsonRPCMessageHandler.PendingCall call = table.get(slot);
+        if (call != null && call.id == id) {
+            return table.compareAndSet(slot, call, null) ? call : null;
+        }
+        return overflow.isEmpty() ? null : overflow.remove(id);
+    }
+
+    /**
+     * Removes the given call, returning whether it was still waiting
+     */
+    boolean remove(JsonRPCMessageHandler.PendingCall call) {
+        return table.compareAndSet(slot(call.id), call, null) || overflow.remove(call.id, call);
+    }
+
+    /**
+     * Returns the calls that are waiting
+     */
+    List<JsonRPCMessageHandler.PendingCall> getCalls() {
+        List<JsonRPCMessageHandler.PendingCall> calls = new ArrayList<>();
+        for (int i = 0; i < TABLE_SIZE; i++) {
+            JsonRPCMessageHandler.PendingCall call = table.get(i);
+            if (call != null) {
+                calls.add(call);
+            }
+        }
+        calls.addAll(overflow.values());
+        return calls;
+    }
+
+    private static int slot(long id) {
+        return (int) id & MASK;
+    }
+}
@@ -0,0 +1,32 @@
+package rpcfy;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A {@link JSONify} that encodes the RPC messages to bytes, and decodes them back.
+ * <p/>
+ * The messages are written using {@link JSONify.JWriter#toBytes()}. Use with a {@link JsonRPCMessageHandler}
+ * created with a byte[] {@link MessageSender} to exchange the messages in the format of the codec instead of JSON text,
+ * or with a {@link ByteBuffer} {@link MessageSender} to exchange them using buffers.
+ * <p/>
+ * A binary implementation of this is provided by {@link rpcfy.json.BinaryJsonify}.
+ *
+ * @see JsonRPCMessageHandler#JsonRPCMessageHandler(MessageSender, RPCCodec)
+ */
+public interface RPCCodec extends JSONify {
+
+    /**
+     * Decodes the given message written by {@link JSONify.JWriter#toBytes()}
+     */
+    RPCMessage parseMessage(byte[] message);
+
+    /**
+     * Decodes the given message written by {@link JSONify.JWriter#toByteBuffer()}
+     */
+    @Override
+    default RPCMessage parseMessage(ByteBuffer message) {
+        byte[] bytes = new byte[message.remaining()];
+        message.duplicate().get(bytes);
+        return parseMessage(bytes);
+    }
+}
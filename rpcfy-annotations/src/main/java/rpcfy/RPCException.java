@@ -10,7 +10,9 @@ public class RPCException extends RuntimeException {
      */
     public enum Type {
         REMOTE_STUB_NOT_FOUND,
-        REMOTE_EXCEPTION;
+        REMOTE_EXCEPTION,
+        TIMEOUT,
+        LIMIT_EXCEEDED;
     }
 
     private Type type;
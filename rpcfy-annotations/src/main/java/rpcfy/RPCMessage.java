@@ -0,0 +1,288 @@
+package rpcfy;
+
+
+import java.util.Base64;
+import java.util.Set;
+
+/**
+ * Represents a received JSON RPC message.
+ * <p/>
+ * The routing headers (interface, method, ids) are decoded once when the message is parsed, while
+ * the params, result and error are left undecoded until the generated proxy or stub asks for them.
+ *
+ * @see JSONify#parseMessage(String)
+ */
+public class RPCMessage {
+
+    private final JSONify jsonify;
+    private String message;
+    private JSONify.JElement element;
+    private Set<String> keys;
+
+    private String interfaceName;
+    private String method;
+    private Integer methodId;
+    private Long id;
+    private Integer instanceId;
+    private Integer handlerId;
+    private Integer remoteHandlerId;
+    private Integer remoteId;
+    private Long timeout;
+
+    private JSONify.JElement params;
+    private JSONify.JElement error;
+
+    /**
+     * Creates an instance for the given message
+     *
+     * @param jsonify The {@link JSONify} that parsed the message
+     * @param message The JSON RPC message
+     * @param element The parsed {@link JSONify.JElement} of the message
+     */
+    public RPCMessage(JSONify jsonify, String message, JSONify.JElement element) {
+        this(jsonify, message);
+        this.element = element;
+        this.keys = element.getKeys();
+        if (keys != null) {
+            for (String key : keys) {
+                if (isHeader(key)) {
+                    setHeader(key, element.getStringValue(key));
+                }
+            }
+        }
+    }
+
+    /**
+     * Creates an instance for a message that was not received as JSON text, like the ones decoded by an {@link RPCCodec}.
+     * <p/>
+     * The JSON of the message is created from the element only if it gets accessed.
+     *
+     * @param jsonify The {@link JSONify} that decoded the message
+     * @param element The decoded {@link JSONify.JElement} of the message
+     */
+    public RPCMessage(JSONify jsonify, JSONify.JElement element) {
+        this(jsonify, null, element);
+    }
+
+    /**
+     * Creates an instance for the given message whose headers and keys are decoded by the {@link JSONify} itself.
+     *
+     * @see #setHeader(String, String)
+     * @see #setKeys(Set)
+     */
+    protected RPCMessage(JSONify jsonify, String message) {
+        this.jsonify = jsonify;
+        this.message = message;
+    }
+
+    /**
+     * Returns whether the given key is one of the routing headers of a message
+     */
+    public static boolean isHeader(String key) {
+        switch (key) {
+            case "interface":
+            case "method":
+            case "method_id":
+            case "id":
+            case "ins_id":
+            case "handler_id":
+            case "r_handler_id":
+            case "remote_id":
+            case "timeout":
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Sets the value of the given routing header
+     */
+    protected void setHeader(String key, String value) {
+        switch (key) {
+            case "interface":
+                interfaceName = value;
+                break;
+            case "method":
+                method = value;
+                break;
+            case "method_id":
+                methodId = toInt(value);
+                break;
+            case "id":
+                id = (value != null && !value.equals("null")) ? Long.valueOf(value) : null;
+                break;
+            case "ins_id":
+                instanceId = toInt(value);
+                break;
+            case "handler_id":
+                handlerId = toInt(value);
+                break;
+            case "r_handler_id":
+                remoteHandlerId = toInt(value);
+                break;
+            case "remote_id":
+                remoteId = toInt(value);
+                break;
+            case "timeout":
+                timeout = (value != null && !value.equals("null")) ? Long.valueOf(value) : null;
+                break;
+        }
+    }
+
+    /**
+     * Sets the keys of all the entries in the message
+     */
+    protected void setKeys(Set<String> keys) {
+        this.keys = keys;
+    }
+
+    /**
+     * Returns the original JSON RPC message
+     */
+    public String getMessage() {
+        if (message == null && element != null) {
+            message = element.toJson();
+        }
+        return message;
+    }
+
+    /**
+     * Returns the parsed {@link JSONify.JElement} of the whole message
+     */
+    public JSONify.JElement getElement() {
+        return element;
+    }
+
+    /**
+     * Returns whether the message has the given entry
+     */
+    public boolean has(String key) {
+        return keys != null && keys.contains(key);
+    }
+
+    /**
+     * Returns the keys of all the entries in the message
+     */
+    public Set<String> getKeys() {
+        return keys;
+    }
+
+    /**
+     * Returns the value of given entry in the message if any
+     */
+    public String getStringValue(String key) {
+        return has(key) ? getElement().getStringValue(key) : null;
+    }
+
+    /**
+     * Returns the bytes written as the value of given entry using {@link JSONify.JWriter#putBytes(String, byte[])} if any
+     */
+    public byte[] getBytes(String key) {
+        String value = getStringValue(key);
+        return value != null ? Base64.getDecoder().decode(value) : null;
+    }
+
+    /**
+     * Returns the name of interface this message is for
+     */
+    public String getInterfaceName() {
+        return interfaceName;
+    }
+
+    /**
+     * Returns the name of the method being called, or null if this is a response
+     */
+    public String getMethod() {
+        return method;
+    }
+
+    /**
+     * Returns the id of the method
+     */
+    public Integer getMethodId() {
+        return methodId;
+    }
+
+    /**
+     * Returns the id of the call
+     *
+     * @deprecated Call ids are allocated by {@link JsonRPCMessageHandler#newCallId()} as long values.
+     * Use {@link #getCallId()}.
+     */
+    @Deprecated
+    public Integer getId() {
+        return id != null ? id.intValue() : null;
+    }
+
+    /**
+     * Returns the id of the call
+     */
+    public Long getCallId() {
+        return id;
+    }
+
+    /**
+     * Returns the id of the proxy instance that made the call if any
+     */
+    public Integer getInstanceId() {
+        return instanceId;
+    }
+
+    /**
+     * Returns the id of the handler that send this message if any
+     */
+    public Integer getHandlerId() {
+        return handlerId;
+    }
+
+    /**
+     * Returns the id of the handler this message is intended for if any
+     */
+    public Integer getRemoteHandlerId() {
+        return remoteHandlerId;
+    }
+
+    /**
+     * Returns the id of the remote stub this message is intended for if any
+     */
+    public Integer getRemoteId() {
+        return remoteId;
+    }
+
+    /**
+     * Returns the time in milliseconds the caller waits for the response of this request, if the caller sent it
+     */
+    public Long getTimeout() {
+        return timeout;
+    }
+
+    /**
+     * Returns the undecoded params of the request if any
+     */
+    public JSONify.JElement getParams() {
+        if (params == null && has("params")) {
+            params = jsonify.getElement(getElement(), "params");
+        }
+        return params;
+    }
+
+    /**
+     * Returns the undecoded error of the response if any
+     */
+    public JSONify.JElement getError() {
+        if (error == null && has("error")) {
+            error = jsonify.getElement(getElement(), "error");
+        }
+        return error;
+    }
+
+    private static Integer toInt(String value) {
+        return (value != null && !value.equals("null")) ? Integer.valueOf(value) : null;
+    }
+
+    @Override
+    public String toString() {
+        return getMessage();
+    }
+}
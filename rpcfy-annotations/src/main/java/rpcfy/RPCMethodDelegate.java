@@ -71,6 +71,20 @@ public class RPCMethodDelegate<T> {
         return delegate;
     }
 
+    /**
+     * Returns the class of the interface
+     */
+    Class<T> getInterfaceClass() {
+        return interfaceClass;
+    }
+
+    /**
+     * Returns the id of the instance on which this is called if any
+     */
+    Integer getInstanceId() {
+        return instanceId;
+    }
+
     /**
      * An exception that can be thrown from any delegated method so that the normal rpc call can instead be attempted.
      */
@@ -35,6 +35,20 @@ public interface RPCProxy {
      */
     void setRPCRemoteListener(RemoteListener remoteListener);
 
-    void onRPCOneWayResult(String result);
+    /**
+     * Called internally to deliver the result of a one way call
+     */
+    void onRPCOneWayResult(RPCMessage result);
+
+    /**
+     * Called internally to deliver the result of a one way call
+     *
+     * @deprecated The result is parsed again here by the default {@link JSONify}.
+     * Use {@link #onRPCOneWayResult(RPCMessage)} with the result parsed by the {@link JsonRPCMessageHandler}.
+     */
+    @Deprecated
+    default void onRPCOneWayResult(String result) {
+        onRPCOneWayResult(JSONify.getDefault().parseMessage(result));
+    }
 
 }
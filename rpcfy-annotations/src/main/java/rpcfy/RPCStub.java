@@ -22,17 +22,31 @@ public interface RPCStub {
     int getStubId();
 
 
+    /**
+     * Called to deliver the message from the proxy.
+     *
+     * @param message The parsed JSON RPC message
+     * @return Returns the JSON RPC response, or null if there is none to send back for a notification
+     */
+    JSONify.JWriter onRPCCall(RPCMessage message);
+
     /**
      * Called to deliver the message from the proxy.
      *
      * @param methodId The id of the method being called
      * @param message  The JSON RPC message
-     * @return Returns the JSON RPC response
+     * @return Returns the JSON RPC response, or null if there is none to send back for a notification
+     * @deprecated The message is parsed again here by the default {@link JSONify}.
+     * Use {@link #onRPCCall(RPCMessage)} with the message parsed by the {@link JsonRPCMessageHandler}.
      */
-    String onRPCCall(int methodId, String message);
+    @Deprecated
+    default String onRPCCall(int methodId, String message) {
+        JSONify.JWriter response = onRPCCall(JSONify.getDefault().parseMessage(message));
+        return response != null ? response.toJson() : null;
+    }
 
     /**
      * Returns the service that this stub wraps
-\     */
+     */
     Object getService();
 }
@@ -0,0 +1,97 @@
+package rpcfy;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * The {@link MessageSender}s of the connections a {@link JsonRPCMessageHandler} sends its messages over.
+ * <p/>
+ * Each message goes over one of the connections, chosen as per the {@link JsonRPCMessageHandler.SenderSelection}.
+ * The requests sent over each connection are counted until their call completes, which is what the
+ * {@link JsonRPCMessageHandler.SenderSelection#LEAST_IN_FLIGHT} selection goes by.
+ *
+ * @see JsonRPCMessageHandler#JsonRPCMessageHandler(List, JsonRPCMessageHandler.SenderSelection)
+ */
+final class SenderPool implements MessageSender<String> {
+
+    private final List<MessageSender<String>> senders;
+    private final JsonRPCMessageHandler.SenderSelection selection;
+    private final AtomicIntegerArray inFlightCalls;
+    private final AtomicInteger next = new AtomicInteger();
+
+    SenderPool(List<? extends MessageSender<String>> senders, JsonRPCMessageHandler.SenderSelection selection) {
+        this.senders = new ArrayList<>(senders);
+        this.selection = selection;
+        this.inFlightCalls = new AtomicIntegerArray(senders.size());
+    }
+
+    /**
+     * Sends the given message, which is not a request, over the next connection
+     */
+    @Override
+    public void sendMessage(String message) throws IOException {
+        senders.get(select()).sendMessage(message);
+    }
+
+    /**
+     * Sends the given request of the given call over the next connection, counting the call for that connection
+     * until it is released
+     *
+     * @see #release(int)
+     */
+    void sendRequest(String message, JsonRPCMessageHandler.PendingCall call) throws IOException {
+        sendRequests(message, Collections.singletonList(call));
+    }
+
+    /**
+     * Sends the given message, which is a batch or a write holding the requests of the given calls, over the next
+     * connection, counting each of the calls for that connection until it is released.
+     * The calls of the notifications and the responses in the message are null.
+     *
+     * @see #release(int)
+     */
+    void sendRequests(String message, List<JsonRPCMessageHandler.PendingCall> calls) throws IOException {
+        int index = select();
+        for (JsonRPCMessageHandler.PendingCall call : calls) {
+            if (call != null) {
+                inFlightCalls.incrementAndGet(index);
+                if (!call.setConnection(index)) {
+                    //the call completed already
+                    inFlightCalls.decrementAndGet(index);
+                }
+            }
+        }
+        senders.get(index).sendMessage(message);
+    }
+
+    /**
+     * Stops counting a call sent over the connection at the given index
+     */
+    void release(int index) {
+        inFlightCalls.decrementAndGet(index);
+    }
+
+    private int select() {
+        int count = senders.size();
+        int start = (next.getAndIncrement() & Integer.MAX_VALUE) % count;
+        if (selection == JsonRPCMessageHandler.SenderSelection.ROUND_ROBIN || count == 1) {
+            return start;
+        }
+        //start from the next connection in turn, so that the ties are spread
+        int selected = start;
+        int least = inFlightCalls.get(start);
+        for (int i = 1; i < count && least > 0; i++) {
+            int index = (start + i) % count;
+            int inFlight = inFlightCalls.get(index);
+            if (inFlight < least) {
+                selected = index;
+                least = inFlight;
+            }
+        }
+        return selected;
+    }
+}
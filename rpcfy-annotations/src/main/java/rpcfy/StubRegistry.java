@@ -0,0 +1,223 @@
+package rpcfy;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * The {@link RPCStub}s registered with a {@link JsonRPCMessageHandler}, indexed by their interface name and stub id.
+ * <p/>
+ * The stubs of an interface are kept in an open addressing table keyed by the int stub id, which is read without
+ * locking or allocating, and updated under the lock of the interface. Each interface also has a default stub, that
+ * serves the messages which do not name a stub.
+ */
+final class StubRegistry {
+
+    private final ConcurrentMap<String, InterfaceStubs> interfaces = new ConcurrentHashMap<>();
+
+    /**
+     * Registers the given stub, replacing any stub of the same interface with the same id
+     */
+    void register(RPCStub stub) {
+        getInterfaceStubs(stub.getStubInterfaceName()).put(stub, false);
+    }
+
+    /**
+     * Registers the given stub as the default stub of its interface
+     */
+    void registerDefault(RPCStub stub) {
+        getInterfaceStubs(stub.getStubInterfaceName()).put(stub, true);
+    }
+
+    /**
+     * Unregisters the given stub, returning whether it was registered
+     */
+    boolean unregister(RPCStub stub) {
+        InterfaceStubs stubs = interfaces.get(stub.getStubInterfaceName());
+        return stubs != null && stubs.remove(stub);
+    }
+
+    /**
+     * Returns the stub of the given interface with the given id, or its default stub if no id is given
+     */
+    RPCStub get(String interfaceName, Integer stubId) {
+        InterfaceStubs stubs = interfaces.get(interfaceName);
+        if (stubs == null) {
+            return null;
+        }
+        return stubId != null ? stubs.get(stubId) : stubs.defaultStub;
+    }
+
+    /**
+     * Unregisters all the stubs
+     */
+    void clear() {
+        interfaces.clear();
+    }
+
+    private InterfaceStubs getInterfaceStubs(String interfaceName) {
+        InterfaceStubs stubs = interfaces.get(interfaceName);
+        if (stubs == null) {
+            stubs = new InterfaceStubs();
+            InterfaceStubs existing = interfaces.putIfAbsent(interfaceName, stubs);
+            if (existing != null) {
+                stubs = existing;
+            }
+        }
+        return stubs;
+    }
+
+    @Override
+    public String toString() {
+        Map<String, Integer> counts = new LinkedHashMap<>();
+        for (Map.Entry<String, InterfaceStubs> entry : interfaces.entrySet()) {
+            counts.put(entry.getKey(), entry.getValue().size);
+        }
+        return "StubRegistry " + counts;
+    }
+
+    /**
+     * The stubs of an interface, in a linear probing table that is replaced when it has to grow or be cleaned of
+     * removed entries, so that a reader always sees a consistent table
+     */
+    private static final class InterfaceStubs {
+
+        private static final int INITIAL_CAPACITY = 8;
+        private static final Entry REMOVED = new Entry(0, null);
+
+        private volatile AtomicReferenceArray<Entry> table = new AtomicReferenceArray<>(INITIAL_CAPACITY);
+        private volatile RPCStub defaultStub;
+        private int size;
+        private int used;
+
+        RPCStub get(int stubId) {
+            AtomicReferenceArray<Entry> entries = table;
+            int mask = entries.length() - 1;
+            for (int index = hash(stubId) & mask; ; index = (index + 1) & mask) {
+                Entry entry = entries.get(index);
+                if (entry == null) {
+                    return null;
+                }
+                if (entry != REMOVED && entry.stubId == stubId) {
+                    return entry.stub;
+                }
+            }
+        }
+
+        synchronized void put(RPCStub stub, boolean isDefault) {
+            int stubId = stub.getStubId();
+            AtomicReferenceArray<Entry> entries = table;
+            int mask = entries.length() - 1;
+            int free = -1;
+            int index = hash(stubId) & mask;
+            for (Entry entry; (entry = entries.get(index)) != null; index = (index + 1) & mask) {
+                if (entry == REMOVED) {
+                    if (free < 0) {
+                        free = index;
+                    }
+                } else if (entry.stubId == stubId) {
+                    if (defaultStub == entry.stub) {
+                        defaultStub = stub;
+                    }
+                    entries.set(index, new Entry(stubId, stub));
+                    setDefault(stub, isDefault);
+                    return;
+                }
+            }
+            if (free >= 0) {
+                entries.set(free, new Entry(stubId, stub));
+            } else {
+                entries.set(index, new Entry(stubId, stub));
+                used++;
+            }
+            size++;
+            setDefault(stub, isDefault);
+            if (used * 2 > entries.length()) {
+                rehash();
+            }
+        }
+
+        synchronized boolean remove(RPCStub stub) {
+            int stubId = stub.getStubId();
+            AtomicReferenceArray<Entry> entries = table;
+            int mask = entries.length() - 1;
+            for (int index = hash(stubId) & mask; ; index = (index + 1) & mask) {
+                Entry entry = entries.get(index);
+                if (entry == null) {
+                    return false;
+                }
+                if (entry != REMOVED && entry.stubId == stubId) {
+                    if (entry.stub != stub) {
+                        return false;
+                    }
+                    entries.set(index, REMOVED);
+                    size--;
+                    if (defaultStub == stub) {
+                        defaultStub = findAny();
+                    }
+                    return true;
+                }
+            }
+        }
+
+        private void setDefault(RPCStub stub, boolean isDefault) {
+            if (isDefault || defaultStub == null) {
+                defaultStub = stub;
+            }
+        }
+
+        private RPCStub findAny() {
+            AtomicReferenceArray<Entry> entries = table;
+            for (int i = 0; i < entries.length(); i++) {
+                Entry entry = entries.get(i);
+                if (entry != null && entry != REMOVED) {
+                    return entry.stub;
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Copies the entries to a new table, at least twice as large as the entries in use
+         */
+        private void rehash() {
+            AtomicReferenceArray<Entry> entries = table;
+            int capacity = INITIAL_CAPACITY;
+            while (capacity < size * 4) {
+                capacity <<= 1;
+            }
+            AtomicReferenceArray<Entry> newEntries = new AtomicReferenceArray<>(capacity);
+            int mask = capacity - 1;
+            for (int i = 0; i < entries.length(); i++) {
+                Entry entry = entries.get(i);
+                if (entry != null && entry != REMOVED) {
+                    int index = hash(entry.stubId) & mask;
+                    while (newEntries.get(index) != null) {
+                        index = (index + 1) & mask;
+                    }
+                    newEntries.set(index, entry);
+                }
+            }
+            used = size;
+            table = newEntries;
+        }
+
+        private static int hash(int stubId) {
+            //stub ids are hash codes, spread them as they may differ only in the high bits
+            int hash = stubId * 0x9E3779B9;
+            return hash ^ (hash >>> 16);
+        }
+    }
+
+    private static final class Entry {
+        final int stubId;
+        final RPCStub stub;
+
+        Entry(int stubId, RPCStub stub) {
+            this.stubId = stubId;
+            this.stub = stub;
+        }
+    }
+}
@@ -0,0 +1,225 @@
+package rpcfy;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A hashed timer wheel that expires the {@link Timeout}s scheduled on it.
+ * <p/>
+ * The timeouts are kept in buckets by the tick they expire at, and a single daemon thread shared by all the
+ * {@link JsonRPCMessageHandler}s walks one bucket per tick. Scheduling and cancelling a timeout only adds it to
+ * a queue that is drained by that thread, so neither depends on how many timeouts are pending.
+ * The thread parks while there are no timeouts.
+ */
+final class TimerWheel implements Runnable {
+
+    static final TimerWheel INSTANCE = new TimerWheel(10, TimeUnit.MILLISECONDS, 512);
+
+    private static final int MAX_TRANSFERS_PER_TICK = 100000;
+
+    private final long tickNanos;
+    private final Bucket[] wheel;
+    private final int mask;
+    private final long startTime = System.nanoTime();
+    private final Queue<Timeout> newTimeouts = new ConcurrentLinkedQueue<>();
+    private final Queue<Timeout> cancelledTimeouts = new ConcurrentLinkedQueue<>();
+    private volatile Thread worker;
+    private volatile boolean idle;
+    private int scheduledCount;
+
+    TimerWheel(long tickDuration, TimeUnit unit, int ticksPerWheel) {
+        this.tickNanos = unit.toNanos(tickDuration);
+        int size = Integer.highestOneBit(ticksPerWheel - 1) << 1;
+        this.wheel = new Bucket[size];
+        for (int i = 0; i < size; i++) {
+            wheel[i] = new Bucket();
+        }
+        this.mask = size - 1;
+    }
+
+    /**
+     * Schedules the given timeout to expire after the given delay, unless it is cancelled before that
+     */
+    void schedule(Timeout timeout, long delayMillis) {
+        timeout.deadline = System.nanoTime() - startTime + TimeUnit.MILLISECONDS.toNanos(delayMillis);
+        timeout.wheel = this;
+        newTimeouts.add(timeout);
+        Thread thread = worker;
+        if (thread == null) {
+            start();
+        } else if (idle) {
+            LockSupport.unpark(thread);
+        }
+    }
+
+    private synchronized void start() {
+        if (worker == null) {
+            Thread thread = new Thread(this, "RPCfy-timer");
+            thread.setDaemon(true);
+            worker = thread;
+            thread.start();
+        }
+    }
+
+    @Override
+    public void run() {
+        long tick = (System.nanoTime() - startTime) / tickNanos;
+        while (true) {
+            long tickDeadline = (tick + 1) * tickNanos;
+            long sleepNanos = tickDeadline - (System.nanoTime() - startTime);
+            if (sleepNanos > 0) {
+                if (scheduledCount == 0 && newTimeouts.isEmpty()) {
+                    idle = true;
+                    if (newTimeouts.isEmpty()) {
+                        LockSupport.park(this);
+                    }
+                    idle = false;
+                    //nothing is on the wheel, so skip the ticks that passed while parked
+                    tick = (System.nanoTime() - startTime) / tickNanos;
+                    cancelledTimeouts.clear();
+                } else {
+                    LockSupport.parkNanos(this, sleepNanos);
+                }
+                continue;
+            }
+            processCancelled();
+            transferNewTimeouts(tick);
+            expire(wheel[(int) (tick & mask)], tickDeadline);
+            tick++;
+        }
+    }
+
+    private void processCancelled() {
+        Timeout timeout;
+        while ((timeout = cancelledTimeouts.poll()) != null) {
+            if (timeout.bucket != null) {
+                timeout.bucket.remove(timeout);
+                scheduledCount--;
+            }
+        }
+    }
+
+    private void transferNewTimeouts(long tick) {
+        for (int i = 0; i < MAX_TRANSFERS_PER_TICK; i++) {
+            Timeout timeout = newTimeouts.poll();
+            if (timeout == null) {
+                break;
+            }
+            if (timeout.state != Timeout.STATE_INIT) {
+                continue;
+            }
+            long expiryTick = Math.max(timeout.deadline / tickNanos, tick);
+            timeout.remainingRounds = (expiryTick - tick) / wheel.length;
+            wheel[(int) (expiryTick & mask)].add(timeout);
+            scheduledCount++;
+        }
+    }
+
+    private void expire(Bucket bucket, long tickDeadline) {
+        Timeout timeout = bucket.head;
+        while (timeout != null) {
+            Timeout next = timeout.next;
+            if (timeout.remainingRounds <= 0 && timeout.deadline <= tickDeadline) {
+                bucket.remove(timeout);
+                scheduledCount--;
+                timeout.expire();
+            } else if (timeout.state != Timeout.STATE_INIT) {
+                bucket.remove(timeout);
+                scheduledCount--;
+            } else {
+                timeout.remainingRounds--;
+            }
+            timeout = next;
+        }
+    }
+
+    /**
+     * Something that happens if it is not cancelled within its delay
+     */
+    abstract static class Timeout {
+
+        private static final int STATE_INIT = 0;
+        private static final int STATE_CANCELLED = 1;
+        private static final int STATE_EXPIRED = 2;
+        private static final AtomicIntegerFieldUpdater<Timeout> STATE = AtomicIntegerFieldUpdater.newUpdater(Timeout.class, "state");
+
+        private volatile int state;
+        private volatile TimerWheel wheel;
+        private long deadline;
+        private long remainingRounds;
+        private Bucket bucket;
+        private Timeout next;
+        private Timeout prev;
+
+        /**
+         * Called from the timer thread when this expires.
+         * It only updates the state, and hands any work that could take a while, like completing futures,
+         * calling listeners or sending messages, to {@link JsonRPCMessageHandler#runExpired(Runnable)}.
+         */
+        abstract void onTimeout();
+
+        /**
+         * Cancels this timeout, returning whether it had not expired
+         */
+        boolean cancel() {
+            if (!STATE.compareAndSet(this, STATE_INIT, STATE_CANCELLED)) {
+                return false;
+            }
+            if (wheel != null) {
+                wheel.cancelledTimeouts.add(this);
+            }
+            return true;
+        }
+
+        private void expire() {
+            if (STATE.compareAndSet(this, STATE_INIT, STATE_EXPIRED)) {
+                try {
+                    onTimeout();
+                } catch (Throwable throwable) {
+                    throwable.printStackTrace();
+                }
+            }
+        }
+    }
+
+    /**
+     * The timeouts expiring at a tick of the wheel, only accessed from the timer thread
+     */
+    private static final class Bucket {
+        private Timeout head;
+        private Timeout tail;
+
+        void add(Timeout timeout) {
+            timeout.bucket = this;
+            if (head == null) {
+                head = tail = timeout;
+            } else {
+                tail.next = timeout;
+                timeout.prev = tail;
+                tail = timeout;
+            }
+        }
+
+        void remove(Timeout timeout) {
+            Timeout next = timeout.next;
+            if (timeout.prev != null) {
+                timeout.prev.next = next;
+            }
+            if (next != null) {
+                next.prev = timeout.prev;
+            }
+            if (timeout == head) {
+                head = next;
+            }
+            if (timeout == tail) {
+                tail = timeout.prev;
+            }
+            timeout.prev = null;
+            timeout.next = null;
+            timeout.bucket = null;
+        }
+    }
+}
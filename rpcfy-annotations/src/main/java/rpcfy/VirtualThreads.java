@@ -0,0 +1,63 @@
+package rpcfy;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Gives access to the virtual threads of Java 21 and later, while still running on older versions.
+ * <p/>
+ * The generated proxies wait for a response by parking the calling thread, without holding any monitor, so
+ * a blocking call made from a virtual thread releases its carrier thread while it waits. Together with a
+ * {@link #newVirtualThreadPerTaskExecutor() virtual thread dispatch executor} at the service side, this keeps
+ * the blocking programming model of the proxies while allowing a very large number of concurrent calls.
+ *
+ * @see JsonRPCMessageHandler#setDispatchExecutor(java.util.concurrent.Executor, JsonRPCMessageHandler.DispatchOrder)
+ */
+public final class VirtualThreads {
+
+    private static final Method NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR = findMethod(Executors.class, "newVirtualThreadPerTaskExecutor");
+
+    private VirtualThreads() {
+    }
+
+    /**
+     * Returns whether virtual threads are supported by the running Java version
+     */
+    public static boolean isSupported() {
+        return NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR != null;
+    }
+
+    /**
+     * Returns an {@link ExecutorService} that runs each task on a new virtual thread, like
+     * <code>Executors.newVirtualThreadPerTaskExecutor()</code>.
+     *
+     * @throws UnsupportedOperationException if virtual threads are not supported
+     * @see #isSupported()
+     */
+    public static ExecutorService newVirtualThreadPerTaskExecutor() {
+        if (!isSupported()) {
+            throw new UnsupportedOperationException("Virtual threads need Java 21 or later");
+        }
+        return (ExecutorService) invoke(NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR, null);
+    }
+
+    private static Method findMethod(Class<?> type, String name) {
+        try {
+            return type.getMethod(name);
+        } catch (NoSuchMethodException exception) {
+            return null;
+        }
+    }
+
+    private static Object invoke(Method method, Object instance) {
+        try {
+            return method.invoke(instance);
+        } catch (IllegalAccessException exception) {
+            throw new IllegalStateException(exception);
+        } catch (InvocationTargetException exception) {
+            throw new IllegalStateException(exception.getCause());
+        }
+    }
+}
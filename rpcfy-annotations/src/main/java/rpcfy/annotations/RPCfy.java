@@ -25,4 +25,16 @@ import static java.lang.annotation.RetentionPolicy.CLASS;
 @Retention(CLASS)
 @Target(TYPE)
 public @interface RPCfy {
+
+    /**
+     * Whether the parameters and the results of the methods are encoded positionally by their declared types,
+     * instead of as named JSON values.
+     * <p>
+     * The generated proxy and stub then exchange them as a compact binary payload using
+     * {@link rpcfy.json.BinarySchemaWriter} and {@link rpcfy.json.BinarySchemaReader}, since both are
+     * generated from the same interface. The rest of the message is still encoded by the {@link rpcfy.JSONify} in use,
+     * where the payload is carried as raw bytes by an {@link rpcfy.RPCCodec} like {@link rpcfy.json.BinaryJsonify},
+     * or as a base64 string otherwise.
+     */
+    boolean schemaEncoding() default false;
 }
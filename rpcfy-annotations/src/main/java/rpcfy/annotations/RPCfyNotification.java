@@ -0,0 +1,28 @@
+package rpcfy.annotations;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.Target;
+
+import static java.lang.annotation.ElementType.METHOD;
+import static java.lang.annotation.RetentionPolicy.CLASS;
+
+/**
+ * Marks a void method within an interface marked as @{@link RPCfy} to be called as a JSON RPC notification
+ * <p>
+ * A call to this method sends a message without an id, and does not wait for or track a response.
+ * The remote stub does not send back a response either, so nothing is known about the call once it is sent,
+ * unless {@link #ackErrors()} is set.
+ *
+ * @see RPCfy
+ */
+@Retention(CLASS)
+@Target(METHOD)
+public @interface RPCfyNotification {
+
+    /**
+     * Whether the remote stub sends back a response if the call fails, which is then delivered to the
+     * {@link rpcfy.RPCProxy.RemoteListener} of the proxy like the failure of a one way call.
+     * A call that succeeds still gets no response.
+     */
+    boolean ackErrors() default false;
+}
@@ -0,0 +1,224 @@
+package rpcfy.json;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonPrimitive;
+
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Map;
+
+import static rpcfy.json.BinaryJsonWriter.*;
+
+/**
+ * Decodes the binary format written by {@link BinaryJsonWriter} into a {@link JsonElement}
+ * <p/>
+ * The bytes are read from a {@link ByteBuffer}, which can also be a direct buffer, without changing its position.
+ */
+final class BinaryDecoder {
+
+    private final ByteBuffer buffer;
+    private final int start;
+    private final int limit;
+    private int position;
+    private int depth;
+    private Map<String, byte[]> binaries;
+
+    BinaryDecoder(byte[] bytes) {
+        this(ByteBuffer.wrap(bytes));
+    }
+
+    /**
+     * Creates a decoder for the remaining bytes of the given buffer
+     */
+    BinaryDecoder(ByteBuffer buffer) {
+        this.buffer = buffer;
+        this.start = buffer.position();
+        this.limit = buffer.limit();
+        this.position = start;
+    }
+
+    /**
+     * Decodes the given bytes into a {@link JsonElement}
+     *
+     * @throws JsonParseException if the bytes are not in the expected format
+     */
+    static JsonElement decode(byte[] bytes) {
+        return decode(bytes, null);
+    }
+
+    /**
+     * Decodes the given bytes into a {@link JsonElement}, where the bytes of the entries of the top level object
+     * are added to the given map instead of being decoded as base64 strings.
+     * <p/>
+     * Those entries are left as {@link JsonNull} in the object.
+     *
+     * @throws JsonParseException if the bytes are not in the expected format
+     */
+    static JsonElement decode(byte[] bytes, Map<String, byte[]> binaries) {
+        return decode(ByteBuffer.wrap(bytes), binaries);
+    }
+
+    /**
+     * Decodes the remaining bytes of the given buffer into a {@link JsonElement}
+     *
+     * @see #decode(byte[], Map)
+     */
+    static JsonElement decode(ByteBuffer buffer, Map<String, byte[]> binaries) {
+        BinaryDecoder decoder = new BinaryDecoder(buffer);
+        decoder.binaries = binaries;
+        JsonElement element = decoder.readElement();
+        if (decoder.position != decoder.limit) {
+            throw new JsonParseException("Unexpected data at " + decoder.getOffset());
+        }
+        return element;
+    }
+
+    /**
+     * Reads the next element
+     */
+    JsonElement readElement() {
+        return readElement(readByte());
+    }
+
+    private JsonElement readElement(int tag) {
+        if (tag <= FIXINT_MAX) {
+            return new JsonPrimitive(tag);
+        }
+        if (tag >= NEGATIVE_FIXINT) {
+            return new JsonPrimitive((byte) tag);
+        }
+        if ((tag & 0xE0) == FIXSTR) {
+            return new JsonPrimitive(readUtf8(tag & FIXSTR_MAX_LENGTH));
+        }
+        switch (tag) {
+            case NIL:
+                return JsonNull.INSTANCE;
+            case FALSE:
+                return new JsonPrimitive(false);
+            case TRUE:
+                return new JsonPrimitive(true);
+            case VARINT:
+                long value = readVarint();
+                return new JsonPrimitive((value >>> 1) ^ -(value & 1));
+            case FLOAT64:
+                return new JsonPrimitive(Double.longBitsToDouble(readLong()));
+            case NUMBER:
+                return new JsonPrimitive(new BigDecimal(readUtf8(readLength())));
+            case STRING:
+                return new JsonPrimitive(readUtf8(readLength()));
+            case BIN:
+                return new JsonPrimitive(Base64.getEncoder().encodeToString(readBytes(readLength())));
+            case ARRAY:
+                depth++;
+                JsonArray array = new JsonArray();
+                for (int itemTag = readByte(); itemTag != END; itemTag = readByte()) {
+                    array.add(readElement(itemTag));
+                }
+                depth--;
+                return array;
+            case OBJECT:
+                boolean topLevel = depth == 0;
+                depth++;
+                JsonObject object = new JsonObject();
+                for (int nameTag = readByte(); nameTag != END; nameTag = readByte()) {
+                    JsonElement name = readElement(nameTag);
+                    if (!name.isJsonPrimitive() || !name.getAsJsonPrimitive().isString()) {
+                        throw new JsonParseException("Expected a name at " + getOffset());
+                    }
+                    int valueTag = readByte();
+                    if (valueTag == BIN && topLevel && binaries != null) {
+                        binaries.put(name.getAsString(), readBytes(readLength()));
+                        object.add(name.getAsString(), JsonNull.INSTANCE);
+                    } else {
+                        object.add(name.getAsString(), readElement(valueTag));
+                    }
+                }
+                depth--;
+                return object;
+            default:
+                throw new JsonParseException("Unknown tag " + tag + " at " + (getOffset() - 1));
+        }
+    }
+
+    int readByte() {
+        if (position >= limit) {
+            throw new JsonParseException("Unexpected end of message");
+        }
+        return buffer.get(position++) & 0xFF;
+    }
+
+    long readVarint() {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = readByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new JsonParseException("Malformed varint at " + getOffset());
+    }
+
+    long readLong() {
+        long value = 0;
+        for (int i = 0; i < 8; i++) {
+            value = (value << 8) | readByte();
+        }
+        return value;
+    }
+
+    int readInt() {
+        int value = 0;
+        for (int i = 0; i < 4; i++) {
+            value = (value << 8) | readByte();
+        }
+        return value;
+    }
+
+    int readLength() {
+        long length = readVarint();
+        if (length > limit - position) {
+            throw new JsonParseException("Unexpected end of message");
+        }
+        return (int) length;
+    }
+
+    String readUtf8(int length) {
+        if (length > limit - position) {
+            throw new JsonParseException("Unexpected end of message");
+        }
+        String value;
+        if (buffer.hasArray()) {
+            value = new String(buffer.array(), buffer.arrayOffset() + position, length, StandardCharsets.UTF_8);
+            position += length;
+        } else {
+            value = new String(readBytes(length), StandardCharsets.UTF_8);
+        }
+        return value;
+    }
+
+    byte[] readBytes(int length) {
+        if (length > limit - position) {
+            throw new JsonParseException("Unexpected end of message");
+        }
+        byte[] value = new byte[length];
+        ByteBuffer source = buffer.duplicate();
+        source.position(position);
+        source.get(value);
+        position += length;
+        return value;
+    }
+
+    /**
+     * Returns the number of bytes read so far
+     */
+    private int getOffset() {
+        return position - start;
+    }
+}
@@ -0,0 +1,274 @@
+package rpcfy.json;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.JsonPrimitive;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.math.BigInteger;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A {@link JsonWriter} that writes the binary format of {@link BinaryJsonify} instead of JSON text, so that
+ * any {@link com.google.gson.TypeAdapter} can write to it.
+ * <p/>
+ * The tags follows MessagePack where there is one, like the fixint, fixstr, nil, true, false, bin and float64 tags.
+ * The other integers are written as zigzag varints, strings as their varint length followed by the UTF-8 bytes,
+ * and the objects and arrays, whose sizes are not known in advance, are closed using an end tag.
+ */
+final class BinaryJsonWriter extends JsonWriter {
+
+    static final int FIXINT_MAX = 0x7F;
+    static final int FIXSTR = 0xA0;
+    static final int FIXSTR_MAX_LENGTH = 0x1F;
+    static final int NIL = 0xC0;
+    static final int END = 0xC1;
+    static final int FALSE = 0xC2;
+    static final int TRUE = 0xC3;
+    static final int BIN = 0xC4;
+    static final int NUMBER = 0xC7;
+    static final int FLOAT64 = 0xCB;
+    static final int VARINT = 0xD3;
+    static final int STRING = 0xD9;
+    static final int ARRAY = 0xDC;
+    static final int OBJECT = 0xDE;
+    static final int NEGATIVE_FIXINT = 0xE0;
+    static final int NEGATIVE_FIXINT_MIN = -32;
+
+    private static final Writer UNUSED_WRITER = new Writer() {
+        @Override
+        public void write(char[] chars, int offset, int length) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    };
+
+    private final BinaryBuffer buffer;
+    private String deferredName;
+
+    BinaryJsonWriter(BinaryBuffer buffer) {
+        super(UNUSED_WRITER);
+        this.buffer = buffer;
+    }
+
+    @Override
+    public JsonWriter beginObject() {
+        writeDeferredName();
+        buffer.write(OBJECT);
+        return this;
+    }
+
+    @Override
+    public JsonWriter endObject() {
+        if (deferredName != null) {
+            throw new IllegalStateException("Missing value for " + deferredName);
+        }
+        buffer.write(END);
+        return this;
+    }
+
+    @Override
+    public JsonWriter beginArray() {
+        writeDeferredName();
+        buffer.write(ARRAY);
+        return this;
+    }
+
+    @Override
+    public JsonWriter endArray() {
+        buffer.write(END);
+        return this;
+    }
+
+    @Override
+    public JsonWriter name(String name) {
+        if (name == null) {
+            throw new NullPointerException("name == null");
+        }
+        if (deferredName != null) {
+            throw new IllegalStateException("Missing value for " + deferredName);
+        }
+        deferredName = name;
+        return this;
+    }
+
+    @Override
+    public JsonWriter value(String value) {
+        if (value == null) {
+            return nullValue();
+        }
+        writeDeferredName();
+        writeString(value);
+        return this;
+    }
+
+    @Override
+    public JsonWriter jsonValue(String value) {
+        if (value == null) {
+            return nullValue();
+        }
+        writeElement(new JsonParser().parse(value));
+        return this;
+    }
+
+    @Override
+    public JsonWriter nullValue() {
+        if (deferredName != null) {
+            if (!getSerializeNulls()) {
+                deferredName = null;
+                return this;
+            }
+            writeDeferredName();
+        }
+        buffer.write(NIL);
+        return this;
+    }
+
+    @Override
+    public JsonWriter value(boolean value) {
+        writeDeferredName();
+        buffer.write(value ? TRUE : FALSE);
+        return this;
+    }
+
+    @Override
+    public JsonWriter value(Boolean value) {
+        if (value == null) {
+            return nullValue();
+        }
+        return value(value.booleanValue());
+    }
+
+    @Override
+    public JsonWriter value(double value) {
+        if (!isLenient() && (Double.isNaN(value) || Double.isInfinite(value))) {
+            throw new IllegalArgumentException("Numeric values must be finite, but was " + value);
+        }
+        writeDeferredName();
+        buffer.write(FLOAT64);
+        buffer.writeLong(Double.doubleToRawLongBits(value));
+        return this;
+    }
+
+    @Override
+    public JsonWriter value(long value) {
+        writeDeferredName();
+        if (value >= 0 && value <= FIXINT_MAX) {
+            buffer.write((int) value);
+        } else if (value < 0 && value >= NEGATIVE_FIXINT_MIN) {
+            buffer.write((int) value);
+        } else {
+            buffer.write(VARINT);
+            buffer.writeVarint((value << 1) ^ (value >> 63));
+        }
+        return this;
+    }
+
+    @Override
+    public JsonWriter value(Number value) {
+        if (value == null) {
+            return nullValue();
+        }
+        if (value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte
+                || value instanceof AtomicInteger || value instanceof AtomicLong) {
+            return value(value.longValue());
+        }
+        if (value instanceof Double || value instanceof Float) {
+            return value(value.doubleValue());
+        }
+        if (value instanceof BigInteger && ((BigInteger) value).bitLength() < 64) {
+            return value(value.longValue());
+        }
+        //keep the exact decimal representation of the other numbers
+        writeDeferredName();
+        String number = value.toString();
+        buffer.write(NUMBER);
+        buffer.writeVarint(number.length());
+        buffer.writeUtf8(number, number.length());
+        return this;
+    }
+
+    /**
+     * Writes the given bytes as is
+     */
+    void binaryValue(byte[] value) {
+        if (value == null) {
+            nullValue();
+            return;
+        }
+        writeDeferredName();
+        buffer.write(BIN);
+        buffer.writeVarint(value.length);
+        buffer.write(value, 0, value.length);
+    }
+
+    @Override
+    public void flush() {
+    }
+
+    @Override
+    public void close() {
+    }
+
+    /**
+     * Writes the given {@link JsonElement}
+     */
+    void writeElement(JsonElement element) {
+        if (element == null || element.isJsonNull()) {
+            nullValue();
+        } else if (element.isJsonPrimitive()) {
+            JsonPrimitive primitive = element.getAsJsonPrimitive();
+            if (primitive.isBoolean()) {
+                value(primitive.getAsBoolean());
+            } else if (primitive.isNumber()) {
+                value(primitive.getAsNumber());
+            } else {
+                value(primitive.getAsString());
+            }
+        } else if (element.isJsonArray()) {
+            beginArray();
+            for (JsonElement item : (JsonArray) element) {
+                writeElement(item);
+            }
+            endArray();
+        } else {
+            beginObject();
+            for (Map.Entry<String, JsonElement> entry : ((JsonObject) element).entrySet()) {
+                name(entry.getKey());
+                writeElement(entry.getValue());
+            }
+            endObject();
+        }
+    }
+
+    private void writeDeferredName() {
+        if (deferredName != null) {
+            writeString(deferredName);
+            deferredName = null;
+        }
+    }
+
+    private void writeString(String value) {
+        int length = BinaryBuffer.utf8Length(value);
+        if (length <= FIXSTR_MAX_LENGTH) {
+            buffer.write(FIXSTR | length);
+        } else {
+            buffer.write(STRING);
+            buffer.writeVarint(length);
+        }
+        buffer.writeUtf8(value, length);
+    }
+}
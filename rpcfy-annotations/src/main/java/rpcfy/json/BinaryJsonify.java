@@ -0,0 +1,47 @@
+package rpcfy.json;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import rpcfy.RPCCodec;
+import rpcfy.RPCMessage;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * An {@link RPCCodec} that exchanges the messages in a compact binary format instead of JSON text.
+ * <p/>
+ * The format is schemaless like JSON, with MessagePack style tags, varint encoded integers and
+ * length prefixed strings. The objects are still converted using {@link com.google.gson.Gson} like {@link GsonJsonify},
+ * so any type that works with {@link GsonJsonify} works with this.
+ *
+ * @see rpcfy.JsonRPCMessageHandler#JsonRPCMessageHandler(rpcfy.MessageSender, RPCCodec)
+ */
+public class BinaryJsonify extends GsonJsonify implements RPCCodec {
+
+    @Override
+    public JWriter newWriter() {
+        return new BinaryWriter(this);
+    }
+
+    @Override
+    public RPCMessage parseMessage(byte[] message) {
+        return parseMessage(ByteBuffer.wrap(message));
+    }
+
+    /**
+     * Decodes the given message directly from the buffer, which can also be a direct buffer
+     */
+    @Override
+    public RPCMessage parseMessage(ByteBuffer message) {
+        Map<String, byte[]> binaries = new HashMap<>();
+        JsonElement element = BinaryDecoder.decode(message, binaries);
+        if (!(element instanceof JsonObject)) {
+            throw new JsonParseException("Not an RPC message");
+        }
+        return binaries.isEmpty() ? new RPCMessage(this, new GsonObject((JsonObject) element))
+                : new BinaryMessage(this, (JsonObject) element, binaries);
+    }
+}
@@ -0,0 +1,52 @@
+package rpcfy.json;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+import rpcfy.JSONify;
+import rpcfy.RPCMessage;
+
+import java.util.Base64;
+import java.util.Map;
+
+/**
+ * An {@link RPCMessage} decoded by {@link BinaryJsonify} that has entries written as raw bytes,
+ * which are kept as they are instead of being converted to base64 strings.
+ */
+final class BinaryMessage extends RPCMessage {
+
+    private final JsonObject jsonObject;
+    private final Map<String, byte[]> binaries;
+    private boolean binariesEncoded;
+
+    BinaryMessage(JSONify jsonify, JsonObject jsonObject, Map<String, byte[]> binaries) {
+        super(jsonify, new GsonObject(jsonObject));
+        this.jsonObject = jsonObject;
+        this.binaries = binaries;
+    }
+
+    @Override
+    public byte[] getBytes(String key) {
+        byte[] value = binaries.get(key);
+        return value != null ? value : super.getBytes(key);
+    }
+
+    @Override
+    public String getStringValue(String key) {
+        byte[] value = binaries.get(key);
+        return value != null ? Base64.getEncoder().encodeToString(value) : super.getStringValue(key);
+    }
+
+    /**
+     * Returns the JSON of the message, where the bytes are written as base64 strings
+     */
+    @Override
+    public String getMessage() {
+        if (!binariesEncoded) {
+            binariesEncoded = true;
+            for (Map.Entry<String, byte[]> entry : binaries.entrySet()) {
+                jsonObject.add(entry.getKey(), new JsonPrimitive(Base64.getEncoder().encodeToString(entry.getValue())));
+            }
+        }
+        return super.getMessage();
+    }
+}
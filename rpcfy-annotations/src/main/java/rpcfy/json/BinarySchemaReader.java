@@ -0,0 +1,93 @@
+package rpcfy.json;
+
+import com.google.gson.JsonParseException;
+import rpcfy.JSONify;
+
+import java.lang.reflect.Type;
+
+/**
+ * Reads the values written by {@link BinarySchemaWriter}, which should be read in the same order and
+ * using the same types they were written with.
+ * <p/>
+ * A {@link JsonParseException} is thrown if the bytes end before the expected values.
+ */
+public final class BinarySchemaReader {
+
+    private static final byte[] EMPTY = new byte[0];
+
+    private final JSONify jsonify;
+    private final BinaryDecoder decoder;
+
+    /**
+     * Creates a reader for the given bytes, that reads the objects using the given {@link JSONify}
+     */
+    public BinarySchemaReader(JSONify jsonify, byte[] bytes) {
+        this.jsonify = jsonify;
+        this.decoder = new BinaryDecoder(bytes != null ? bytes : EMPTY);
+    }
+
+    public boolean readBoolean() {
+        return decoder.readByte() != 0;
+    }
+
+    public byte readByte() {
+        return (byte) decoder.readByte();
+    }
+
+    public char readChar() {
+        return (char) decoder.readVarint();
+    }
+
+    public short readShort() {
+        return (short) readLong();
+    }
+
+    public int readInt() {
+        return (int) readLong();
+    }
+
+    public long readLong() {
+        long value = decoder.readVarint();
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    public float readFloat() {
+        return Float.intBitsToFloat(decoder.readInt());
+    }
+
+    public double readDouble() {
+        return Double.longBitsToDouble(decoder.readLong());
+    }
+
+    /**
+     * Reads a value written by {@link BinarySchemaWriter#writeInteger(Integer)}
+     */
+    public Integer readInteger() {
+        return readBoolean() ? readInt() : null;
+    }
+
+    /**
+     * Reads a value written by {@link BinarySchemaWriter#writeString(String)}
+     */
+    public String readString() {
+        long length = decoder.readVarint();
+        if (length == 0) {
+            return null;
+        }
+        if (length - 1 > Integer.MAX_VALUE) {
+            throw new JsonParseException("Invalid string length " + length);
+        }
+        return decoder.readUtf8((int) (length - 1));
+    }
+
+    /**
+     * Reads an object of given type written by {@link BinarySchemaWriter#writeObject(Object)}
+     */
+    public <T> T readObject(Type type) {
+        if (jsonify instanceof GsonJsonify) {
+            return ((GsonJsonify) jsonify).getGson().fromJson(decoder.readElement(), type);
+        }
+        String json = readString();
+        return json != null ? jsonify.<T>fromJSON(json, type) : null;
+    }
+}
@@ -0,0 +1,131 @@
+package rpcfy.json;
+
+import rpcfy.JSONify;
+
+/**
+ * Writes the values one after the other in the order they are read by {@link BinarySchemaReader}, without
+ * any name or type tag, since both sides know the types from the interface.
+ * <p/>
+ * This is used by the proxies and stubs generated for the interfaces using {@link rpcfy.annotations.RPCfy#schemaEncoding()}
+ * to write the parameters and the result of a call.
+ * The primitives are written as zigzag varints, or as fixed size for the floating points, and the strings are
+ * written as their varint length followed by the UTF-8 bytes.
+ * The other objects are written using the {@link com.google.gson.Gson} of the {@link GsonJsonify} in the
+ * binary format of {@link BinaryJsonify}, or as a JSON string if a different {@link JSONify} is used.
+ * <p/>
+ * The bytes are written to a buffer that is reused by the next writer created in the same thread,
+ * once the bytes of this writer are taken using {@link #toBytes()}.
+ */
+public final class BinarySchemaWriter {
+
+    private static final int MAX_REUSED_BUFFER_SIZE = 64 * 1024;
+    private static final ThreadLocal<BinaryBuffer> buffers = new ThreadLocal<>();
+
+    private final JSONify jsonify;
+    private BinaryBuffer buffer;
+    private BinaryJsonWriter jsonWriter;
+    private byte[] bytes;
+
+    /**
+     * Creates a writer that writes the objects using the given {@link JSONify}
+     */
+    public BinarySchemaWriter(JSONify jsonify) {
+        this.jsonify = jsonify;
+        buffer = buffers.get();
+        if (buffer != null) {
+            //take the buffer, so that a nested writer in this thread gets its own
+            buffers.set(null);
+        } else {
+            buffer = new BinaryBuffer(256);
+        }
+    }
+
+    public void writeBoolean(boolean value) {
+        buffer.write(value ? 1 : 0);
+    }
+
+    public void writeByte(byte value) {
+        buffer.write(value);
+    }
+
+    public void writeChar(char value) {
+        buffer.writeVarint(value);
+    }
+
+    public void writeShort(short value) {
+        writeLong(value);
+    }
+
+    public void writeInt(int value) {
+        writeLong(value);
+    }
+
+    public void writeLong(long value) {
+        buffer.writeVarint((value << 1) ^ (value >> 63));
+    }
+
+    public void writeFloat(float value) {
+        buffer.writeInt(Float.floatToRawIntBits(value));
+    }
+
+    public void writeDouble(double value) {
+        buffer.writeLong(Double.doubleToRawLongBits(value));
+    }
+
+    /**
+     * Writes the given value, which can be null
+     */
+    public void writeInteger(Integer value) {
+        writeBoolean(value != null);
+        if (value != null) {
+            writeInt(value);
+        }
+    }
+
+    /**
+     * Writes the given value, which can be null
+     */
+    public void writeString(String value) {
+        if (value == null) {
+            buffer.writeVarint(0);
+        } else {
+            int length = BinaryBuffer.utf8Length(value);
+            buffer.writeVarint(length + 1L);
+            buffer.writeUtf8(value, length);
+        }
+    }
+
+    /**
+     * Writes the given object, which can be null
+     */
+    public void writeObject(Object value) {
+        if (jsonify instanceof GsonJsonify) {
+            if (jsonWriter == null) {
+                jsonWriter = new BinaryJsonWriter(buffer);
+            }
+            if (value == null) {
+                jsonWriter.nullValue();
+            } else {
+                ((GsonJsonify) jsonify).getGson().toJson(value, value.getClass(), jsonWriter);
+            }
+        } else {
+            writeString(value != null ? jsonify.toJson(value).toJson() : null);
+        }
+    }
+
+    /**
+     * Returns the written bytes
+     */
+    public byte[] toBytes() {
+        if (bytes == null) {
+            bytes = buffer.toByteArray();
+            buffer.reset();
+            if (buffer.capacity() <= MAX_REUSED_BUFFER_SIZE) {
+                buffers.set(buffer);
+            }
+            buffer = null;
+            jsonWriter = null;
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,88 @@
+package rpcfy.json;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A {@link rpcfy.JSONify.JWriter} that streams the object in the binary format of {@link BinaryJsonify}.
+ * <p/>
+ * The bytes are written to a buffer that is reused by the next writer created in the same thread,
+ * once the bytes of this writer are taken using {@link #toBytes()}. The buffer is handed over instead
+ * if the bytes are taken using {@link #toByteBuffer()}, since the transport could still be holding it.
+ */
+class BinaryWriter extends JsonStreamWriter {
+
+    private static final int MAX_REUSED_BUFFER_SIZE = 64 * 1024;
+    private static final ThreadLocal<BinaryBuffer> buffers = new ThreadLocal<>();
+
+    private BinaryBuffer buffer;
+    private BinaryJsonWriter binaryJsonWriter;
+    private byte[] bytes;
+    private ByteBuffer byteBuffer;
+
+    BinaryWriter(BinaryJsonify jsonify) {
+        super(jsonify);
+        buffer = buffers.get();
+        if (buffer != null) {
+            //take the buffer, so that a nested writer in this thread gets its own
+            buffers.set(null);
+        } else {
+            buffer = new BinaryBuffer(1024);
+        }
+        binaryJsonWriter = new BinaryJsonWriter(buffer);
+        begin(binaryJsonWriter);
+    }
+
+    /**
+     * Adds the given bytes as they are, instead of as a base64 string
+     */
+    @Override
+    public void putBytes(String name, byte[] value) {
+        binaryJsonWriter.name(name);
+        binaryJsonWriter.binaryValue(value);
+    }
+
+    @Override
+    public byte[] toBytes() {
+        if (bytes == null && byteBuffer != null) {
+            bytes = new byte[byteBuffer.remaining()];
+            byteBuffer.duplicate().get(bytes);
+        }
+        if (bytes == null) {
+            end();
+            bytes = buffer.toByteArray();
+            buffer.reset();
+            if (buffer.capacity() <= MAX_REUSED_BUFFER_SIZE) {
+                buffers.set(buffer);
+            }
+            buffer = null;
+            binaryJsonWriter = null;
+        }
+        return bytes;
+    }
+
+    /**
+     * Returns the written bytes without copying them
+     */
+    @Override
+    public ByteBuffer toByteBuffer() {
+        if (byteBuffer == null) {
+            if (bytes != null) {
+                byteBuffer = ByteBuffer.wrap(bytes);
+            } else {
+                end();
+                byteBuffer = buffer.toByteBuffer();
+                buffer = null;
+                binaryJsonWriter = null;
+            }
+        }
+        return byteBuffer.duplicate();
+    }
+
+    /**
+     * Returns the JSON representation of the written object, which is decoded back from its bytes
+     */
+    @Override
+    public String toJson() {
+        return BinaryDecoder.decode(toBytes()).toString();
+    }
+}
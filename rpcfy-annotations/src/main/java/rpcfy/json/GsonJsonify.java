@@ -1,21 +1,100 @@
 package rpcfy.json;
 
 import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
 import com.google.gson.JsonParser;
+import com.google.gson.TypeAdapterFactory;
 import rpcfy.JSONify;
+import rpcfy.RPCMessage;
 
+import java.io.InputStreamReader;
 import java.lang.reflect.Type;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.ServiceLoader;
 import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * Default implementation of {@link rpcfy.JSONify} using {@link Gson}
+ * <p/>
+ * The {@link TypeAdapterFactory}s generated by RPCfy for the types used in the @RPCfy interfaces are found as
+ * {@link RPCfyTypeAdapterFactory} {@link ServiceLoader} services, and are used by every instance together with
+ * the ones registered through {@link #registerTypeAdapterFactory(TypeAdapterFactory)}.
+ * <p/>
+ * All the instances share the same thread safe {@link Gson}, so that the adapters it creates for the types are
+ * reused by every handler, proxy and stub instead of being created again for each of them.
  */
 public class GsonJsonify implements JSONify {
 
-    private Gson gson = new Gson();
+    private static final List<TypeAdapterFactory> typeAdapterFactories = new CopyOnWriteArrayList<>();
+    private static volatile int typeAdapterFactoriesVersion;
+    private static volatile SharedGson sharedGson;
+
     private JsonParser jsonParser = new JsonParser();
+    private boolean streamHeaders;
+
+    /**
+     * Creates an instance that parses the whole message in {@link #parseMessage(String)}
+     */
+    public GsonJsonify() {
+    }
+
+    /**
+     * Creates an instance with the given parsing mode
+     *
+     * @param streamHeaders Whether {@link #parseMessage(String)} should only stream the routing headers of
+     *                      the message, and parse the rest of it only if it gets accessed.
+     */
+    public GsonJsonify(boolean streamHeaders) {
+        this.streamHeaders = streamHeaders;
+    }
+
+    /**
+     * Registers the given {@link TypeAdapterFactory} to be used by all the instances of {@link GsonJsonify}.
+     * <p/>
+     * The factories generated by RPCfy do not need to be registered, as they are found as services.
+     */
+    public static void registerTypeAdapterFactory(TypeAdapterFactory typeAdapterFactory) {
+        synchronized (typeAdapterFactories) {
+            for (TypeAdapterFactory factory : typeAdapterFactories) {
+                if (factory.getClass() == typeAdapterFactory.getClass()) {
+                    return;
+                }
+            }
+            typeAdapterFactories.add(typeAdapterFactory);
+            typeAdapterFactoriesVersion++;
+        }
+    }
+
+    /**
+     * Returns the {@link Gson} to use, which is shared by all the instances, and is recreated only if
+     * new {@link TypeAdapterFactory}s got registered
+     */
+    protected Gson getGson() {
+        SharedGson shared = sharedGson;
+        if (shared == null || shared.version != typeAdapterFactoriesVersion) {
+            synchronized (typeAdapterFactories) {
+                shared = sharedGson;
+                if (shared == null || shared.version != typeAdapterFactoriesVersion) {
+                    GsonBuilder gsonBuilder = new GsonBuilder();
+                    for (RPCfyTypeAdapterFactory typeAdapterFactory : ServiceLoader.load(RPCfyTypeAdapterFactory.class)) {
+                        gsonBuilder.registerTypeAdapterFactory(typeAdapterFactory);
+                    }
+                    for (TypeAdapterFactory typeAdapterFactory : typeAdapterFactories) {
+                        gsonBuilder.registerTypeAdapterFactory(typeAdapterFactory);
+                    }
+                    shared = new SharedGson(gsonBuilder.create(), typeAdapterFactoriesVersion);
+                    sharedGson = shared;
+                }
+            }
+        }
+        return shared.gson;
+    }
 
     @Override
     public JObject newJson() {
@@ -29,7 +108,7 @@ public class GsonJsonify implements JSONify {
 
             @Override
             public String toJson() {
-                return gson.toJson(object);
+                return getGson().toJson(object);
             }
 
             @Override
@@ -88,26 +167,91 @@ public class GsonJsonify implements JSONify {
 
     @Override
     public <T> T fromJSON(String json, Class<T> type) {
-        return gson.fromJson(json, type);
+        return getGson().fromJson(json, type);
     }
 
     @Override
     public <T> T fromJSON(String json, String parameter, Class<T> type) {
         String jsonParam = getJSONElement(json, parameter);
-        return jsonParam != null ? gson.fromJson(jsonParam, type) : null;
+        return jsonParam != null ? getGson().fromJson(jsonParam, type) : null;
     }
 
     @Override
     public <T> T fromJSON(String json, String parameter, Type type) {
         String jsonParam = getJSONElement(json, parameter);
-        return jsonParam != null ? gson.fromJson(jsonParam, type) : null;
+        return jsonParam != null ? getGson().fromJson(jsonParam, type) : null;
     }
 
 
+    @Override
+    public <T> T fromJSON(String json, Type type) {
+        return getGson().fromJson(json, type);
+    }
+
     @Override
     public String getJSONElement(String json, String parameter) {
         JsonElement element = jsonParser.parse(json).getAsJsonObject()
                 .get(parameter);
         return element != null ? element.toString() : null;
     }
+
+    @Override
+    public JWriter newWriter() {
+        return new GsonWriter(this);
+    }
+
+    @Override
+    public RPCMessage parseMessage(String message) {
+        return streamHeaders ? new GsonStreamedMessage(this, message) : JSONify.super.parseMessage(message);
+    }
+
+    /**
+     * Parses the given UTF-8 message directly from the buffer, without creating the JSON string of the message.
+     * When only the routing headers are streamed, the bytes of the message are copied out of the buffer, which
+     * is not used once this returns, and the rest of the message is parsed from them only if it gets accessed.
+     */
+    @Override
+    public RPCMessage parseMessage(ByteBuffer message) {
+        if (streamHeaders) {
+            byte[] bytes = new byte[message.remaining()];
+            message.duplicate().get(bytes);
+            return new GsonStreamedMessage(this, bytes);
+        }
+        JsonElement element = jsonParser.parse(new InputStreamReader(new ByteBufferInputStream(message), StandardCharsets.UTF_8));
+        if (!(element instanceof JsonObject)) {
+            throw new JsonParseException("Not an RPC message");
+        }
+        return new RPCMessage(this, new GsonObject((JsonObject) element));
+    }
+
+    @Override
+    public JElement getElement(JElement element, String parameter) {
+        if (element instanceof GsonObject) {
+            JsonElement jsonElement = ((GsonObject) element).getJsonObject().get(parameter);
+            return jsonElement instanceof JsonObject ? new GsonObject((JsonObject) jsonElement) : null;
+        }
+        return JSONify.super.getElement(element, parameter);
+    }
+
+    @Override
+    public <T> T fromJSON(JElement element, String parameter, Type type) {
+        if (element instanceof GsonObject) {
+            JsonElement jsonElement = ((GsonObject) element).getJsonObject().get(parameter);
+            return jsonElement != null ? getGson().<T>fromJson(jsonElement, type) : null;
+        }
+        return JSONify.super.fromJSON(element, parameter, type);
+    }
+
+    /**
+     * The shared {@link Gson}, with the version of the registered {@link TypeAdapterFactory}s it was created with
+     */
+    private static final class SharedGson {
+        private final Gson gson;
+        private final int version;
+
+        SharedGson(Gson gson, int version) {
+            this.gson = gson;
+            this.version = version;
+        }
+    }
 }
@@ -33,6 +33,20 @@ public class GsonObject implements JSONify.JObject {
         }
     }
 
+    /**
+     * Creates an instance wrapping the given {@link JsonObject}
+     */
+    GsonObject(JsonObject jsonObject) {
+        this.jsonObject = jsonObject;
+    }
+
+    /**
+     * Returns the {@link JsonObject} this wraps
+     */
+    JsonObject getJsonObject() {
+        return jsonObject;
+    }
+
     @Override
     public String toJson() {
         return jsonObject.toString();
@@ -0,0 +1,117 @@
+package rpcfy.json;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import rpcfy.JSONify;
+import rpcfy.RPCMessage;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * An {@link RPCMessage} whose routing headers are read using a streaming {@link JsonReader}.
+ * <p/>
+ * The params, result and any other values are skipped without being materialized, and the message is
+ * parsed into a tree only when its body is accessed.
+ * A message received as UTF-8 bytes is kept as bytes, and is decoded into a string only if that is asked for.
+ */
+class GsonStreamedMessage extends RPCMessage {
+
+    private final byte[] bytes;
+    private String decodedMessage;
+    private JSONify.JElement element;
+
+    GsonStreamedMessage(JSONify jsonify, String message) {
+        super(jsonify, message);
+        this.bytes = null;
+        readHeaders(new StringReader(message));
+    }
+
+    /**
+     * Creates an instance for the given UTF-8 message, which is not copied
+     */
+    GsonStreamedMessage(JSONify jsonify, byte[] message) {
+        super(jsonify, (String) null);
+        this.bytes = message;
+        readHeaders(newReader());
+    }
+
+    private Reader newReader() {
+        return new InputStreamReader(new ByteArrayInputStream(bytes), StandardCharsets.UTF_8);
+    }
+
+    private void readHeaders(Reader messageReader) {
+        Set<String> keys = new LinkedHashSet<>();
+        try {
+            JsonReader reader = new JsonReader(messageReader);
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String key = reader.nextName();
+                keys.add(key);
+                if (isHeader(key)) {
+                    setHeader(key, readHeaderValue(reader));
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+        } catch (IOException | IllegalStateException ex) {
+            throw new JsonParseException(ex);
+        }
+        setKeys(keys);
+    }
+
+    @Override
+    public String getMessage() {
+        if (bytes == null) {
+            return super.getMessage();
+        }
+        if (decodedMessage == null) {
+            decodedMessage = new String(bytes, StandardCharsets.UTF_8);
+        }
+        return decodedMessage;
+    }
+
+    @Override
+    public JSONify.JElement getElement() {
+        if (element == null) {
+            if (bytes != null && decodedMessage == null) {
+                JsonElement jsonElement = new JsonParser().parse(newReader());
+                if (!(jsonElement instanceof JsonObject)) {
+                    throw new JsonParseException("Not an RPC message");
+                }
+                element = new GsonObject((JsonObject) jsonElement);
+            } else {
+                element = new GsonObject(getMessage());
+            }
+        }
+        return element;
+    }
+
+    private static String readHeaderValue(JsonReader reader) throws IOException {
+        JsonToken token = reader.peek();
+        switch (token) {
+            case STRING:
+            case NUMBER:
+                return reader.nextString();
+            case BOOLEAN:
+                return String.valueOf(reader.nextBoolean());
+            case NULL:
+                reader.nextNull();
+                return null;
+            default:
+                reader.skipValue();
+                return null;
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package rpcfy.json;
+
+import com.google.gson.stream.JsonWriter;
+
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A {@link rpcfy.JSONify.JWriter} that streams the object as JSON text.
+ * <p/>
+ * The characters are written to a buffer that is reused by the next writer created in the same thread,
+ * once the JSON of this writer is taken using {@link #toJson()}.
+ */
+class GsonWriter extends JsonStreamWriter {
+
+    private static final int MAX_REUSED_BUFFER_SIZE = 64 * 1024;
+    private static final ThreadLocal<StringBuilderWriter> buffers = new ThreadLocal<>();
+
+    private StringBuilderWriter buffer;
+    private String json;
+    private ByteBuffer byteBuffer;
+
+    GsonWriter(GsonJsonify jsonify) {
+        super(jsonify);
+        buffer = buffers.get();
+        if (buffer != null) {
+            //take the buffer, so that a nested writer in this thread gets its own
+            buffers.set(null);
+        } else {
+            buffer = new StringBuilderWriter();
+        }
+        begin(new JsonWriter(buffer));
+    }
+
+    @Override
+    public String toJson() {
+        if (json == null && byteBuffer != null) {
+            json = StandardCharsets.UTF_8.decode(byteBuffer.duplicate()).toString();
+        }
+        if (json == null) {
+            end();
+            json = buffer.toString();
+            releaseBuffer();
+        }
+        return json;
+    }
+
+    /**
+     * Returns the UTF-8 encoding of the JSON, which is encoded from the buffer without creating the JSON string
+     */
+    @Override
+    public ByteBuffer toByteBuffer() {
+        if (byteBuffer == null) {
+            if (json != null) {
+                byteBuffer = StandardCharsets.UTF_8.encode(json);
+            } else {
+                end();
+                byteBuffer = StandardCharsets.UTF_8.encode(CharBuffer.wrap(buffer.builder));
+                releaseBuffer();
+            }
+        }
+        return byteBuffer.duplicate();
+    }
+
+    @Override
+    public byte[] toBytes() {
+        ByteBuffer bytes = toByteBuffer();
+        byte[] value = new byte[bytes.remaining()];
+        bytes.get(value);
+        return value;
+    }
+
+    private void releaseBuffer() {
+        buffer.reset();
+        if (buffer.capacity() <= MAX_REUSED_BUFFER_SIZE) {
+            buffers.set(buffer);
+        }
+        buffer = null;
+    }
+
+    /**
+     * An unsynchronized {@link Writer} over a {@link StringBuilder}
+     */
+    private static final class StringBuilderWriter extends Writer {
+
+        private final StringBuilder builder = new StringBuilder(1024);
+
+        @Override
+        public void write(int c) {
+            builder.append((char) c);
+        }
+
+        @Override
+        public void write(char[] chars, int offset, int length) {
+            builder.append(chars, offset, length);
+        }
+
+        @Override
+        public void write(String string) {
+            builder.append(string);
+        }
+
+        @Override
+        public void write(String string, int offset, int length) {
+            builder.append(string, offset, offset + length);
+        }
+
+        @Override
+        public Writer append(CharSequence charSequence) {
+            builder.append(charSequence);
+            return this;
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+
+        int capacity() {
+            return builder.capacity();
+        }
+
+        void reset() {
+            builder.setLength(0);
+        }
+
+        @Override
+        public String toString() {
+            return builder.toString();
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package rpcfy.json;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonIOException;
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonWriter;
+import rpcfy.JSONify;
+
+import java.io.IOException;
+
+/**
+ * A {@link rpcfy.JSONify.JWriter} that streams the object to a {@link JsonWriter}, using the
+ * {@link com.google.gson.Gson} of a {@link GsonJsonify} to write the values.
+ */
+abstract class JsonStreamWriter implements JSONify.JWriter {
+
+    private final GsonJsonify jsonify;
+    private JsonWriter jsonWriter;
+    private int depth;
+
+    JsonStreamWriter(GsonJsonify jsonify) {
+        this.jsonify = jsonify;
+    }
+
+    /**
+     * Starts writing the object to the given {@link JsonWriter}
+     */
+    void begin(JsonWriter jsonWriter) {
+        this.jsonWriter = jsonWriter;
+        try {
+            jsonWriter.beginObject();
+            depth++;
+        } catch (IOException e) {
+            throw new JsonIOException(e);
+        }
+    }
+
+    /**
+     * Ends any object that is still open
+     */
+    void end() {
+        while (depth > 0) {
+            endObject();
+        }
+        jsonWriter = null;
+    }
+
+    @Override
+    public void beginObject(String name) {
+        try {
+            jsonWriter.name(name).beginObject();
+            depth++;
+        } catch (IOException e) {
+            throw new JsonIOException(e);
+        }
+    }
+
+    @Override
+    public void endObject() {
+        try {
+            jsonWriter.endObject();
+            depth--;
+        } catch (IOException e) {
+            throw new JsonIOException(e);
+        }
+    }
+
+    @Override
+    public void put(String name, String value) {
+        try {
+            jsonWriter.name(name).value(value);
+        } catch (IOException e) {
+            throw new JsonIOException(e);
+        }
+    }
+
+    @Override
+    public void put(String name, int value) {
+        try {
+            jsonWriter.name(name).value(value);
+        } catch (IOException e) {
+            throw new JsonIOException(e);
+        }
+    }
+
+    @Override
+    public void put(String name, long value) {
+        try {
+            jsonWriter.name(name).value(value);
+        } catch (IOException e) {
+            throw new JsonIOException(e);
+        }
+    }
+
+    @Override
+    public void putJson(String name, String value) {
+        try {
+            JsonElement jsonElement = new JsonParser().parse(value);
+            jsonWriter.name(name);
+            jsonify.getGson().getAdapter(JsonElement.class).write(jsonWriter, jsonElement);
+        } catch (IOException e) {
+            throw new JsonIOException(e);
+        }
+    }
+
+    @Override
+    public void putValue(String name, Object value) {
+        try {
+            jsonWriter.name(name);
+            if (value == null) {
+                jsonWriter.nullValue();
+            } else {
+                jsonify.getGson().toJson(value, value.getClass(), jsonWriter);
+            }
+        } catch (IOException e) {
+            throw new JsonIOException(e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return toJson();
+    }
+}
@@ -0,0 +1,12 @@
+package rpcfy.json;
+
+import com.google.gson.TypeAdapterFactory;
+
+/**
+ * Implemented by the Gson {@link TypeAdapterFactory} generated by RPCfy for the types used by an @RPCfy interface.
+ * <p/>
+ * The generated factories are registered as {@link java.util.ServiceLoader} services, from which
+ * {@link GsonJsonify} picks them up.
+ */
+public interface RPCfyTypeAdapterFactory extends TypeAdapterFactory {
+}
@@ -0,0 +1,199 @@
+package rpcfy.jackson;
+
+import com.fasterxml.jackson.annotation.JsonAutoDetect;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.PropertyAccessor;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import rpcfy.JSONify;
+import rpcfy.RPCMessage;
+
+import java.io.IOException;
+import java.lang.reflect.Type;
+import java.nio.ByteBuffer;
+
+/**
+ * An implementation of {@link rpcfy.JSONify} using Jackson.
+ * <p/>
+ * The messages are written and read using the streaming {@link com.fasterxml.jackson.core.JsonGenerator} and
+ * {@link JsonParser}, and the {@link ObjectMapper} is used only to convert the parameters and results.
+ * By default the objects are converted using their fields, skipping the null values, like {@link rpcfy.json.GsonJsonify},
+ * so that this can talk to a remote using {@link rpcfy.json.GsonJsonify}.
+ * <p/>
+ * This is registered as a {@link java.util.ServiceLoader} service, so it becomes the default {@link JSONify}
+ * when this module is in the classpath.
+ *
+ * @see JSONify#getDefault()
+ */
+public class JacksonJsonify implements JSONify {
+
+    private final ObjectMapper objectMapper;
+    private final JsonFactory jsonFactory;
+
+    /**
+     * Creates an instance that converts the objects like {@link rpcfy.json.GsonJsonify}
+     */
+    public JacksonJsonify() {
+        this(newObjectMapper());
+    }
+
+    /**
+     * Creates an instance that converts the objects using the given {@link ObjectMapper}
+     */
+    public JacksonJsonify(ObjectMapper objectMapper) {
+        this.objectMapper = objectMapper;
+        this.jsonFactory = objectMapper.getFactory();
+    }
+
+    /**
+     * Returns a new {@link ObjectMapper} that converts the objects using their fields, skipping the null values
+     */
+    public static ObjectMapper newObjectMapper() {
+        ObjectMapper objectMapper = new ObjectMapper();
+        objectMapper.setVisibility(PropertyAccessor.ALL, JsonAutoDetect.Visibility.NONE);
+        objectMapper.setVisibility(PropertyAccessor.FIELD, JsonAutoDetect.Visibility.ANY);
+        objectMapper.setSerializationInclusion(JsonInclude.Include.NON_NULL);
+        objectMapper.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+        objectMapper.configure(SerializationFeature.FAIL_ON_EMPTY_BEANS, false);
+        return objectMapper;
+    }
+
+    /**
+     * Returns the {@link ObjectMapper} used to convert the objects
+     */
+    public ObjectMapper getObjectMapper() {
+        return objectMapper;
+    }
+
+    @Override
+    public JObject newJson() {
+        return new JacksonObject(objectMapper, objectMapper.createObjectNode());
+    }
+
+    @Override
+    public JElement toJson(Object object) {
+        return new JacksonObject(objectMapper, objectMapper.valueToTree(object));
+    }
+
+    @Override
+    public JElement fromJson(String json) {
+        return new JacksonObject(objectMapper, readTree(json));
+    }
+
+    @Override
+    public <T> T fromJSON(String json, Class<T> type) {
+        return fromJSON(json, (Type) type);
+    }
+
+    @Override
+    public <T> T fromJSON(String json, String parameter, Class<T> type) {
+        return fromJSON(json, parameter, (Type) type);
+    }
+
+    @Override
+    public <T> T fromJSON(String json, String parameter, Type type) {
+        return convert(readTree(json).get(parameter), type);
+    }
+
+    @Override
+    public <T> T fromJSON(String json, Type type) {
+        try {
+            return objectMapper.readValue(json, objectMapper.getTypeFactory().constructType(type));
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public String getJSONElement(String json, String parameter) {
+        JsonNode node = readTree(json).get(parameter);
+        return node != null ? JacksonObject.toJson(objectMapper, node) : null;
+    }
+
+    @Override
+    public JWriter newWriter() {
+        return new JacksonWriter(this);
+    }
+
+    /**
+     * Streams only the routing headers of the message, and parses the rest of it only if it gets accessed
+     */
+    @Override
+    public RPCMessage parseMessage(String message) {
+        return new JacksonStreamedMessage(this, message);
+    }
+
+    /**
+     * Parses the given UTF-8 message directly from the buffer, without creating the JSON string of the message
+     */
+    @Override
+    public RPCMessage parseMessage(ByteBuffer message) {
+        try {
+            JsonParser parser;
+            if (message.hasArray()) {
+                parser = jsonFactory.createParser(message.array(), message.arrayOffset() + message.position(), message.remaining());
+            } else {
+                byte[] bytes = new byte[message.remaining()];
+                message.duplicate().get(bytes);
+                parser = jsonFactory.createParser(bytes);
+            }
+            JsonNode node = objectMapper.readTree(parser);
+            if (node == null || !node.isObject()) {
+                throw new IOException("Not an RPC message");
+            }
+            return new RPCMessage(this, new JacksonObject(objectMapper, node));
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public JElement getElement(JElement element, String parameter) {
+        if (element instanceof JacksonObject) {
+            JsonNode node = ((JacksonObject) element).getNode().get(parameter);
+            return node != null && node.isObject() ? new JacksonObject(objectMapper, node) : null;
+        }
+        return JSONify.super.getElement(element, parameter);
+    }
+
+    @Override
+    public <T> T fromJSON(JElement element, String parameter, Type type) {
+        if (element instanceof JacksonObject) {
+            return convert(((JacksonObject) element).getNode().get(parameter), type);
+        }
+        return JSONify.super.fromJSON(element, parameter, type);
+    }
+
+    /**
+     * Returns the {@link JsonFactory} to create the streaming parsers and generators
+     */
+    JsonFactory getJsonFactory() {
+        return jsonFactory;
+    }
+
+    /**
+     * Parses the given json into a tree
+     */
+    JsonNode readTree(String json) {
+        try {
+            return objectMapper.readTree(json);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private <T> T convert(JsonNode node, Type type) {
+        if (node == null) {
+            return null;
+        }
+        try {
+            return objectMapper.readValue(objectMapper.treeAsTokens(node), objectMapper.getTypeFactory().constructType(type));
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package rpcfy.jackson;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import rpcfy.JSONify;
+
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Implementation of {@link rpcfy.JSONify.JObject} over a Jackson {@link JsonNode}
+ */
+class JacksonObject implements JSONify.JObject {
+
+    private final ObjectMapper objectMapper;
+    private final JsonNode node;
+
+    JacksonObject(ObjectMapper objectMapper, JsonNode node) {
+        this.objectMapper = objectMapper;
+        this.node = node;
+    }
+
+    /**
+     * Returns the {@link JsonNode} this wraps
+     */
+    JsonNode getNode() {
+        return node;
+    }
+
+    @Override
+    public String toJson() {
+        return toJson(objectMapper, node);
+    }
+
+    @Override
+    public String toString() {
+        return toJson();
+    }
+
+    @Override
+    public Set<String> getKeys() {
+        if (!node.isObject()) {
+            return null;
+        }
+        Set<String> keys = new LinkedHashSet<>();
+        for (Iterator<String> names = node.fieldNames(); names.hasNext(); ) {
+            keys.add(names.next());
+        }
+        return keys;
+    }
+
+    @Override
+    public String getJsonValue(String parameter) {
+        JsonNode value = node.get(parameter);
+        return value != null ? toJson(objectMapper, value) : null;
+    }
+
+    @Override
+    public String getStringValue(String parameter) {
+        JsonNode value = node.get(parameter);
+        if (value == null) {
+            return null;
+        }
+        return value.isValueNode() ? value.asText() : toJson(objectMapper, value);
+    }
+
+    @Override
+    public void putJson(String name, String value) {
+        getObjectNode().set(name, JacksonWriter.parseLenient(objectMapper, value));
+    }
+
+    @Override
+    public void put(String name, String value) {
+        getObjectNode().put(name, value);
+    }
+
+    @Override
+    public void put(String name, int value) {
+        getObjectNode().put(name, value);
+    }
+
+    @Override
+    public void put(String name, JSONify.JElement value) {
+        if (value instanceof JacksonObject) {
+            getObjectNode().set(name, ((JacksonObject) value).node);
+        } else {
+            putJson(name, value.toJson());
+        }
+    }
+
+    private ObjectNode getObjectNode() {
+        if (!node.isObject()) {
+            throw new IllegalStateException("Not a JSON object");
+        }
+        return (ObjectNode) node;
+    }
+
+    /**
+     * Returns the JSON of the given node
+     */
+    static String toJson(ObjectMapper objectMapper, JsonNode node) {
+        try {
+            return objectMapper.writeValueAsString(node);
+        } catch (JsonProcessingException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package rpcfy.jackson;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import rpcfy.JSONify;
+import rpcfy.RPCMessage;
+
+import java.io.IOException;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * An {@link RPCMessage} whose routing headers are read using a streaming {@link JsonParser}.
+ * <p/>
+ * The params, result and any other values are skipped without being materialized, and the message is
+ * parsed into a tree only when its body is accessed.
+ */
+class JacksonStreamedMessage extends RPCMessage {
+
+    private final JacksonJsonify jsonify;
+    private JSONify.JElement element;
+
+    JacksonStreamedMessage(JacksonJsonify jsonify, String message) {
+        super(jsonify, message);
+        this.jsonify = jsonify;
+        Set<String> keys = new LinkedHashSet<>();
+        try (JsonParser parser = jsonify.getJsonFactory().createParser(message)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new IOException("Not an RPC message");
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String key = parser.getCurrentName();
+                keys.add(key);
+                JsonToken token = parser.nextToken();
+                if (isHeader(key)) {
+                    setHeader(key, readHeaderValue(parser, token));
+                } else {
+                    parser.skipChildren();
+                }
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        setKeys(keys);
+    }
+
+    @Override
+    public JSONify.JElement getElement() {
+        if (element == null) {
+            element = new JacksonObject(jsonify.getObjectMapper(), jsonify.readTree(getMessage()));
+        }
+        return element;
+    }
+
+    private static String readHeaderValue(JsonParser parser, JsonToken token) throws IOException {
+        switch (token) {
+            case VALUE_STRING:
+            case VALUE_NUMBER_INT:
+            case VALUE_NUMBER_FLOAT:
+            case VALUE_TRUE:
+            case VALUE_FALSE:
+                return parser.getText();
+            case VALUE_NULL:
+                return null;
+            default:
+                parser.skipChildren();
+                return null;
+        }
+    }
+}
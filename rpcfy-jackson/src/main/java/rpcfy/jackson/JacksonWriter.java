@@ -0,0 +1,147 @@
+package rpcfy.jackson;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.util.ByteArrayBuilder;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.TextNode;
+import rpcfy.JSONify;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A {@link rpcfy.JSONify.JWriter} that streams the object as UTF-8 JSON using a Jackson {@link JsonGenerator}
+ */
+final class JacksonWriter implements JSONify.JWriter {
+
+    private final ObjectMapper objectMapper;
+    private final ByteArrayBuilder output = new ByteArrayBuilder(1024);
+    private JsonGenerator generator;
+    private int depth;
+    private byte[] bytes;
+
+    JacksonWriter(JacksonJsonify jsonify) {
+        this.objectMapper = jsonify.getObjectMapper();
+        try {
+            generator = jsonify.getJsonFactory().createGenerator(output, JsonEncoding.UTF8);
+            generator.writeStartObject();
+            depth++;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public void beginObject(String name) {
+        try {
+            generator.writeObjectFieldStart(name);
+            depth++;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public void endObject() {
+        try {
+            generator.writeEndObject();
+            depth--;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public void put(String name, String value) {
+        try {
+            generator.writeStringField(name, value);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public void put(String name, int value) {
+        try {
+            generator.writeNumberField(name, value);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public void put(String name, long value) {
+        try {
+            generator.writeNumberField(name, value);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public void putJson(String name, String value) {
+        try {
+            generator.writeFieldName(name);
+            objectMapper.writeTree(generator, parseLenient(objectMapper, value));
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public void putValue(String name, Object value) {
+        try {
+            generator.writeFieldName(name);
+            if (value == null) {
+                generator.writeNull();
+            } else {
+                objectMapper.writeValue(generator, value);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public byte[] toBytes() {
+        if (bytes == null) {
+            try {
+                while (depth > 0) {
+                    generator.writeEndObject();
+                    depth--;
+                }
+                generator.close();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+            bytes = output.toByteArray();
+            output.release();
+            generator = null;
+        }
+        return bytes;
+    }
+
+    @Override
+    public String toJson() {
+        return new String(toBytes(), StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public String toString() {
+        return toJson();
+    }
+
+    /**
+     * Parses the given json, which is taken as a string if it is not valid json, like the lenient parsing of Gson
+     */
+    static JsonNode parseLenient(ObjectMapper objectMapper, String json) {
+        try {
+            JsonNode node = objectMapper.readTree(json);
+            return node != null ? node : TextNode.valueOf(json);
+        } catch (IOException e) {
+            return TextNode.valueOf(json);
+        }
+    }
+}
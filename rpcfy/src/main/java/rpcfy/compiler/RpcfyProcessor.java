@@ -22,7 +22,7 @@ import net.ltgt.gradle.incap.IncrementalAnnotationProcessor;
 import rpcfy.annotations.RPCfy;
 import rpcfy.compiler.builder.BindingManager;
 
-import static net.ltgt.gradle.incap.IncrementalAnnotationProcessorType.ISOLATING;
+import static net.ltgt.gradle.incap.IncrementalAnnotationProcessorType.AGGREGATING;
 
 /**
  * AnnotationProcessor that processes the @{@link RPCfy} annotations and
@@ -31,7 +31,7 @@ import static net.ltgt.gradle.incap.IncrementalAnnotationProcessorType.ISOLATING
  * @author js
  */
 @AutoService(Processor.class)
-@IncrementalAnnotationProcessor(ISOLATING)
+@IncrementalAnnotationProcessor(AGGREGATING)
 public class RpcfyProcessor extends AbstractProcessor {
 
     private BindingManager bindingManager;
@@ -74,10 +74,15 @@ public class RpcfyProcessor extends AbstractProcessor {
             if (element.getKind() == ElementKind.INTERFACE) {
                 bindingManager.generateProxy(element);
                 bindingManager.generateStub(element);
+                bindingManager.generateTypeAdapterFactory(element);
             } else {
                 messager.printMessage(Diagnostic.Kind.WARNING, "@RPCfy is expected only for interface. Ignoring " + element.getSimpleName());
             }
         }
+        if (env.processingOver()) {
+            //a single service file lists the TypeAdapterFactories of all the interfaces, so this is aggregating
+            bindingManager.generateTypeAdapterFactoryServices();
+        }
         return false;
     }
 }
@@ -1,6 +1,11 @@
 package rpcfy.compiler.builder;
 
 
+import java.io.IOException;
+import java.io.Writer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
 import javax.annotation.processing.Filer;
 import javax.annotation.processing.Messager;
 import javax.lang.model.element.Element;
@@ -10,8 +15,11 @@ import javax.lang.model.type.TypeMirror;
 import javax.lang.model.util.Elements;
 import javax.lang.model.util.Types;
 import javax.tools.Diagnostic;
+import javax.tools.FileObject;
+import javax.tools.StandardLocation;
 
 import rpcfy.annotations.RPCfy;
+import rpcfy.json.RPCfyTypeAdapterFactory;
 
 import static javax.lang.model.type.TypeKind.DECLARED;
 
@@ -25,6 +33,7 @@ public final class BindingManager {
     private Messager messager;
     private Types typeUtils;
     private Filer filer;
+    private final Map<String, Element> typeAdapterFactories = new LinkedHashMap<>();
 
 
     /**
@@ -66,6 +75,49 @@ public final class BindingManager {
     }
 
 
+    /**
+     * Generates the Gson TypeAdapterFactory for the types used by the given @{@link RPCfy} interface element, if there are any
+     */
+    public void generateTypeAdapterFactory(Element element) {
+        try {
+            TypeAdapterBuilder typeAdapterBuilder = getTypeAdapterBuilder(element);
+            if (typeAdapterBuilder.hasTypeAdapters()) {
+                typeAdapterBuilder
+                        .buildTypeAdapterFactoryClass()
+                        .build()
+                        .writeTo(filer);
+                typeAdapterFactories.put(typeAdapterBuilder.getTypeAdapterFactoryClassName().reflectionName(), element);
+            }
+        } catch (Exception ex) {
+            messager.printMessage(Diagnostic.Kind.WARNING, "Error while generating TypeAdapterFactory " + ex.getMessage());
+        }
+    }
+
+
+    /**
+     * Registers the generated Gson TypeAdapterFactories as {@link RPCfyTypeAdapterFactory} services, so that
+     * GsonJsonify finds them
+     */
+    public void generateTypeAdapterFactoryServices() {
+        if (typeAdapterFactories.isEmpty()) {
+            return;
+        }
+        String resourceName = "META-INF/services/" + RPCfyTypeAdapterFactory.class.getName();
+        Element[] originatingElements = typeAdapterFactories.values().toArray(new Element[0]);
+        try {
+            FileObject resource = filer.createResource(StandardLocation.CLASS_OUTPUT, "", resourceName, originatingElements);
+            try (Writer writer = resource.openWriter()) {
+                for (String factoryClassName : typeAdapterFactories.keySet()) {
+                    writer.write(factoryClassName);
+                    writer.write("\n");
+                }
+            }
+        } catch (IOException ex) {
+            messager.printMessage(Diagnostic.Kind.WARNING, "Error while registering TypeAdapterFactories " + ex.getMessage());
+        }
+    }
+
+
     /**
      * Returns the {@link ClassBuilder} that generates the Builder for the Proxy and Stub classes
      */
@@ -93,6 +145,23 @@ public final class BindingManager {
         return methodBuilder;
     }
 
+    /**
+     * Returns the {@link TypeAdapterBuilder} that generates the Gson TypeAdapterFactory
+     */
+    TypeAdapterBuilder getTypeAdapterBuilder(Element element) {
+        TypeAdapterBuilder typeAdapterBuilder = new TypeAdapterBuilder(messager, element);
+        typeAdapterBuilder.setBindingManager(this);
+        return typeAdapterBuilder;
+    }
+
+    Elements getElementUtils() {
+        return elementUtils;
+    }
+
+    Types getTypeUtils() {
+        return typeUtils;
+    }
+
     boolean isParameterOfTypeTPCfy(TypeMirror typeMirror) {
         if (typeMirror.getKind() == DECLARED) {
             String typeName = typeMirror.toString();
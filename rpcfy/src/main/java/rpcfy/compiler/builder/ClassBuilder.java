@@ -18,7 +18,6 @@ import rpcfy.JSONify;
 import rpcfy.JsonRPCMessageHandler;
 import rpcfy.RPCProxy;
 import rpcfy.RPCStub;
-import rpcfy.json.GsonJsonify;
 
 
 /**
@@ -58,7 +57,7 @@ class ClassBuilder extends RpcfyBuilder {
                 .addJavadoc("Initialize this {@link " + getProxyClassName().simpleName() + "} with the given {@link JsonRPCMessageHandler}\n\n")
                 .addJavadoc("@param rpcHandler A {@link JsonRPCMessageHandler} to send the generated JSONRPC messages\n")
                 .addParameter(JsonRPCMessageHandler.class, "rpcHandler")
-                .addStatement("this(rpcHandler, new $T())", GsonJsonify.class)
+                .addStatement("this(rpcHandler, rpcHandler.getJSONify())")
                 .build());
         //constructor
         proxyClassBuilder.addMethod(MethodSpec.constructorBuilder()
@@ -133,7 +132,7 @@ class ClassBuilder extends RpcfyBuilder {
                 .addJavadoc("@param service An implementation of {@link " + getRemoterInterfaceClassName() + "}\n")
                 .addParameter(JsonRPCMessageHandler.class, "rpcHandler")
                 .addParameter(TypeName.get(getRemoterInterfaceElement().asType()), "service")
-                .addStatement("this(rpcHandler, service, new $T())", GsonJsonify.class)
+                .addStatement("this(rpcHandler, service, rpcHandler.getJSONify())")
                 .build());
         //constructor
         stubClassBuilder.addMethod(MethodSpec.constructorBuilder()
@@ -9,7 +9,6 @@ import com.squareup.javapoet.TypeSpec;
 
 import java.util.Map;
 import java.util.WeakHashMap;
-import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.annotation.processing.Messager;
 import javax.lang.model.element.Element;
@@ -37,10 +36,6 @@ class FieldBuilder extends RpcfyBuilder {
                 .addModifiers(Modifier.PRIVATE).build());
         classBuilder.addField(FieldSpec.builder(JSONify.class, "jsonify")
                 .addModifiers(Modifier.PRIVATE).build());
-        classBuilder.addField(FieldSpec.builder(AtomicInteger.class, "idGenerator")
-                .addModifiers(Modifier.PRIVATE)
-                .initializer("new AtomicInteger(0)")
-                .build());
         classBuilder.addField(FieldSpec.builder(Integer.class, "remoteID")
                 .addModifiers(Modifier.PRIVATE).build());
         classBuilder.addField(FieldSpec.builder(Integer.class, "remoteHandlerID")
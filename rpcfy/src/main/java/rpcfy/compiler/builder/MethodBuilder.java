@@ -3,17 +3,27 @@ package rpcfy.compiler.builder;
 import com.google.gson.reflect.TypeToken;
 import com.squareup.javapoet.*;
 import rpcfy.*;
+import rpcfy.annotations.RPCfy;
 import rpcfy.annotations.RPCfyNotSupported;
+import rpcfy.annotations.RPCfyNotification;
+import rpcfy.json.BinarySchemaReader;
+import rpcfy.json.BinarySchemaWriter;
 
 import javax.annotation.processing.Messager;
 import javax.lang.model.element.Element;
 import javax.lang.model.element.ExecutableElement;
 import javax.lang.model.element.Modifier;
 import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.ArrayType;
+import javax.lang.model.type.DeclaredType;
 import javax.lang.model.type.TypeKind;
 import javax.lang.model.type.TypeMirror;
+import javax.lang.model.type.WildcardType;
 import java.lang.reflect.Type;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Function;
 
 
 /**
@@ -21,8 +31,146 @@ import java.util.*;
  */
 class MethodBuilder extends RpcfyBuilder {
 
+    static final String ASYNC_SUFFIX = "Async";
+
+    private Map<String, String> genericTypeFields = new HashMap<>();
+    private final boolean schemaEncoding;
+
     protected MethodBuilder(Messager messager, Element element) {
         super(messager, element);
+        RPCfy rpcfy = element != null ? element.getAnnotation(RPCfy.class) : null;
+        schemaEncoding = rpcfy != null && rpcfy.schemaEncoding();
+    }
+
+    /**
+     * Returns the suffix of the {@link BinarySchemaWriter} and {@link BinarySchemaReader} methods for the given type,
+     * or null if it is written as an object
+     */
+    private String getSchemaType(TypeMirror typeMirror) {
+        switch (typeMirror.getKind()) {
+            case BOOLEAN:
+                return "Boolean";
+            case BYTE:
+                return "Byte";
+            case CHAR:
+                return "Char";
+            case SHORT:
+                return "Short";
+            case INT:
+                return "Int";
+            case LONG:
+                return "Long";
+            case FLOAT:
+                return "Float";
+            case DOUBLE:
+                return "Double";
+            case DECLARED:
+                return typeMirror.toString().equals(String.class.getName()) ? "String" : null;
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Adds the statement that writes the given value using a {@link BinarySchemaWriter}
+     */
+    private void addSchemaWrite(MethodSpec.Builder methodBuilder, String writer, TypeMirror typeMirror, String value) {
+        String schemaType = getSchemaType(typeMirror);
+        if (schemaType != null) {
+            methodBuilder.addStatement(writer + ".write" + schemaType + "(" + value + ")");
+        } else {
+            methodBuilder.addStatement(writer + ".writeObject(" + value + ")");
+        }
+    }
+
+    /**
+     * Returns the code that reads a value of given type using a {@link BinarySchemaReader}
+     */
+    private CodeBlock getSchemaRead(TypeSpec.Builder classBuilder, String reader, TypeMirror typeMirror) {
+        String schemaType = getSchemaType(typeMirror);
+        if (schemaType != null) {
+            return CodeBlock.of(reader + ".read" + schemaType + "()");
+        } else if (typeMirror.getKind() == TypeKind.DECLARED) {
+            return CodeBlock.of(reader + ".readObject($L)", getGenericType(classBuilder, typeMirror));
+        } else {
+            return CodeBlock.of(reader + ".readObject($T.class)", typeMirror);
+        }
+    }
+
+    /**
+     * Returns the code that gives the {@link Type} of the given declared type.
+     * <p>
+     * The type is resolved once into a static field of the class, shared by all the methods that uses the same type,
+     * unless it refers to a type variable.
+     */
+    private CodeBlock getGenericType(TypeSpec.Builder classBuilder, TypeMirror typeMirror) {
+        String typeName = typeMirror.toString();
+        CodeBlock typeToken = CodeBlock.of("new $T<" + typeName + ">(){}.getType()", TypeToken.class);
+        if (hasTypeVariable(typeMirror)) {
+            return typeToken;
+        }
+        String fieldName = genericTypeFields.get(typeName);
+        if (fieldName == null) {
+            fieldName = "GENERIC_TYPE_" + genericTypeFields.size();
+            genericTypeFields.put(typeName, fieldName);
+            classBuilder.addField(FieldSpec.builder(Type.class, fieldName)
+                    .addModifiers(Modifier.PRIVATE, Modifier.STATIC, Modifier.FINAL)
+                    .initializer(typeToken)
+                    .build());
+        }
+        return CodeBlock.of("$L", fieldName);
+    }
+
+    /**
+     * Returns whether the given type refers to any type variable
+     */
+    private boolean hasTypeVariable(TypeMirror typeMirror) {
+        switch (typeMirror.getKind()) {
+            case TYPEVAR:
+                return true;
+            case ARRAY:
+                return hasTypeVariable(((ArrayType) typeMirror).getComponentType());
+            case WILDCARD:
+                WildcardType wildcardType = (WildcardType) typeMirror;
+                return (wildcardType.getExtendsBound() != null && hasTypeVariable(wildcardType.getExtendsBound()))
+                        || (wildcardType.getSuperBound() != null && hasTypeVariable(wildcardType.getSuperBound()));
+            case DECLARED:
+                for (TypeMirror typeArgument : ((DeclaredType) typeMirror).getTypeArguments()) {
+                    if (hasTypeVariable(typeArgument)) {
+                        return true;
+                    }
+                }
+                return false;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Returns the {@link RPCfyNotification} of the given method, or null if it is not called as a notification
+     */
+    private RPCfyNotification getNotification(Element member) {
+        RPCfyNotification notification = member.getAnnotation(RPCfyNotification.class);
+        if (notification != null && ((ExecutableElement) member).getReturnType().getKind() != TypeKind.VOID) {
+            return null;
+        }
+        return notification;
+    }
+
+    /**
+     * Returns whether any method of the interface is called as a notification
+     */
+    private boolean hasNotifications() {
+        final boolean[] hasNotifications = new boolean[1];
+        processRemoterElements(null, new ElementVisitor() {
+            @Override
+            public void visitElement(TypeSpec.Builder classBuilder, Element member, int methodIndex, MethodSpec.Builder methodBuilder) {
+                if (getNotification(member) != null) {
+                    hasNotifications[0] = true;
+                }
+            }
+        }, null);
+        return hasNotifications[0];
     }
 
     /**
@@ -58,31 +206,77 @@ class MethodBuilder extends RpcfyBuilder {
         }
 
         //add parameters
-        int paramIndex = 0;
-        for (VariableElement params : executableElement.getParameters()) {
-            methodBuilder.addParameter(TypeName.get(params.asType()), params.getSimpleName().toString() + "_" + paramIndex);
-            paramIndex++;
-        }
+        addProxyParameters(methodBuilder, executableElement);
 
         boolean rpcNotSupported = member.getAnnotation(RPCfyNotSupported.class) != null;
+        if (member.getAnnotation(RPCfyNotification.class) != null && !isOneWay) {
+            logError("@RPCfyNotification is only supported for void methods, ignoring it for " + methodName);
+        }
+        RPCfyNotification notification = getNotification(member);
 
         if (rpcNotSupported) {
             methodBuilder.addStatement("throw new $T(\"Method '" + methodName + "' does not support RPC call\")", RPCNotSupportedException.class);
             classBuilder.addMethod(methodBuilder.build());
+            addAsyncProxyMethod(classBuilder, executableElement, methodIndex, true);
             return;
         }
 
-        methodBuilder.addStatement(getRemoterInterfaceClassName() + " methodDelegate = (" + getRemoterInterfaceClassName() + ")rpcHandler.getMethodDelegate(new $T(" + getRemoterInterfaceClassName() + ".class, METHOD_" + methodName + "_" + methodIndex + ", null))", RPCMethodDelegate.class);
+        methodBuilder.addStatement(getRemoterInterfaceClassName() + " methodDelegate = (" + getRemoterInterfaceClassName() + ")rpcHandler.getMethodDelegate(" + getRemoterInterfaceClassName() + ".class, METHOD_" + methodName + "_" + methodIndex + ")");
         methodBuilder.beginControlFlow("if (methodDelegate != null)");
         methodBuilder.beginControlFlow("try");
-        StringBuilder delegateCall = new StringBuilder();
-        if (!isOneWay) {
-            delegateCall.append("return ");
+        String delegateCall = getDelegateCall(executableElement);
+        if (isOneWay) {
+            methodBuilder.addStatement(delegateCall);
+            methodBuilder.addStatement("return");
+        } else {
+            methodBuilder.addStatement("return " + delegateCall);
+        }
+        methodBuilder.endControlFlow();
+        methodBuilder.beginControlFlow("catch($T delegateException)", RPCMethodDelegate.DelegateIgnoreException.class);
+        methodBuilder.endControlFlow();
+        methodBuilder.endControlFlow();
+
+        addRequestWrite(methodBuilder, executableElement, methodIndex, notification != null);
+
+        if (notification != null) {
+            methodBuilder.addStatement("rpcHandler.sendNotification(jsonRPCWriter, super.hashCode(), " + (notification.ackErrors() ? "this" : "null") + ")");
+        } else if (isOneWay) {
+            methodBuilder.addStatement("rpcHandler.sendMessage(jsonRPCWriter, $S, METHOD_" + methodName + "_" + methodIndex + ", rpcCallId, this)", getRemteInterfaceFQName());
+        } else {
+            methodBuilder.addStatement("$T result", RPCMessage.class);
+            methodBuilder.addStatement("result = rpcHandler.sendRequest(jsonRPCWriter, $S, METHOD_" + methodName + "_" + methodIndex + ", rpcCallId)", getRemteInterfaceFQName());
+            methodBuilder.addStatement("return " + getResultDecoderName(executableElement, methodIndex) + "(result)");
         }
+
+        classBuilder.addMethod(methodBuilder.build());
+
+        addRequestWriter(classBuilder, executableElement, methodIndex, notification != null);
+        if (notification == null) {
+            addResultDecoder(classBuilder, executableElement, methodIndex);
+        }
+        addAsyncProxyMethod(classBuilder, executableElement, methodIndex, false);
+    }
+
+    /**
+     * Adds the parameters of the given method to the proxy method
+     */
+    private void addProxyParameters(MethodSpec.Builder methodBuilder, ExecutableElement executableElement) {
+        int paramIndex = 0;
+        for (VariableElement params : executableElement.getParameters()) {
+            methodBuilder.addParameter(TypeName.get(params.asType()), params.getSimpleName().toString() + "_" + paramIndex);
+            paramIndex++;
+        }
+    }
+
+    /**
+     * Returns the call to the given method on the methodDelegate
+     */
+    private String getDelegateCall(ExecutableElement executableElement) {
+        StringBuilder delegateCall = new StringBuilder();
         delegateCall.append("methodDelegate.");
-        delegateCall.append(methodName);
+        delegateCall.append(executableElement.getSimpleName());
         delegateCall.append("(");
-        paramIndex = 0;
+        int paramIndex = 0;
         int totalParams = executableElement.getParameters().size();
         for (VariableElement params : executableElement.getParameters()) {
             delegateCall.append(params.getSimpleName().toString() + "_" + paramIndex);
@@ -92,42 +286,92 @@ class MethodBuilder extends RpcfyBuilder {
             }
         }
         delegateCall.append(")");
-        methodBuilder.addStatement(delegateCall.toString());
-        if (isOneWay) {
-            methodBuilder.addStatement("return");
+        return delegateCall.toString();
+    }
+
+    private String getRequestWriterName(ExecutableElement executableElement, int methodIndex) {
+        return "write_" + executableElement.getSimpleName() + "_" + methodIndex;
+    }
+
+    /**
+     * Adds the statements that write the request for the given method into jsonRPCWriter, with a new rpcCallId
+     * unless it is a notification
+     */
+    private void addRequestWrite(MethodSpec.Builder methodBuilder, ExecutableElement executableElement, int methodIndex, boolean notification) {
+        StringBuilder writerCall = new StringBuilder(getRequestWriterName(executableElement, methodIndex)).append("(");
+        int paramIndex = 0;
+        for (VariableElement param : executableElement.getParameters()) {
+            writerCall.append(param.getSimpleName()).append("_").append(paramIndex).append(", ");
+            paramIndex++;
         }
-        methodBuilder.endControlFlow();
-        methodBuilder.beginControlFlow("catch($T delegateException)", RPCMethodDelegate.DelegateIgnoreException.class);
-        methodBuilder.endControlFlow();
-        methodBuilder.endControlFlow();
+        if (!notification) {
+            methodBuilder.addStatement("long rpcCallId = rpcHandler.newCallId()");
+            writerCall.append("rpcCallId");
+        } else if (paramIndex > 0) {
+            writerCall.setLength(writerCall.length() - 2);
+        }
+        writerCall.append(")");
+        methodBuilder.addStatement("$T jsonRPCWriter = " + writerCall, JSONify.JWriter.class);
+    }
 
-        //methodBuilder.beginControlFlow("try");
+    /**
+     * Adds the proxy method that writes the request for the given method, without an id if it is a notification.
+     * It is shared by the blocking and the asynchronous proxy methods.
+     */
+    private void addRequestWriter(TypeSpec.Builder classBuilder, ExecutableElement executableElement, int methodIndex, boolean notification) {
+        String methodName = executableElement.getSimpleName().toString();
+        MethodSpec.Builder methodBuilder = MethodSpec.methodBuilder(getRequestWriterName(executableElement, methodIndex))
+                .addModifiers(Modifier.PRIVATE)
+                .returns(JSONify.JWriter.class);
+        addProxyParameters(methodBuilder, executableElement);
+        if (!notification) {
+            methodBuilder.addParameter(long.class, "rpcCallId");
+        }
 
         methodBuilder
-                .addStatement("$T jsonRPCObject = jsonify.newJson()", JSONify.JObject.class);
+                .addStatement("$T jsonRPCWriter = jsonify.newWriter()", JSONify.JWriter.class);
         methodBuilder.addStatement("String interfaceName = \"" + getRemteInterfaceFQName() + "\"");
         methodBuilder.addStatement("int methodID = METHOD_" + methodName + "_" + methodIndex);
-        methodBuilder.addStatement("int rpcCallId = idGenerator.incrementAndGet()");
         methodBuilder.addStatement("int proxyInstanceId = super.hashCode()");
 
-        methodBuilder.addStatement("jsonRPCObject.put(\"jsonrpc\", \"2.0\")");
-        methodBuilder.addStatement("jsonRPCObject.put(\"method\", \"" + methodName + "\")");
-        methodBuilder.addStatement("jsonRPCObject.put(\"interface\", interfaceName )");
-        methodBuilder.addStatement("jsonRPCObject.put(\"method_id\", methodID)");
-        methodBuilder.addStatement("jsonRPCObject.put(\"ins_id\", proxyInstanceId)");
-        methodBuilder.addStatement("jsonRPCObject.put(\"handler_id\", rpcHandler.hashCode())");
+        methodBuilder.addStatement("jsonRPCWriter.put(\"jsonrpc\", \"2.0\")");
+        methodBuilder.addStatement("jsonRPCWriter.put(\"method\", \"" + methodName + "\")");
+        methodBuilder.addStatement("jsonRPCWriter.put(\"interface\", interfaceName )");
+        methodBuilder.addStatement("jsonRPCWriter.put(\"method_id\", methodID)");
+        methodBuilder.addStatement("jsonRPCWriter.put(\"ins_id\", proxyInstanceId)");
+        methodBuilder.addStatement("jsonRPCWriter.put(\"handler_id\", rpcHandler.hashCode())");
         methodBuilder.beginControlFlow("if (remoteHandlerID != null)");
-        methodBuilder.addStatement("jsonRPCObject.put(\"r_handler_id\", remoteHandlerID)");
+        methodBuilder.addStatement("jsonRPCWriter.put(\"r_handler_id\", remoteHandlerID)");
         methodBuilder.endControlFlow();
         methodBuilder.beginControlFlow("if (remoteID != null)");
-        methodBuilder.addStatement("jsonRPCObject.put(\"remote_id\", remoteID)");
+        methodBuilder.addStatement("jsonRPCWriter.put(\"remote_id\", remoteID)");
         methodBuilder.endControlFlow();
+        if (!notification) {
+            methodBuilder.addStatement("jsonRPCWriter.put(\"id\", rpcCallId)");
+        }
 
-        methodBuilder.addStatement("JSONify.JObject paramsObject = jsonify.newJson()");
+        methodBuilder.addStatement("$T<String, String> _jsonrpc_req_extras = rpcHandler.getExtras()", Map.class);
+        methodBuilder.beginControlFlow("if (_jsonrpc_req_extras != null)");
+        methodBuilder.beginControlFlow("for (Map.Entry<String, String> entry : _jsonrpc_req_extras.entrySet())");
+        methodBuilder.addStatement("jsonRPCWriter.putJson(entry.getKey(), entry.getValue())");
+        methodBuilder.endControlFlow();
+        methodBuilder.endControlFlow();
 
+        methodBuilder.beginControlFlow("if (this.customExtras != null)");
+        methodBuilder.beginControlFlow("for (Map.Entry<String, String> entry : this.customExtras.entrySet())");
+        methodBuilder.addStatement("jsonRPCWriter.putJson(entry.getKey(), entry.getValue())");
+        methodBuilder.endControlFlow();
+        methodBuilder.endControlFlow();
+
+        //params are written last, so that the headers can be read without going through them
+        if (schemaEncoding) {
+            methodBuilder.addStatement("$T paramsWriter = new $T(jsonify)", BinarySchemaWriter.class, BinarySchemaWriter.class);
+        } else {
+            methodBuilder.addStatement("jsonRPCWriter.beginObject(\"params\")");
+        }
 
         //pass parameters
-        paramIndex = 0;
+        int paramIndex = 0;
         for (VariableElement param : executableElement.getParameters()) {
 
             String paramName = param.getSimpleName().toString();
@@ -146,98 +390,247 @@ class MethodBuilder extends RpcfyBuilder {
                 methodBuilder.addStatement("rpcHandler.registerStub(" + stubName + ")");
                 methodBuilder.endControlFlow();
 
-                methodBuilder.addStatement("paramsObject.put(\"" + paramName + "\", " + paramName + "_" + paramIndex + ".hashCode())");
+                if (!schemaEncoding) {
+                    methodBuilder.addStatement("jsonRPCWriter.put(\"" + paramName + "\", " + paramNameWithIndex + ".hashCode())");
+                }
                 methodBuilder.endControlFlow();
+                if (schemaEncoding) {
+                    methodBuilder.addStatement("paramsWriter.writeInteger(" + paramNameWithIndex + " != null ? " + paramNameWithIndex + ".hashCode() : null)");
+                }
 
 
+            } else if (schemaEncoding) {
+                addSchemaWrite(methodBuilder, "paramsWriter", param.asType(), paramName + "_" + paramIndex);
             } else {
-                methodBuilder.addStatement("paramsObject.put(\"" + paramName + "\", jsonify.toJson(" + paramName + "_" + paramIndex + "))");
+                methodBuilder.addStatement("jsonRPCWriter.putValue(\"" + paramName + "\", " + paramName + "_" + paramIndex + ")");
             }
             paramIndex++;
         }
 
+        if (schemaEncoding) {
+            methodBuilder.addStatement("jsonRPCWriter.putBytes(\"params\", paramsWriter.toBytes())");
+        } else {
+            methodBuilder.addStatement("jsonRPCWriter.endObject()");
+        }
+        methodBuilder.addStatement("return jsonRPCWriter");
+        classBuilder.addMethod(methodBuilder.build());
+    }
 
-        methodBuilder.addStatement("jsonRPCObject.put(\"params\", paramsObject)");
-        methodBuilder.addStatement("jsonRPCObject.put(\"id\", rpcCallId)");
+    private String getResultDecoderName(ExecutableElement executableElement, int methodIndex) {
+        return "decode_" + executableElement.getSimpleName() + "_" + methodIndex;
+    }
 
-        methodBuilder.addStatement("$T<String, String> _jsonrpc_req_extras = rpcHandler.getExtras()", Map.class);
-        methodBuilder.beginControlFlow("if (_jsonrpc_req_extras != null)");
-        methodBuilder.beginControlFlow("for (String key:_jsonrpc_req_extras.keySet())");
-        methodBuilder.addStatement("jsonRPCObject.putJson(key, _jsonrpc_req_extras.get(key))");
-        methodBuilder.endControlFlow();
-        methodBuilder.endControlFlow();
+    /**
+     * Adds the proxy method that returns the result of the given method from its response, or throws its error
+     */
+    private void addResultDecoder(TypeSpec.Builder classBuilder, ExecutableElement executableElement, int methodIndex) {
+        MethodSpec.Builder methodBuilder = MethodSpec.methodBuilder(getResultDecoderName(executableElement, methodIndex))
+                .addModifiers(Modifier.PRIVATE)
+                .returns(TypeName.get(executableElement.getReturnType()))
+                .addParameter(RPCMessage.class, "result");
 
-        methodBuilder.beginControlFlow("if (this.customExtras != null)");
-        methodBuilder.beginControlFlow("for (String key:this.customExtras.keySet())");
-        methodBuilder.addStatement("jsonRPCObject.putJson(key, this.customExtras.get(key))");
-        methodBuilder.endControlFlow();
+        for (TypeMirror exceptions : executableElement.getThrownTypes()) {
+            methodBuilder.addException(ClassName.bestGuess(exceptions.toString()));
+        }
+
+        methodBuilder.addStatement("JSONify.JElement exception = result.getError()");
+        methodBuilder.beginControlFlow("if (exception != null)");
+
+        methodBuilder.addStatement("String exceptionClassName = jsonify.fromJSON(exception, \"exception\", String.class)");
+        methodBuilder.addStatement("String exceptionMessage = jsonify.fromJSON(exception, \"message\", String.class)");
+        int exceptionIndex = 0;
+        for (TypeMirror exceptions : executableElement.getThrownTypes()) {
+            methodBuilder.addStatement(exceptions.toString() + " exception_" + exceptionIndex + " = JsonRPCMessageHandler.asException(exceptionClassName, exceptionMessage, " + exceptions.toString() + ".class)");
+            methodBuilder.beginControlFlow("if (exception_" + exceptionIndex + " != null)");
+            methodBuilder.addStatement("throw exception_" + exceptionIndex);
+            methodBuilder.endControlFlow();
+            exceptionIndex++;
+        }
+
+
+        methodBuilder.addStatement("throw new RuntimeException(exception.getJsonValue(\"message\"))");
         methodBuilder.endControlFlow();
 
+        String returnType = executableElement.getReturnType().toString();
+
+        if (schemaEncoding && executableElement.getReturnType().getKind() != TypeKind.VOID) {
+            methodBuilder.addStatement("$T resultReader = new $T(jsonify, result.getBytes(\"result\"))", BinarySchemaReader.class, BinarySchemaReader.class);
+        }
+
+        if (executableElement.getReturnType().getKind() == TypeKind.VOID) {
+            //nothing to return
+        } else if (executableElement.getReturnType().getKind() == TypeKind.DECLARED) {
+            if (getBindingManager().isParameterOfTypeTPCfy(executableElement.getReturnType())) {
+
+                if (schemaEncoding) {
+                    methodBuilder.addStatement("Integer return_id = resultReader.readInteger()");
+                } else {
+                    methodBuilder.addStatement("Integer return_id = jsonify.fromJSON(result.getElement(), \"result\", Integer.class)");
+                }
+                methodBuilder.beginControlFlow("if (return_id != null)");
+
+                ClassName returnProxyCName = ClassName.bestGuess(executableElement.getReturnType().toString() + ClassBuilder.PROXY_SUFFIX);
+
+                methodBuilder.addStatement("return new $T(rpcHandler, jsonify, return_id, result.getHandlerId())", returnProxyCName);
 
-        if (isOneWay) {
-            methodBuilder.addStatement("rpcHandler.sendMessage(jsonRPCObject.toJson(), interfaceName, methodID, rpcCallId, proxyInstanceId, this)");
-        } else {
-            methodBuilder.addStatement("String result");
-            methodBuilder.addStatement("result = rpcHandler.sendMessageAndWaitForResponse(jsonRPCObject.toJson(), interfaceName, methodID, rpcCallId, proxyInstanceId)");
-
-            methodBuilder.addStatement("String exception = jsonify.getJSONElement(result, \"error\")");
-            methodBuilder.beginControlFlow("if (exception != null)");
-
-            methodBuilder.addStatement("String exceptionClassName = jsonify.fromJSON(exception, \"exception\", String.class)");
-            methodBuilder.addStatement("String exceptionMessage = jsonify.fromJSON(exception, \"message\", String.class)");
-            int exceptionIndex = 0;
-            for (TypeMirror exceptions : executableElement.getThrownTypes()) {
-                methodBuilder.addStatement(exceptions.toString() + " exception_" + exceptionIndex + " = JsonRPCMessageHandler.asException(exceptionClassName, exceptionMessage, " + exceptions.toString() + ".class)");
-                methodBuilder.beginControlFlow("if (exception_" + exceptionIndex + " != null)");
-                methodBuilder.addStatement("throw exception_" + exceptionIndex);
                 methodBuilder.endControlFlow();
-                exceptionIndex++;
+                methodBuilder.beginControlFlow("else");
+                methodBuilder.addStatement("return null");
+                methodBuilder.endControlFlow();
+            } else if (schemaEncoding) {
+                methodBuilder.addStatement("return $L", getSchemaRead(classBuilder, "resultReader", executableElement.getReturnType()));
+            } else {
+                methodBuilder.addStatement("return jsonify.fromJSON(result.getElement(), \"result\", $L)", getGenericType(classBuilder, executableElement.getReturnType()));
             }
+        } else if (schemaEncoding) {
+            methodBuilder.addStatement("return $L", getSchemaRead(classBuilder, "resultReader", executableElement.getReturnType()));
+        } else {
+            methodBuilder.addStatement("return jsonify.fromJSON(result.getElement(), \"result\", " + returnType + ".class)");
+        }
 
+        classBuilder.addMethod(methodBuilder.build());
+    }
 
-            methodBuilder.addStatement("throw new RuntimeException(jsonify.getJSONElement(exception, \"message\"))");
-            methodBuilder.endControlFlow();
+    /**
+     * Adds the proxy method named xxxAsync for the given method, that returns a {@link CompletableFuture} of its result
+     * instead of waiting for it.
+     */
+    private void addAsyncProxyMethod(TypeSpec.Builder classBuilder, ExecutableElement executableElement, int methodIndex, boolean rpcNotSupported) {
+        String methodName = executableElement.getSimpleName().toString();
+        if (isAsyncMethodDeclared(executableElement)) {
+            logWarning("Not generating " + methodName + ASYNC_SUFFIX + " for " + getRemoterInterfaceClassName()
+                    + ", as the interface declares a method of that name and parameters");
+            return;
+        }
+        boolean isOneWay = executableElement.getReturnType().getKind() == TypeKind.VOID;
+        TypeName resultType = isOneWay ? TypeName.get(Void.class) : TypeName.get(executableElement.getReturnType()).box();
+        TypeName futureType = ParameterizedTypeName.get(ClassName.get(CompletableFuture.class), resultType);
+        RPCfyNotification notification = getNotification(executableElement);
 
-            String returnType = executableElement.getReturnType().toString();
+        MethodSpec.Builder methodBuilder = MethodSpec.methodBuilder(methodName + ASYNC_SUFFIX)
+                .addModifiers(Modifier.PUBLIC)
+                .returns(futureType)
+                .addJavadoc("Calls {@link #" + methodName + "} without waiting for its result.\n<p/>\n");
+        if (rpcNotSupported) {
+            methodBuilder.addJavadoc("The returned future is completed exceptionally with a {@link $T}, as the method does not support RPC call.\n",
+                    RPCNotSupportedException.class);
+        } else if (notification != null) {
+            methodBuilder.addJavadoc("The returned future is completed once the notification is sent.\n");
+        } else {
+            methodBuilder.addJavadoc("The returned future is completed when the response is received, or exceptionally with the exception\n")
+                    .addJavadoc("thrown by the call, wrapped in a {@link $T}.\n", CompletionException.class);
+        }
 
-            if (executableElement.getReturnType().getKind() == TypeKind.DECLARED) {
-                methodBuilder.addStatement("$T genericType = new $T<" + returnType + ">(){}.getType()", Type.class, TypeToken.class);
+        addProxyParameters(methodBuilder, executableElement);
 
-                if (getBindingManager().isParameterOfTypeTPCfy(executableElement.getReturnType())) {
+        if (rpcNotSupported) {
+            methodBuilder.addStatement("$T notSupportedResult = new $T<>()", futureType, CompletableFuture.class);
+            methodBuilder.addStatement("notSupportedResult.completeExceptionally(new $T(\"Method '" + methodName + "' does not support RPC call\"))", RPCNotSupportedException.class);
+            methodBuilder.addStatement("return notSupportedResult");
+            classBuilder.addMethod(methodBuilder.build());
+            return;
+        }
 
-                    methodBuilder.addStatement("String resultJson = jsonify.getJSONElement(result, \"result\")");
-                    methodBuilder.beginControlFlow("if (resultJson != null && !resultJson.isEmpty())");
-                    methodBuilder.addStatement("int return_id = jsonify.fromJSON(resultJson, int.class)");
+        methodBuilder.addStatement(getRemoterInterfaceClassName() + " methodDelegate = (" + getRemoterInterfaceClassName() + ")rpcHandler.getMethodDelegate(" + getRemoterInterfaceClassName() + ".class, METHOD_" + methodName + "_" + methodIndex + ")");
+        methodBuilder.beginControlFlow("if (methodDelegate != null)");
+        methodBuilder.beginControlFlow("try");
+        String delegateCall = getDelegateCall(executableElement);
+        if (isOneWay) {
+            methodBuilder.addStatement(delegateCall);
+            methodBuilder.addStatement("return $T.completedFuture(null)", CompletableFuture.class);
+        } else {
+            methodBuilder.addStatement("return $T.completedFuture(" + delegateCall + ")", CompletableFuture.class);
+        }
+        methodBuilder.endControlFlow();
+        methodBuilder.beginControlFlow("catch($T delegateException)", RPCMethodDelegate.DelegateIgnoreException.class);
+        methodBuilder.endControlFlow();
+        methodBuilder.beginControlFlow("catch($T delegateException)", Throwable.class);
+        methodBuilder.addStatement("$T delegateResult = new $T<>()", futureType, CompletableFuture.class);
+        methodBuilder.addStatement("delegateResult.completeExceptionally(delegateException)");
+        methodBuilder.addStatement("return delegateResult");
+        methodBuilder.endControlFlow();
+        methodBuilder.endControlFlow();
 
-                    ClassName returnProxyCName = ClassName.bestGuess(executableElement.getReturnType().toString() + ClassBuilder.PROXY_SUFFIX);
+        addRequestWrite(methodBuilder, executableElement, methodIndex, notification != null);
 
-                    methodBuilder.addStatement("$T _remoteHandlerResultId = null", Integer.class);
-                    methodBuilder.beginControlFlow("if (jsonify.getJSONElement(result, \"handler_id\") != null)");
-                    methodBuilder.addStatement("_remoteHandlerResultId = jsonify.fromJSON(result, \"handler_id\", int.class)");
-                    methodBuilder.endControlFlow();
+        if (notification != null) {
+            methodBuilder.beginControlFlow("try");
+            methodBuilder.addStatement("rpcHandler.sendNotification(jsonRPCWriter, super.hashCode(), " + (notification.ackErrors() ? "this" : "null") + ")");
+            methodBuilder.endControlFlow();
+            methodBuilder.beginControlFlow("catch($T sendException)", RuntimeException.class);
+            methodBuilder.addStatement("$T sendResult = new $T<>()", futureType, CompletableFuture.class);
+            methodBuilder.addStatement("sendResult.completeExceptionally(sendException)");
+            methodBuilder.addStatement("return sendResult");
+            methodBuilder.endControlFlow();
+            methodBuilder.addStatement("return $T.completedFuture(null)", CompletableFuture.class);
+            classBuilder.addMethod(methodBuilder.build());
+            return;
+        }
 
+        MethodSpec.Builder applyBuilder = MethodSpec.methodBuilder("apply")
+                .addModifiers(Modifier.PUBLIC)
+                .addAnnotation(Override.class)
+                .returns(resultType)
+                .addParameter(RPCMessage.class, "result");
+        boolean hasExceptions = !executableElement.getThrownTypes().isEmpty();
+        if (hasExceptions) {
+            applyBuilder.beginControlFlow("try");
+        }
+        if (isOneWay) {
+            applyBuilder.addStatement(getResultDecoderName(executableElement, methodIndex) + "(result)");
+            applyBuilder.addStatement("return null");
+        } else {
+            applyBuilder.addStatement("return " + getResultDecoderName(executableElement, methodIndex) + "(result)");
+        }
+        if (hasExceptions) {
+            applyBuilder.endControlFlow();
+            applyBuilder.beginControlFlow("catch ($T exception)", Exception.class);
+            applyBuilder.addStatement("throw new $T(exception)", CompletionException.class);
+            applyBuilder.endControlFlow();
+        }
 
-                    methodBuilder.addStatement("return new $T(rpcHandler, jsonify, return_id, _remoteHandlerResultId)", returnProxyCName);
+        TypeSpec resultFunction = TypeSpec.anonymousClassBuilder("")
+                .addSuperinterface(ParameterizedTypeName.get(ClassName.get(Function.class), ClassName.get(RPCMessage.class), resultType))
+                .addMethod(applyBuilder.build())
+                .build();
 
-                    methodBuilder.endControlFlow();
-                    methodBuilder.beginControlFlow("else");
-                    methodBuilder.addStatement("return null");
-                    methodBuilder.endControlFlow();
-                } else {
-                    methodBuilder.addStatement("return jsonify.fromJSON(result, \"result\", genericType)");
+        methodBuilder.addStatement("return rpcHandler.sendRequestAsync(jsonRPCWriter, $S, METHOD_" + methodName + "_" + methodIndex + ", rpcCallId, $L)",
+                getRemteInterfaceFQName(), resultFunction);
+
+        classBuilder.addMethod(methodBuilder.build());
+    }
+
+    /**
+     * Returns whether the interface declares the xxxAsync method that would be generated for the given method,
+     * with the same parameters
+     */
+    private boolean isAsyncMethodDeclared(final ExecutableElement executableElement) {
+        final String asyncName = executableElement.getSimpleName() + ASYNC_SUFFIX;
+        final boolean[] declared = new boolean[1];
+        processRemoterElements(null, new ElementVisitor() {
+            @Override
+            public void visitElement(TypeSpec.Builder classBuilder, Element member, int methodIndex, MethodSpec.Builder methodBuilder) {
+                if (member.getSimpleName().contentEquals(asyncName)
+                        && hasSameParameters((ExecutableElement) member, executableElement)) {
+                    declared[0] = true;
                 }
-            } else {
-                methodBuilder.addStatement("return jsonify.fromJSON(result, \"result\", " + returnType + ".class)");
             }
+        }, null);
+        return declared[0];
+    }
 
+    private static boolean hasSameParameters(ExecutableElement method, ExecutableElement otherMethod) {
+        List<? extends VariableElement> params = method.getParameters();
+        List<? extends VariableElement> otherParams = otherMethod.getParameters();
+        if (params.size() != otherParams.size()) {
+            return false;
         }
-
-        //methodBuilder.endControlFlow();
-        //methodBuilder.beginControlFlow("catch (Exception ex)");
-        //methodBuilder.addStatement("throw new RuntimeException(ex)");
-        //methodBuilder.endControlFlow();
-
-        classBuilder.addMethod(methodBuilder.build());
+        for (int i = 0; i < params.size(); i++) {
+            if (!TypeName.get(params.get(i).asType()).equals(TypeName.get(otherParams.get(i).asType()))) {
+                return false;
+            }
+        }
+        return true;
     }
 
 
@@ -249,47 +642,39 @@ class MethodBuilder extends RpcfyBuilder {
         MethodSpec.Builder methodBuilder = MethodSpec.methodBuilder("onRPCCall")
                 .addModifiers(Modifier.PUBLIC)
                 .addAnnotation(Override.class)
-                .returns(String.class)
-                .addParameter(int.class, "methodID")
-                .addParameter(String.class, "message");
+                .returns(JSONify.JWriter.class)
+                .addParameter(RPCMessage.class, "message");
 
         methodBuilder.addStatement("$T rpc_method_delegate = null", RPCMethodDelegate.class);
         methodBuilder.addStatement("$T customExtras = null", ParameterizedTypeName.get(Map.class, String.class, String.class));
-        methodBuilder.addStatement("$T jsonRPCObject = jsonify.newJson()", JSONify.JObject.class);
-        methodBuilder.addStatement("jsonRPCObject.put(\"jsonrpc\", \"2.0\")");
-        methodBuilder.addStatement("jsonRPCObject.put(\"interface\", getStubInterfaceName())");
-        methodBuilder.addStatement("jsonRPCObject.put(\"method_id\", methodID)");
-        methodBuilder.addStatement("jsonRPCObject.put(\"id\", jsonify.fromJSON(message, \"id\", int.class))");
-        methodBuilder.beginControlFlow("if (jsonify.getJSONElement(message, \"ins_id\") != null)");
-        methodBuilder.addStatement("jsonRPCObject.put(\"ins_id\", jsonify.fromJSON(message, \"ins_id\", int.class))");
-        methodBuilder.endControlFlow();
-
-        methodBuilder.addStatement("$T _remoteHandlerId = null", Integer.class);
-        methodBuilder.beginControlFlow("if (jsonify.getJSONElement(message, \"handler_id\") != null)");
-        methodBuilder.addStatement("_remoteHandlerId = jsonify.fromJSON(message, \"handler_id\", int.class)");
-        methodBuilder.addStatement("jsonRPCObject.put(\"r_handler_id\", jsonify.fromJSON(message, \"handler_id\", int.class))");
-        methodBuilder.endControlFlow();
-        methodBuilder.addStatement("jsonRPCObject.put(\"handler_id\", rpcHandler.hashCode())");
-        //add custom entries back
+        methodBuilder.addStatement("int methodID = message.getMethodId()");
+        methodBuilder.addStatement("$T _remoteHandlerId = message.getHandlerId()", Integer.class);
 
-        methodBuilder.addStatement("$T requestElement = jsonify.fromJson(message)", JSONify.JElement.class);
-        methodBuilder.addStatement("$T<String> requestParams = requestElement.getKeys()", Set.class);
+        //collect the custom entries to send back
+        methodBuilder.addStatement("$T<String> requestParams = message.getKeys()", Set.class);
         methodBuilder.beginControlFlow("if (requestParams != null)");
-        methodBuilder.addStatement("Map<String, String> _allParams = new $T<>()", HashMap.class);
-        methodBuilder.beginControlFlow("for (String key : requestElement.getKeys())");
-        methodBuilder.addStatement("String _custom_value = requestElement.getStringValue(key)");
-        methodBuilder.addStatement("_allParams.put(key, _custom_value)");
+        methodBuilder.beginControlFlow("for (String key : requestParams)");
         methodBuilder.beginControlFlow("if (key.startsWith(\"custom_\"))");
         methodBuilder.beginControlFlow("if (customExtras == null)");
         methodBuilder.addStatement("customExtras = new $T<>()", HashMap.class);
         methodBuilder.endControlFlow();
-        methodBuilder.addStatement("jsonRPCObject.putJson(key, _custom_value)");
-        methodBuilder.addStatement("customExtras.put(key, _custom_value)");
+        methodBuilder.addStatement("customExtras.put(key, message.getStringValue(key))");
         methodBuilder.endControlFlow();
         methodBuilder.endControlFlow();
-        methodBuilder.addStatement("rpcHandler.onRPCParameters(_allParams)");
         methodBuilder.endControlFlow();
 
+        if (schemaEncoding) {
+            methodBuilder.addStatement("$T paramsReader = new $T(jsonify, message.getBytes(\"params\"))", BinarySchemaReader.class, BinarySchemaReader.class);
+        } else {
+            methodBuilder.addStatement("$T paramsElement = message.getParams()", JSONify.JElement.class);
+        }
+        methodBuilder.addStatement("$T response = null", JSONify.JWriter.class);
+        boolean hasNotifications = hasNotifications();
+        if (hasNotifications) {
+            methodBuilder.addStatement("boolean _notification = false");
+            methodBuilder.addStatement("boolean _ackErrors = false");
+        }
+
 
         methodBuilder.beginControlFlow("try");
         methodBuilder.beginControlFlow("switch (methodID)");
@@ -308,21 +693,37 @@ class MethodBuilder extends RpcfyBuilder {
 //        //catch rethrow
         methodBuilder.beginControlFlow("catch ($T re)", Throwable.class);
 
-        methodBuilder.addStatement("JSONify.JObject jsonErrorObject = jsonify.newJson()");
-        methodBuilder.addStatement("jsonErrorObject.put(\"code\", -32000)");
-        methodBuilder.addStatement("jsonErrorObject.put(\"message\", re.getMessage())");
-        methodBuilder.addStatement("jsonErrorObject.put(\"exception\", re.getClass().getName())");
-        methodBuilder.addStatement("jsonRPCObject.put(\"error\", jsonErrorObject)");
+        //the response could have been partially written, so start a new one
+        methodBuilder.addStatement("$T jsonRPCWriter = newResponseWriter(message, customExtras)", JSONify.JWriter.class);
+        methodBuilder.addStatement("jsonRPCWriter.beginObject(\"error\")");
+        methodBuilder.addStatement("jsonRPCWriter.put(\"code\", -32000)");
+        methodBuilder.addStatement("jsonRPCWriter.put(\"message\", re.getMessage())");
+        methodBuilder.addStatement("jsonRPCWriter.put(\"exception\", re.getClass().getName())");
+        methodBuilder.addStatement("jsonRPCWriter.endObject()");
+        methodBuilder.addStatement("response = jsonRPCWriter");
         methodBuilder.endControlFlow();
 
         methodBuilder.beginControlFlow("if (rpc_method_delegate != null)");
-        methodBuilder.addStatement("rpcHandler.setOriginalMessage(rpc_method_delegate, null)");
+        methodBuilder.addStatement("rpcHandler.setOriginalMessage(rpc_method_delegate, ($T) null)", RPCMessage.class);
+        methodBuilder.endControlFlow();
+
+        //a notification gets no response, other than the error if it is acknowledged
+        if (hasNotifications) {
+            methodBuilder.beginControlFlow("if (_notification)");
+            methodBuilder.addStatement("return _ackErrors ? response : null");
+            methodBuilder.endControlFlow();
+        }
+
+        methodBuilder.beginControlFlow("if (response == null)");
+        methodBuilder.addStatement("response = newResponseWriter(message, customExtras)");
         methodBuilder.endControlFlow();
 
-        methodBuilder.addStatement("return jsonRPCObject.toJson()");
+        methodBuilder.addStatement("return response");
 
         classBuilder.addMethod(methodBuilder.build());
 
+        addResponseWriter(classBuilder);
+
         addStubExtras(classBuilder);
 
     }
@@ -338,11 +739,17 @@ class MethodBuilder extends RpcfyBuilder {
 
         methodBuilder.beginControlFlow("case METHOD_" + methodName + "_" + methodIndex + ":");
 
+        RPCfyNotification notification = getNotification(member);
+        if (notification != null) {
+            methodBuilder.addStatement("_notification = true");
+            if (notification.ackErrors()) {
+                methodBuilder.addStatement("_ackErrors = true");
+            }
+        }
+
         List<String> paramNames = new ArrayList<>();
         int paramIndex = 0;
 
-        methodBuilder.addStatement("String paramsElement = jsonify.getJSONElement(message, \"params\")");
-
         //pass parameters
         for (final VariableElement param : executableElement.getParameters()) {
 
@@ -351,18 +758,20 @@ class MethodBuilder extends RpcfyBuilder {
             if (getBindingManager().isParameterOfTypeTPCfy(param.asType())) {
                 ClassName proxy = ClassName.bestGuess(param.asType().toString() + ClassBuilder.PROXY_SUFFIX);
                 methodBuilder.addStatement("$T " + paramName + " = null", proxy);
-                methodBuilder.addStatement("String " + paramName + "_id_json = jsonify.getJSONElement(paramsElement, \"" + param.getSimpleName() + "\")");
-                methodBuilder.beginControlFlow("if (" + paramName + "_id_json != null)");
-                methodBuilder.addStatement("int " + paramName + "_id = jsonify.fromJSON(paramsElement, \"" + param.getSimpleName() + "\", int.class)");
+                if (schemaEncoding) {
+                    methodBuilder.addStatement("Integer " + paramName + "_id = paramsReader.readInteger()");
+                } else {
+                    methodBuilder.addStatement("Integer " + paramName + "_id = jsonify.fromJSON(paramsElement, \"" + param.getSimpleName() + "\", Integer.class)");
+                }
+                methodBuilder.beginControlFlow("if (" + paramName + "_id != null)");
                 methodBuilder.addStatement(paramName + " = new $T(rpcHandler, jsonify, " + paramName + "_id, _remoteHandlerId)", proxy);
                 methodBuilder.addStatement(paramName + ".setRPCfyCustomExtras(customExtras)");
                 methodBuilder.endControlFlow();
+            } else if (schemaEncoding) {
+                methodBuilder.addStatement("$T " + paramName + " = $L", param.asType(), getSchemaRead(classBuilder, "paramsReader", param.asType()));
             } else {
-                String pType = param.asType().toString();
-
                 if (param.asType().getKind() == TypeKind.DECLARED) {
-                    methodBuilder.addStatement("$T genericType" + paramIndex + " = new $T<" + pType + ">(){}.getType()", Type.class, TypeToken.class);
-                    methodBuilder.addStatement("$T " + paramName + " = jsonify.fromJSON(paramsElement, \"" + param.getSimpleName() + "\", genericType" + paramIndex + ")", param.asType());
+                    methodBuilder.addStatement("$T " + paramName + " = jsonify.fromJSON(paramsElement, \"" + param.getSimpleName() + "\", $L)", param.asType(), getGenericType(classBuilder, param.asType()));
                 } else {
                     methodBuilder.addStatement("$T " + paramName + " = jsonify.fromJSON(paramsElement, \"" + param.getSimpleName() + "\", $T.class)", param.asType(), param.asType());
                 }
@@ -373,7 +782,7 @@ class MethodBuilder extends RpcfyBuilder {
 
         methodBuilder.addStatement(getRemoterInterfaceClassName() + " methodImpl = service");
         methodBuilder.addStatement("rpc_method_delegate = new $T(" + getRemoterInterfaceClassName() + ".class, METHOD_" + methodName + "_" + methodIndex + ", null)", RPCMethodDelegate.class);
-        methodBuilder.addStatement(getRemoterInterfaceClassName() + " methodDelegate = (" + getRemoterInterfaceClassName() + ")rpcHandler.getMethodDelegate(rpc_method_delegate)");
+        methodBuilder.addStatement(getRemoterInterfaceClassName() + " methodDelegate = (" + getRemoterInterfaceClassName() + ")rpcHandler.getMethodDelegate(" + getRemoterInterfaceClassName() + ".class, METHOD_" + methodName + "_" + methodIndex + ")");
         methodBuilder.beginControlFlow("if (methodDelegate != null)");
         methodBuilder.addStatement("methodImpl =  methodDelegate");
         methodBuilder.endControlFlow();
@@ -394,6 +803,7 @@ class MethodBuilder extends RpcfyBuilder {
 
         if (executableElement.getReturnType().getKind() != TypeKind.VOID) {
             methodBuilder.addStatement("$T result = " + methodCall, executableElement.getReturnType());
+            methodBuilder.addStatement("$T jsonRPCWriter = newResponseWriter(message, customExtras)", JSONify.JWriter.class);
 
             if (getBindingManager().isParameterOfTypeTPCfy(executableElement.getReturnType())) {
 
@@ -407,18 +817,35 @@ class MethodBuilder extends RpcfyBuilder {
                 methodBuilder.addStatement("rpcHandler.registerStub(returnStub)");
                 methodBuilder.endControlFlow();
 
-                methodBuilder.addStatement("jsonRPCObject.put(\"result\", result.hashCode())");
+                if (!schemaEncoding) {
+                    methodBuilder.addStatement("jsonRPCWriter.put(\"result\", result.hashCode())");
+                }
 
                 methodBuilder.endControlFlow();
 
+                if (schemaEncoding) {
+                    methodBuilder.addStatement("$T resultWriter = new $T(jsonify)", BinarySchemaWriter.class, BinarySchemaWriter.class);
+                    methodBuilder.addStatement("resultWriter.writeInteger(result != null ? result.hashCode() : null)");
+                    methodBuilder.addStatement("jsonRPCWriter.putBytes(\"result\", resultWriter.toBytes())");
+                }
 
+
+            } else if (schemaEncoding) {
+                methodBuilder.addStatement("$T resultWriter = new $T(jsonify)", BinarySchemaWriter.class, BinarySchemaWriter.class);
+                addSchemaWrite(methodBuilder, "resultWriter", executableElement.getReturnType(), "result");
+                methodBuilder.addStatement("jsonRPCWriter.putBytes(\"result\", resultWriter.toBytes())");
             } else {
-                methodBuilder.addStatement("jsonRPCObject.put(\"result\", jsonify.toJson(result))");
+                methodBuilder.addStatement("jsonRPCWriter.putValue(\"result\", result)");
             }
+            methodBuilder.addStatement("response = jsonRPCWriter");
 
+        } else if (notification != null) {
+            methodBuilder.addStatement(methodCall);
         } else {
             methodBuilder.addStatement(methodCall);
-            methodBuilder.addStatement("jsonRPCObject.put(\"result\", \"\")");
+            methodBuilder.addStatement("$T jsonRPCWriter = newResponseWriter(message, customExtras)", JSONify.JWriter.class);
+            methodBuilder.addStatement("jsonRPCWriter.put(\"result\", \"\")");
+            methodBuilder.addStatement("response = jsonRPCWriter");
         }
 
         methodBuilder.endControlFlow();
@@ -426,6 +853,41 @@ class MethodBuilder extends RpcfyBuilder {
 
     }
 
+    /**
+     * Add the stub method that starts the response to a call by writing its headers
+     */
+    private void addResponseWriter(TypeSpec.Builder classBuilder) {
+        MethodSpec.Builder methodBuilder = MethodSpec.methodBuilder("newResponseWriter")
+                .addModifiers(Modifier.PRIVATE)
+                .returns(JSONify.JWriter.class)
+                .addParameter(RPCMessage.class, "message")
+                .addParameter(ParameterizedTypeName.get(Map.class, String.class, String.class), "customExtras");
+
+        methodBuilder.addStatement("$T jsonRPCWriter = jsonify.newWriter()", JSONify.JWriter.class);
+        methodBuilder.addStatement("jsonRPCWriter.put(\"jsonrpc\", \"2.0\")");
+        methodBuilder.addStatement("jsonRPCWriter.put(\"interface\", getStubInterfaceName())");
+        methodBuilder.addStatement("jsonRPCWriter.put(\"method_id\", message.getMethodId())");
+        methodBuilder.beginControlFlow("if (message.getCallId() != null)");
+        methodBuilder.addStatement("jsonRPCWriter.put(\"id\", message.getCallId())");
+        methodBuilder.endControlFlow();
+        methodBuilder.beginControlFlow("if (message.getInstanceId() != null)");
+        methodBuilder.addStatement("jsonRPCWriter.put(\"ins_id\", message.getInstanceId())");
+        methodBuilder.endControlFlow();
+        methodBuilder.beginControlFlow("if (message.getHandlerId() != null)");
+        methodBuilder.addStatement("jsonRPCWriter.put(\"r_handler_id\", message.getHandlerId())");
+        methodBuilder.endControlFlow();
+        methodBuilder.addStatement("jsonRPCWriter.put(\"handler_id\", rpcHandler.hashCode())");
+        //add custom entries back
+        methodBuilder.beginControlFlow("if (customExtras != null)");
+        methodBuilder.beginControlFlow("for (Map.Entry<String, String> entry : customExtras.entrySet())");
+        methodBuilder.addStatement("jsonRPCWriter.putJson(entry.getKey(), entry.getValue())");
+        methodBuilder.endControlFlow();
+        methodBuilder.endControlFlow();
+        methodBuilder.addStatement("return jsonRPCWriter");
+
+        classBuilder.addMethod(methodBuilder.build());
+    }
+
     private void addStubExtras(TypeSpec.Builder classBuilder) {
         addRPCStubMethods(classBuilder);
     }
@@ -510,21 +972,24 @@ class MethodBuilder extends RpcfyBuilder {
                 .addModifiers(Modifier.PUBLIC)
                 .returns(void.class)
                 .addAnnotation(Override.class)
-                .addParameter(String.class, "result")
+                .addParameter(RPCMessage.class, "result")
                 .beginControlFlow("if (remoteListener != null)")
-                .addStatement("String exception = jsonify.getJSONElement(result, \"error\")")
+                .addStatement("JSONify.JElement exception = result.getError()")
                 .beginControlFlow("if (exception != null)")
                 .addStatement("int code = jsonify.fromJSON(exception, \"code\", int.class)")
                 .addStatement("String exceptionMessage = \"Remote Exception\"")
                 .beginControlFlow("if (code == -32001)")
                 .addStatement("exceptionMessage = \"Remote stub not found\"")
                 .endControlFlow()
+                .beginControlFlow("else if (code == -32002)")
+                .addStatement("exceptionMessage = \"Request timed out\"")
+                .endControlFlow()
                 .beginControlFlow("else")
                 .addStatement("String exceptionClassName = jsonify.fromJSON(exception, \"exception\", String.class)")
                 .addStatement("exceptionMessage = exceptionClassName + \" \" +jsonify.fromJSON(exception, \"message\", String.class)")
                 .endControlFlow()
-                .addStatement("int methodID = jsonify.fromJSON(result, \"method_id\", int.class)")
-                .addStatement("remoteListener.onRPCFailed(this, methodID, new $T(code == -32000 ? RPCException.Type.REMOTE_EXCEPTION : RPCException.Type.REMOTE_STUB_NOT_FOUND, exceptionMessage))", RPCException.class)
+                .addStatement("int methodID = result.getMethodId()")
+                .addStatement("remoteListener.onRPCFailed(this, methodID, new $T(code == -32000 ? RPCException.Type.REMOTE_EXCEPTION : code == -32002 ? RPCException.Type.TIMEOUT : RPCException.Type.REMOTE_STUB_NOT_FOUND, exceptionMessage))", RPCException.class)
                 .endControlFlow()
                 .endControlFlow();
         classBuilder.addMethod(methodBuilder.build());
@@ -0,0 +1,410 @@
+package rpcfy.compiler.builder;
+
+import com.google.gson.Gson;
+import com.google.gson.TypeAdapter;
+import com.google.gson.TypeAdapterFactory;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import com.squareup.javapoet.AnnotationSpec;
+import com.squareup.javapoet.ClassName;
+import com.squareup.javapoet.CodeBlock;
+import com.squareup.javapoet.FieldSpec;
+import com.squareup.javapoet.JavaFile;
+import com.squareup.javapoet.MethodSpec;
+import com.squareup.javapoet.ParameterizedTypeName;
+import com.squareup.javapoet.TypeName;
+import com.squareup.javapoet.TypeSpec;
+import com.squareup.javapoet.TypeVariableName;
+import com.squareup.javapoet.WildcardTypeName;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.processing.Messager;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.ArrayType;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.type.WildcardType;
+import javax.lang.model.util.ElementFilter;
+
+import rpcfy.annotations.RPCfy;
+import rpcfy.annotations.RPCfyNotSupported;
+import rpcfy.json.RPCfyTypeAdapterFactory;
+
+
+/**
+ * A {@link RpcfyBuilder} that generates a Gson {@link TypeAdapterFactory} with reflection free
+ * {@link TypeAdapter}s for the types used as parameters and return values of an @{@link RPCfy} interface.
+ * <p>
+ * Like the reflective Gson adapters, the generated ones read and write the fields directly, so only the types
+ * whose serialized fields can all be accessed from the generated code are generated. Everything else is left to
+ * the default Gson adapters.
+ */
+class TypeAdapterBuilder extends RpcfyBuilder {
+
+    static final String TYPE_ADAPTER_FACTORY_SUFFIX = "_JsonRpcTypeAdapterFactory";
+
+    private static final String[] EXCLUDED_PACKAGES = {"java.", "javax.", "kotlin.", "android.", "com.google.gson."};
+    private static final AnnotationSpec UNCHECKED = AnnotationSpec.builder(SuppressWarnings.class).addMember("value", "$S", "unchecked").build();
+
+    protected TypeAdapterBuilder(Messager messager, Element element) {
+        super(messager, element);
+    }
+
+    /**
+     * Returns whether there is any type for which an adapter could be generated
+     */
+    boolean hasTypeAdapters() {
+        return !getAdapterTypes().isEmpty();
+    }
+
+    /**
+     * Returns the name of the generated factory
+     */
+    ClassName getTypeAdapterFactoryClassName() {
+        return ClassName.get(getRemoterInterfacePackageName(), getRemoterInterfaceClassName() + TYPE_ADAPTER_FACTORY_SUFFIX);
+    }
+
+    /**
+     * Builds the type adapter factory
+     */
+    public JavaFile.Builder buildTypeAdapterFactoryClass() {
+        ClassName factoryClassName = getTypeAdapterFactoryClassName();
+
+        TypeSpec.Builder factoryClassBuilder = TypeSpec
+                .classBuilder(factoryClassName.simpleName())
+                .addModifiers(Modifier.PUBLIC, Modifier.FINAL)
+                .addSuperinterface(RPCfyTypeAdapterFactory.class)
+                .addOriginatingElement(getRemoterInterfaceElement());
+
+        TypeVariableName typeVariable = TypeVariableName.get("T");
+        MethodSpec.Builder createMethod = MethodSpec.methodBuilder("create")
+                .addModifiers(Modifier.PUBLIC)
+                .addAnnotation(Override.class)
+                .addAnnotation(UNCHECKED)
+                .addTypeVariable(typeVariable)
+                .returns(ParameterizedTypeName.get(ClassName.get(TypeAdapter.class), typeVariable))
+                .addParameter(Gson.class, "gson")
+                .addParameter(ParameterizedTypeName.get(ClassName.get(TypeToken.class), typeVariable), "type")
+                .addStatement("$T rawType = type.getRawType()", ParameterizedTypeName.get(ClassName.get(Class.class), WildcardTypeName.supertypeOf(typeVariable)));
+
+        for (Map.Entry<TypeElement, List<VariableElement>> adapterType : getAdapterTypes().entrySet()) {
+            ClassName typeClassName = ClassName.get(adapterType.getKey());
+            String adapterName = getAdapterName(typeClassName);
+            createMethod.beginControlFlow("if (rawType == $T.class)", typeClassName);
+            createMethod.addStatement("return ($T) new $L(gson)", ParameterizedTypeName.get(ClassName.get(TypeAdapter.class), typeVariable), adapterName);
+            createMethod.endControlFlow();
+
+            factoryClassBuilder.addType(buildTypeAdapter(adapterType.getKey(), adapterType.getValue(), adapterName));
+        }
+        createMethod.addStatement("return null");
+        factoryClassBuilder.addMethod(createMethod.build());
+        factoryClassBuilder.addMethod(buildWriteMethod());
+
+        factoryClassBuilder.addJavadoc("A Gson {@link $T} for the types used by {@link " + getRemoterInterfaceElement() + "} interface\n",
+                TypeAdapterFactory.class);
+        factoryClassBuilder.addJavadoc("<p>\n");
+        factoryClassBuilder.addJavadoc("Autogenerated by <a href=\"http://bit.ly/RPCfy\">RPCfy</a>\n");
+
+        return JavaFile.builder(factoryClassName.packageName(), factoryClassBuilder.build());
+    }
+
+    /**
+     * Builds the adapter for a single type
+     */
+    private TypeSpec buildTypeAdapter(TypeElement typeElement, List<VariableElement> fields, String adapterName) {
+        ClassName typeClassName = ClassName.get(typeElement);
+        TypeSpec.Builder adapterBuilder = TypeSpec.classBuilder(adapterName)
+                .addModifiers(Modifier.PRIVATE, Modifier.STATIC, Modifier.FINAL)
+                .superclass(ParameterizedTypeName.get(ClassName.get(TypeAdapter.class), typeClassName));
+
+        adapterBuilder.addField(FieldSpec.builder(Gson.class, "gson", Modifier.PRIVATE, Modifier.FINAL).build());
+
+        MethodSpec.Builder constructor = MethodSpec.constructorBuilder()
+                .addParameter(Gson.class, "gson")
+                .addStatement("this.gson = gson");
+
+        MethodSpec.Builder writeMethod = MethodSpec.methodBuilder("write")
+                .addModifiers(Modifier.PUBLIC)
+                .addAnnotation(Override.class)
+                .addException(IOException.class)
+                .addParameter(JsonWriter.class, "out")
+                .addParameter(typeClassName, "value")
+                .beginControlFlow("if (value == null)")
+                .addStatement("out.nullValue()")
+                .addStatement("return")
+                .endControlFlow()
+                .addStatement("out.beginObject()");
+
+        MethodSpec.Builder readMethod = MethodSpec.methodBuilder("read")
+                .addModifiers(Modifier.PUBLIC)
+                .addAnnotation(Override.class)
+                .addException(IOException.class)
+                .returns(typeClassName)
+                .addParameter(JsonReader.class, "in")
+                .beginControlFlow("if (in.peek() == $T.NULL)", JsonToken.class)
+                .addStatement("in.nextNull()")
+                .addStatement("return null")
+                .endControlFlow()
+                .addStatement("$T value = new $T()", typeClassName, typeClassName)
+                .addStatement("in.beginObject()")
+                .beginControlFlow("while (in.hasNext())")
+                .beginControlFlow("switch (in.nextName())");
+
+        for (VariableElement field : fields) {
+            String fieldName = field.getSimpleName().toString();
+            String adapterField = fieldName + "_adapter";
+            TypeMirror fieldType = field.asType();
+            TypeName fieldTypeName = TypeName.get(fieldType);
+            TypeName boxedTypeName = fieldTypeName.box();
+
+            adapterBuilder.addField(FieldSpec.builder(ParameterizedTypeName.get(ClassName.get(TypeAdapter.class), boxedTypeName), adapterField, Modifier.PRIVATE, Modifier.FINAL).build());
+            if (fieldType.getKind() == TypeKind.DECLARED && !((DeclaredType) fieldType).getTypeArguments().isEmpty()) {
+                constructor.addStatement("this.$L = gson.getAdapter(new $T<$T>(){})", adapterField, TypeToken.class, fieldTypeName);
+            } else {
+                constructor.addStatement("this.$L = gson.getAdapter($T.class)", adapterField, boxedTypeName);
+            }
+
+            CodeBlock getter = CodeBlock.of("value.$L", fieldName);
+            writeMethod.addStatement("out.name($S)", fieldName);
+            if (!needsRuntimeType(fieldType)) {
+                writeMethod.addStatement("$L.write(out, $L)", adapterField, getter);
+            } else {
+                writeMethod.addStatement("writeRuntimeType(gson, out, $L, $T.class, $L)", adapterField, boxedTypeName, getter);
+            }
+
+            readMethod.beginControlFlow("case $S:", fieldName);
+            readMethod.addStatement("$T $L = $L.read(in)", boxedTypeName, fieldName + "_value", adapterField);
+            if (fieldType.getKind().isPrimitive()) {
+                readMethod.beginControlFlow("if ($L != null)", fieldName + "_value");
+                readMethod.addStatement("value.$L = $L", fieldName, fieldName + "_value");
+                readMethod.endControlFlow();
+            } else {
+                readMethod.addStatement("value.$L = $L", fieldName, fieldName + "_value");
+            }
+            readMethod.addStatement("break");
+            readMethod.endControlFlow();
+        }
+
+        readMethod.beginControlFlow("default:")
+                .addStatement("in.skipValue()")
+                .endControlFlow()
+                .endControlFlow()
+                .endControlFlow()
+                .addStatement("in.endObject()")
+                .addStatement("return value");
+
+        writeMethod.addStatement("out.endObject()");
+
+        adapterBuilder.addMethod(constructor.build());
+        adapterBuilder.addMethod(writeMethod.build());
+        adapterBuilder.addMethod(readMethod.build());
+        return adapterBuilder.build();
+    }
+
+    /**
+     * Builds the helper that writes a value using its runtime type, the way Gson does for fields
+     */
+    private MethodSpec buildWriteMethod() {
+        TypeVariableName typeVariable = TypeVariableName.get("T");
+        return MethodSpec.methodBuilder("writeRuntimeType")
+                .addModifiers(Modifier.PRIVATE, Modifier.STATIC)
+                .addAnnotation(UNCHECKED)
+                .addTypeVariable(typeVariable)
+                .addException(IOException.class)
+                .addParameter(Gson.class, "gson")
+                .addParameter(JsonWriter.class, "out")
+                .addParameter(ParameterizedTypeName.get(ClassName.get(TypeAdapter.class), typeVariable), "adapter")
+                .addParameter(ParameterizedTypeName.get(ClassName.get(Class.class), typeVariable), "declaredType")
+                .addParameter(typeVariable, "value")
+                .beginControlFlow("if (value != null && value.getClass() != declaredType)")
+                .addStatement("(($T) gson.getAdapter(value.getClass())).write(out, value)", ParameterizedTypeName.get(TypeAdapter.class, Object.class))
+                .nextControlFlow("else")
+                .addStatement("adapter.write(out, value)")
+                .endControlFlow()
+                .build();
+    }
+
+    /**
+     * Returns whether a value of given type could be of a sub type at runtime, which needs to be written using its own adapter
+     */
+    private boolean needsRuntimeType(TypeMirror fieldType) {
+        if (fieldType.getKind() != TypeKind.DECLARED || !((DeclaredType) fieldType).getTypeArguments().isEmpty()) {
+            return false;
+        }
+        Element fieldTypeElement = ((DeclaredType) fieldType).asElement();
+        return fieldTypeElement.getKind() != ElementKind.ENUM && !fieldTypeElement.getModifiers().contains(Modifier.FINAL);
+    }
+
+    private String getAdapterName(ClassName className) {
+        StringBuilder adapterName = new StringBuilder();
+        for (String simpleName : className.simpleNames()) {
+            if (adapterName.length() > 0) {
+                adapterName.append('_');
+            }
+            adapterName.append(simpleName);
+        }
+        return adapterName.append("TypeAdapter").toString();
+    }
+
+    /**
+     * Returns the types for which adapters can be generated, along with their serialized fields
+     */
+    private Map<TypeElement, List<VariableElement>> getAdapterTypes() {
+        final Set<TypeElement> visitedTypes = new LinkedHashSet<>();
+        final Map<TypeElement, List<VariableElement>> adapterTypes = new LinkedHashMap<>();
+        processRemoterElements(null, new ElementVisitor() {
+            @Override
+            public void visitElement(TypeSpec.Builder classBuilder, Element member, int methodIndex, MethodSpec.Builder methodBuilder) {
+                if (member.getAnnotation(RPCfyNotSupported.class) == null) {
+                    ExecutableElement executableElement = (ExecutableElement) member;
+                    collectAdapterTypes(executableElement.getReturnType(), visitedTypes, adapterTypes);
+                    for (VariableElement param : executableElement.getParameters()) {
+                        collectAdapterTypes(param.asType(), visitedTypes, adapterTypes);
+                    }
+                }
+            }
+        }, null);
+        return adapterTypes;
+    }
+
+    /**
+     * Recursively finds the types that are reachable from the given type
+     */
+    private void collectAdapterTypes(TypeMirror typeMirror, Set<TypeElement> visitedTypes, Map<TypeElement, List<VariableElement>> adapterTypes) {
+        switch (typeMirror.getKind()) {
+            case ARRAY:
+                collectAdapterTypes(((ArrayType) typeMirror).getComponentType(), visitedTypes, adapterTypes);
+                break;
+            case WILDCARD:
+                TypeMirror extendsBound = ((WildcardType) typeMirror).getExtendsBound();
+                if (extendsBound != null) {
+                    collectAdapterTypes(extendsBound, visitedTypes, adapterTypes);
+                }
+                break;
+            case DECLARED:
+                for (TypeMirror typeArgument : ((DeclaredType) typeMirror).getTypeArguments()) {
+                    collectAdapterTypes(typeArgument, visitedTypes, adapterTypes);
+                }
+                TypeElement typeElement = (TypeElement) ((DeclaredType) typeMirror).asElement();
+                if (visitedTypes.add(typeElement)) {
+                    List<VariableElement> fields = getSerializedFields(typeElement);
+                    if (fields != null) {
+                        adapterTypes.put(typeElement, fields);
+                        for (VariableElement field : fields) {
+                            collectAdapterTypes(field.asType(), visitedTypes, adapterTypes);
+                        }
+                    }
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Returns the fields that Gson would serialize for the given type, or null if an adapter can not be generated for it
+     */
+    private List<VariableElement> getSerializedFields(TypeElement typeElement) {
+        if (typeElement.getKind() != ElementKind.CLASS
+                || !typeElement.getModifiers().contains(Modifier.PUBLIC)
+                || typeElement.getModifiers().contains(Modifier.ABSTRACT)
+                || (typeElement.getNestingKind() != NestingKind.TOP_LEVEL && !typeElement.getModifiers().contains(Modifier.STATIC))
+                || !typeElement.getTypeParameters().isEmpty()
+                || typeElement.getAnnotation(RPCfy.class) != null
+                || isExcludedType(typeElement)
+                || hasGsonAnnotation(typeElement)
+                || !hasPublicNoArgConstructor(typeElement)) {
+            return null;
+        }
+
+        List<VariableElement> fields = new ArrayList<>();
+        Set<String> fieldNames = new LinkedHashSet<>();
+        TypeElement currentType = typeElement;
+        while (currentType != null && !currentType.getQualifiedName().contentEquals(Object.class.getName())) {
+            if (currentType != typeElement && (isExcludedType(currentType) || !currentType.getTypeParameters().isEmpty())) {
+                return null;
+            }
+            for (VariableElement field : ElementFilter.fieldsIn(currentType.getEnclosedElements())) {
+                Set<Modifier> modifiers = field.getModifiers();
+                if (modifiers.contains(Modifier.STATIC) || modifiers.contains(Modifier.TRANSIENT)) {
+                    continue;
+                }
+                if (hasGsonAnnotation(field)
+                        || modifiers.contains(Modifier.FINAL)
+                        || !fieldNames.add(field.getSimpleName().toString())
+                        || !isAccessibleField(field)) {
+                    return null;
+                }
+                fields.add(field);
+            }
+            TypeMirror superclass = currentType.getSuperclass();
+            currentType = superclass.getKind() == TypeKind.DECLARED ? (TypeElement) ((DeclaredType) superclass).asElement() : null;
+        }
+        return fields;
+    }
+
+    /**
+     * Returns whether the given field can be read and written directly by the generated adapter, which is in the
+     * package of the interface
+     */
+    private boolean isAccessibleField(VariableElement field) {
+        Set<Modifier> modifiers = field.getModifiers();
+        if (modifiers.contains(Modifier.PRIVATE)) {
+            return false;
+        }
+        TypeElement enclosingType = (TypeElement) field.getEnclosingElement();
+        if (modifiers.contains(Modifier.PUBLIC) && enclosingType.getModifiers().contains(Modifier.PUBLIC)) {
+            return true;
+        }
+        String packageName = getBindingManager().getElementUtils().getPackageOf(enclosingType).getQualifiedName().toString();
+        return packageName.equals(getRemoterInterfacePackageName());
+    }
+
+    private boolean hasPublicNoArgConstructor(TypeElement typeElement) {
+        for (ExecutableElement constructor : ElementFilter.constructorsIn(typeElement.getEnclosedElements())) {
+            if (constructor.getParameters().isEmpty() && constructor.getModifiers().contains(Modifier.PUBLIC)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean isExcludedType(TypeElement typeElement) {
+        String typeName = typeElement.getQualifiedName().toString();
+        for (String excludedPackage : EXCLUDED_PACKAGES) {
+            if (typeName.startsWith(excludedPackage)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Types that customizes Gson serialization using annotations are left to Gson
+     */
+    private boolean hasGsonAnnotation(Element element) {
+        for (AnnotationMirror annotationMirror : element.getAnnotationMirrors()) {
+            if (annotationMirror.getAnnotationType().toString().startsWith("com.google.gson.")) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -1,6 +1,7 @@
 package sample.rpcfy;
 
 import rpcfy.annotations.RPCfy;
+import rpcfy.annotations.RPCfyNotification;
 
 
 @RPCfy
@@ -12,5 +13,6 @@ public interface EchoServiceListener {
 
     default void onNoArgMethodCalled()  {}
 
+    @RPCfyNotification
     default void onEcho(String input)  {}
 }
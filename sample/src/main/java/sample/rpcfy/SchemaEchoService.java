@@ -0,0 +1,36 @@
+package sample.rpcfy;
+
+import rpcfy.annotations.RPCfy;
+
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * Sample interface for testing {@link RPCfy#schemaEncoding()}
+ */
+@RPCfy(schemaEncoding = true)
+public interface SchemaEchoService {
+
+    long add(int a, long b, short c, byte d);
+
+    double scale(double value, float factor, char unit, boolean negate);
+
+    String echoString(String input);
+
+    Integer echoInteger(Integer input);
+
+    MyObj echoObject(MyObj input);
+
+    List<MyObj> echoList(List<MyObj> input);
+
+    Map<String, Integer> echoMap(Map<String, Integer> input);
+
+    int[] echoArray(int[] input);
+
+    EchoServiceListener echoListener(EchoServiceListener listener);
+
+    void notifyListener(EchoServiceListener listener, String input);
+
+    String testException(String input) throws CustomException;
+}
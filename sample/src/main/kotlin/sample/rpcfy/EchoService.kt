@@ -3,6 +3,7 @@ package sample.rpcfy
 
 import rpcfy.annotations.RPCfy
 import rpcfy.annotations.RPCfyNotSupported
+import rpcfy.annotations.RPCfyNotification
 import java.lang.IllegalArgumentException
 import java.lang.IllegalStateException
 
@@ -60,4 +61,10 @@ interface EchoService {
 
     fun testUniqueListeners(listener: EchoServiceListener): Boolean
 
+    @RPCfyNotification
+    fun notifyThrowingException()
+
+    @RPCfyNotification(ackErrors = true)
+    fun notifyThrowingExceptionWithAck()
+
 }
@@ -145,4 +145,12 @@ open class EchoServiceImpl : EchoService {
 
     override fun testUniqueListeners(listener: EchoServiceListener) = uniqueListeners.add(listener)
 
+    override fun notifyThrowingException() {
+        throw IllegalStateException("Illegal state")
+    }
+
+    override fun notifyThrowingExceptionWithAck() {
+        throw IllegalStateException("Illegal state")
+    }
+
 }
@@ -0,0 +1,19 @@
+package sample.rpcfy
+
+import rpcfy.annotations.RPCfy
+
+
+/**
+ * Interface for testing a method declared with the name and parameters of the asynchronous proxy method of another
+ */
+@RPCfy
+interface AsyncNameClashService {
+
+    fun echo(input: String?): String?
+
+    /**
+     * Declared with the name and parameters of the asynchronous proxy method of [echo], which is then not generated
+     */
+    fun echoAsync(input: String?): String?
+
+}
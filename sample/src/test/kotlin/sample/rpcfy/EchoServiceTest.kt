@@ -1,15 +1,23 @@
 package sample.rpcfy
 
+import com.google.gson.Gson
+import com.google.gson.reflect.TypeToken
 import junit.framework.Assert.*
 import org.junit.After
 import org.junit.Before
 import org.junit.Test
 import rpcfy.*
 import rpcfy.RPCProxy.RemoteListener
+import rpcfy.json.BinaryJsonify
 import rpcfy.json.GsonJsonify
 import java.io.IOException
+import java.nio.ByteBuffer
 import java.util.*
+import java.util.concurrent.Callable
+import java.util.concurrent.CompletionException
 import java.util.concurrent.CountDownLatch
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.Executors
 import java.util.concurrent.LinkedBlockingQueue
 import java.util.concurrent.TimeUnit
 import java.util.concurrent.atomic.AtomicInteger
@@ -27,6 +35,8 @@ class JsonRPCfyTest {
     private var simulateMessageFailure = false
     private var simulateCustomJsonEntries = false
     private var simulateCustomJsonEntriesReturnedMessage: String? = ""
+    private val batchesSent = AtomicInteger()
+    private val clientMessagesSent = StringBuffer()
 
     //**********************************************************************************
     //Simulating a server
@@ -44,6 +54,9 @@ class JsonRPCfyTest {
     //In real application, this message will be sent across network/process to client side
     private val serverMessageSender = MessageSender<String> { message ->
         println(" 1R > " + serverHandler.getMessageEntries(message))
+        if (message.startsWith("[")) {
+            batchesSent.incrementAndGet()
+        }
         try {
             clientQueue.put(message)
         } catch (e: Exception) {
@@ -71,6 +84,10 @@ class JsonRPCfyTest {
             throw IOException("Unable to send message")
         }
         println(" 1 > " + clientHandler.getMessageEntries(message))
+        if (message.startsWith("[")) {
+            batchesSent.incrementAndGet()
+        }
+        clientMessagesSent.append(message)
         try {
             serverQueue.put(message)
         } catch (e: Exception) {
@@ -533,6 +550,31 @@ class JsonRPCfyTest {
         Thread.sleep(50)
     }
 
+    @Test
+    fun testManyListenerStubs() {
+        val echoCount = AtomicInteger()
+        val listeners = (0 until 500).map {
+            object : EchoServiceListener {
+                override fun onEcho(input: String) {
+                    echoCount.incrementAndGet()
+                }
+            }
+        }
+        listeners.forEach { assertTrue(echoService.registerListener(it)) }
+        //the listeners whose stubs are cleared are not called anymore
+        listeners.take(250).forEach { clientHandler.clearStubOfService(it) }
+        assertNull(clientHandler.getStub(listeners[0]))
+        assertNotNull(clientHandler.getStub(listeners[250]))
+
+        echoService.echoString("World")
+        val deadline = System.currentTimeMillis() + 5000
+        while (echoCount.get() < 250 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10)
+        }
+        Thread.sleep(50)
+        assertEquals(250, echoCount.get())
+    }
+
     @Test
     fun testStubNotFound() {
         val stubNotFoundLatch = CountDownLatch(1)
@@ -570,25 +612,48 @@ class JsonRPCfyTest {
         assertTrue(gotErrorCallBack)
     }
 
-//    @Test
-//    fun testOnewayTimeout() {
-//        val stubNotFoundLatch = CountDownLatch(1)
-//        var gotErrorCallBack = false
-//        (echoService as RPCProxy).setRPCRemoteListener(object : RemoteListener {
-//            override fun onRPCFailed(proxy: RPCProxy, methodID: Int, exception: RPCException) {
-//                println("onRPCFailed $methodID ${exception.message} ${exception.type}")
-//                gotErrorCallBack = true
-//                assertEquals(echoService, proxy)
-//                stubNotFoundLatch.countDown()
-//            }
-//        })
-//        clientHandler.setOneWayRequestTimeout(10)
-//        echoService.oneWayTimeout()
-//        stubNotFoundLatch.await(15, TimeUnit.MILLISECONDS)
-//        echoService.noArgumentMethod()
-//        stubNotFoundLatch.await(5, TimeUnit.MILLISECONDS)
-//        assertTrue(gotErrorCallBack)
-//    }
+    @Test
+    fun testNotification() {
+        val errorLatch = CountDownLatch(1)
+        val failedMethods = Collections.synchronizedList(ArrayList<Int>())
+        (echoService as RPCProxy).setRPCRemoteListener(object : RemoteListener {
+            override fun onRPCFailed(proxy: RPCProxy, methodID: Int, exception: RPCException) {
+                println("onRPCFailed $methodID ${exception.message} ${exception.type}")
+                assertEquals(echoService, proxy)
+                assertEquals(RPCException.Type.REMOTE_EXCEPTION, exception.type)
+                failedMethods.add(methodID)
+                errorLatch.countDown()
+            }
+        })
+
+        //no call is kept waiting for a response
+        echoService.notifyThrowingException()
+        assertEquals(0, clientHandler.getInFlightCount())
+        echoService.notifyThrowingExceptionWithAck()
+        assertEquals(0, clientHandler.getInFlightCount())
+        errorLatch.await()
+        assertEquals(listOf(EchoService_JsonRpcProxy.METHOD_notifyThrowingExceptionWithAck_23), failedMethods)
+    }
+
+    @Test
+    fun testOnewayTimeout() {
+        val timeoutLatch = CountDownLatch(1)
+        var gotErrorCallBack = false
+        (echoService as RPCProxy).setRPCRemoteListener(object : RemoteListener {
+            override fun onRPCFailed(proxy: RPCProxy, methodID: Int, exception: RPCException) {
+                println("onRPCFailed $methodID ${exception.message} ${exception.type}")
+                gotErrorCallBack = true
+                assertEquals(echoService, proxy)
+                assertEquals(EchoService_JsonRpcProxy.METHOD_oneWayTimeout_20, methodID)
+                assertEquals(RPCException.Type.TIMEOUT, exception.type)
+                timeoutLatch.countDown()
+            }
+        })
+        clientHandler.setOneWayRequestTimeout(10)
+        echoService.oneWayTimeout()
+        timeoutLatch.await(1, TimeUnit.SECONDS)
+        assertTrue(gotErrorCallBack)
+    }
 
 
     @Test
@@ -709,6 +774,56 @@ class JsonRPCfyTest {
         fail("Expecting failure")
     }
 
+    @Test
+    fun testGeneratedTypeAdapters() {
+        val factory = EchoService_JsonRpcTypeAdapterFactory()
+        assertNotNull(factory.create(Gson(), TypeToken.get(ComplexObject::class.java)))
+        //private fields are left to the reflective adapter instead of going through the accessors
+        assertNull(factory.create(Gson(), TypeToken.get(MyObj::class.java)))
+
+        //found as a service by GsonJsonify, without being registered
+        val gson = object : GsonJsonify() {
+            val sharedGson: Gson get() = gson
+        }.sharedGson
+        assertTrue(gson.getAdapter(ComplexObject::class.java).javaClass.name.startsWith(EchoService_JsonRpcTypeAdapterFactory::class.java.name))
+    }
+
+    @Test
+    @Suppress("DEPRECATION")
+    fun testDeprecatedOverloads() {
+        val handler = JsonRPCMessageHandler(MessageSender<String> { })
+        val stub = EchoService_JsonRpcStub(handler, EchoServiceImpl())
+        val response = stub.onRPCCall(EchoService_JsonRpcStub.METHOD_echoString_3,
+                "{\"jsonrpc\":\"2.0\",\"method\":\"echoString\",\"interface\":\"sample.rpcfy.EchoService\"," +
+                        "\"method_id\":${EchoService_JsonRpcStub.METHOD_echoString_3},\"id\":1,\"params\":{\"input\":\"World\"}}")
+        assertEquals("WorldResult", JSONify.getDefault().parseMessage(response).getStringValue("result"))
+
+        handler.onRPCParameters(mapOf("custom_key" to "value"))
+        assertEquals("value", handler.getProperty("key"))
+        handler.onRPCParameters(null)
+        assertNull(handler.getProperty("key"))
+        handler.clear()
+    }
+
+    @Test
+    fun testInterruptedCall() {
+        var failed = false
+        var interrupted = false
+        val caller = thread {
+            try {
+                echoService.callThatTimesout(300)
+            } catch (exception: Exception) {
+                failed = true
+            }
+            interrupted = Thread.currentThread().isInterrupted
+        }
+        Thread.sleep(100)
+        caller.interrupt()
+        caller.join()
+        assertTrue(failed)
+        assertTrue(interrupted)
+    }
+
     @Test
     fun testTimeoutOnClear() {
         var timedOut = false
@@ -806,6 +921,13 @@ class JsonRPCfyTest {
 
     @Test(expected = RPCNotSupportedException::class)
     fun testRPCNotSupported() {
+        val notSupportedResult = EchoService_JsonRpcProxy(clientHandler).nonRpcCallAsync()
+        try {
+            notSupportedResult.getNow(0)
+            fail()
+        } catch (exception: CompletionException) {
+            assertTrue(exception.cause is RPCNotSupportedException)
+        }
         echoService.nonRpcCall()
     }
 
@@ -864,6 +986,35 @@ class JsonRPCfyTest {
     }
 
 
+    @Test
+    fun testDelegateStubConcurrent() {
+        val executor = Executors.newFixedThreadPool(4)
+        val asyncEchoService = EchoService_JsonRpcProxy(clientHandler)
+        val missingMessages = AtomicInteger()
+        val echoDelegate = object : EchoService by echoService {
+            override fun echoString(input: String?): String? {
+                val rpcDelegate = RPCMethodDelegate(EchoService::class.java, EchoService_JsonRpcStub.METHOD_echoString_3, null)
+                rpcDelegate.setInstanceId(this.hashCode())
+                val originalMessage = serverHandler.getOriginalMessage(rpcDelegate)
+                if (originalMessage == null || !originalMessage.contains(input!!)) {
+                    missingMessages.incrementAndGet()
+                }
+                return input + "Delegated"
+            }
+        }
+        try {
+            serverHandler.setDispatchExecutor(executor, JsonRPCMessageHandler.DispatchOrder.UNORDERED)
+            serverHandler.addMethodDelegate(RPCMethodDelegate(EchoService::class.java, EchoService_JsonRpcStub.METHOD_echoString_3, echoDelegate))
+            val results = (0 until 200).map { asyncEchoService.echoStringAsync("World#$it#") }
+            results.forEachIndexed { index, result -> assertEquals("World#$index#Delegated", result.get(5, TimeUnit.SECONDS)) }
+            assertEquals(0, missingMessages.get())
+        } finally {
+            serverHandler.setDispatchExecutor(null, null)
+            executor.shutdown()
+        }
+    }
+
+
     @Test
     fun testListenerSendingOriginalCustom() {
 
@@ -1038,4 +1189,557 @@ class JsonRPCfyTest {
     }
 
 
+    @Test
+    @Throws(Exception::class)
+    fun testBinaryCodec() {
+        val serverExecutor = Executors.newSingleThreadExecutor()
+        val clientExecutor = Executors.newSingleThreadExecutor()
+        lateinit var binaryServerHandler: JsonRPCMessageHandler
+        lateinit var binaryClientHandler: JsonRPCMessageHandler
+        binaryServerHandler = JsonRPCMessageHandler(MessageSender<ByteArray> { message ->
+            clientExecutor.execute { binaryClientHandler.onMessage(message) }
+        }, BinaryJsonify())
+        binaryClientHandler = JsonRPCMessageHandler(MessageSender<ByteArray> { message ->
+            serverExecutor.execute { binaryServerHandler.onMessage(message) }
+        }, BinaryJsonify())
+        EchoService_JsonRpcStub(binaryServerHandler, EchoServiceImpl())
+        val binaryEchoService = EchoService_JsonRpcProxy(binaryClientHandler)
+
+        try {
+            assertEquals("WorldResult", binaryEchoService.echoString("World"))
+            assertEquals("\u00e9\u4e16\ud83d\ude00Result", binaryEchoService.echoString("\u00e9\u4e16\ud83d\ude00"))
+            assertNull(binaryEchoService.echoString(null))
+            assertEquals(300, binaryEchoService.echoObject(MyObj("Hello", 300))!!.age)
+
+            val map = mapOf(-1L to MyObj("A", -100), Long.MAX_VALUE to MyObj("B", Int.MIN_VALUE))
+            val mapResult = binaryEchoService.testMultipleMapParams(mapOf(1 to "1"), mapOf("1" to MyObj("C", 1)), map)
+            assertEquals(-100, mapResult!![-1L]!!.age)
+            assertEquals(Int.MIN_VALUE, mapResult[Long.MAX_VALUE]!!.age)
+
+            val complexObject = ComplexObject()
+            complexObject.name = "Name"
+            complexObject.sex = ComplexObject.SEX.FEMALE
+            complexObject.family = ComplexObject.Family()
+            complexObject.family.familyName = "Family"
+            val complexResult = binaryEchoService.echoComplexObject(complexObject)
+            assertEquals(ComplexObject.SEX.FEMALE, complexResult!!.sex)
+            assertEquals("Family", complexResult.family.familyName)
+
+            try {
+                binaryEchoService.testExceptionThrown(2)
+                fail()
+            } catch (exception: CustomException) {
+            }
+
+            assertEquals("WorldResult", binaryEchoService.getEchoService().echoString("World"))
+        } finally {
+            binaryServerHandler.clear()
+            binaryClientHandler.clear()
+            serverExecutor.shutdown()
+            clientExecutor.shutdown()
+        }
+    }
+
+    @Test
+    fun testSchemaEncoding() {
+        SchemaEchoService_JsonRpcStub(serverHandler, SchemaEchoServiceImpl())
+        testSchemaEchoService(SchemaEchoService_JsonRpcProxy(clientHandler))
+
+        val serverExecutor = Executors.newSingleThreadExecutor()
+        val clientExecutor = Executors.newSingleThreadExecutor()
+        lateinit var binaryServerHandler: JsonRPCMessageHandler
+        lateinit var binaryClientHandler: JsonRPCMessageHandler
+        binaryServerHandler = JsonRPCMessageHandler(MessageSender<ByteArray> { message ->
+            clientExecutor.execute { binaryClientHandler.onMessage(message) }
+        }, BinaryJsonify())
+        binaryClientHandler = JsonRPCMessageHandler(MessageSender<ByteArray> { message ->
+            serverExecutor.execute { binaryServerHandler.onMessage(message) }
+        }, BinaryJsonify())
+        SchemaEchoService_JsonRpcStub(binaryServerHandler, SchemaEchoServiceImpl())
+        try {
+            testSchemaEchoService(SchemaEchoService_JsonRpcProxy(binaryClientHandler))
+        } finally {
+            binaryServerHandler.clear()
+            binaryClientHandler.clear()
+            serverExecutor.shutdown()
+            clientExecutor.shutdown()
+        }
+    }
+
+    @Test
+    fun testByteBuffers() {
+        testByteBuffers(GsonJsonify(), GsonJsonify())
+        testByteBuffers(GsonJsonify(true), GsonJsonify(true))
+        testByteBuffers(BinaryJsonify(), BinaryJsonify())
+
+        //only the headers are streamed from the buffer, which can be reused once the message is parsed
+        val buffer = ByteBuffer.wrap("{\"jsonrpc\":\"2.0\",\"method\":\"echoString\",\"id\":7,\"params\":{\"input\":\"World\"}}".toByteArray())
+        val message = GsonJsonify(true).parseMessage(buffer)
+        Arrays.fill(buffer.array(), ' '.toByte())
+        assertEquals("GsonStreamedMessage", message.javaClass.simpleName)
+        assertEquals("echoString", message.method)
+        assertEquals(7L, message.callId)
+        assertEquals("{\"input\":\"World\"}", message.element.getJsonValue("params"))
+    }
+
+    private fun testByteBuffers(serverJsonify: JSONify, clientJsonify: JSONify) {
+        val serverExecutor = Executors.newSingleThreadExecutor()
+        val clientExecutor = Executors.newSingleThreadExecutor()
+        lateinit var bufferServerHandler: JsonRPCMessageHandler
+        lateinit var bufferClientHandler: JsonRPCMessageHandler
+        //deliver the messages in direct buffers, like a socket transport would
+        val toDirectBuffer = { message: ByteBuffer ->
+            val buffer = ByteBuffer.allocateDirect(message.remaining() + 2)
+            buffer.put(0).put(message).flip()
+            buffer.position(1)
+            buffer
+        }
+        bufferServerHandler = JsonRPCMessageHandler.forByteBuffers(MessageSender<ByteBuffer> { message ->
+            val buffer = toDirectBuffer(message)
+            clientExecutor.execute { bufferClientHandler.onMessage(buffer) }
+        }, serverJsonify)
+        bufferClientHandler = JsonRPCMessageHandler.forByteBuffers(MessageSender<ByteBuffer> { message ->
+            val buffer = toDirectBuffer(message)
+            serverExecutor.execute { bufferServerHandler.onMessage(buffer) }
+        }, clientJsonify)
+        EchoService_JsonRpcStub(bufferServerHandler, EchoServiceImpl())
+        SchemaEchoService_JsonRpcStub(bufferServerHandler, SchemaEchoServiceImpl())
+        val bufferEchoService = EchoService_JsonRpcProxy(bufferClientHandler)
+
+        try {
+            assertEquals("\u00e9\u4e16\ud83d\ude00Result", bufferEchoService.echoString("\u00e9\u4e16\ud83d\ude00"))
+            assertNull(bufferEchoService.echoString(null))
+            assertEquals(300, bufferEchoService.echoObject(MyObj("Hello", 300))!!.age)
+            assertEquals("WorldResult", bufferEchoService.getEchoService().echoString("World"))
+            testSchemaEchoService(SchemaEchoService_JsonRpcProxy(bufferClientHandler))
+        } finally {
+            bufferServerHandler.clear()
+            bufferClientHandler.clear()
+            serverExecutor.shutdown()
+            clientExecutor.shutdown()
+        }
+    }
+
+    @Test
+    fun testAsync() {
+        val asyncEchoService = EchoService_JsonRpcProxy(clientHandler)
+        val results = (0 until 100).map { asyncEchoService.echoStringAsync("World$it") }
+        results.forEachIndexed { index, result -> assertEquals("World${index}Result", result.get(5, TimeUnit.SECONDS)) }
+
+        assertEquals(300, asyncEchoService.echoObjectAsync(MyObj("Hello", 300)).get()!!.age)
+        assertEquals("WorldResult", asyncEchoService.getEchoServiceAsync().get().echoString("World"))
+        assertNull(asyncEchoService.noArgumentMethodAsync().get())
+        //declared by the interface, so it is not replaced by the asynchronous variant of echo
+        AsyncNameClashService_JsonRpcStub(serverHandler, object : AsyncNameClashService {
+            override fun echo(input: String?) = input + "Result"
+            override fun echoAsync(input: String?) = input + "AsyncResult"
+        })
+        val nameClashService = AsyncNameClashService_JsonRpcProxy(clientHandler)
+        assertEquals("WorldResult", nameClashService.echo("World"))
+        assertEquals("WorldAsyncResult", nameClashService.echoAsync("World"))
+
+        try {
+            asyncEchoService.testExceptionThrownAsync(2).get()
+            fail()
+        } catch (exception: ExecutionException) {
+            assertTrue(exception.cause is CustomException)
+        }
+
+        clientHandler.setRequestTimeout(10)
+        try {
+            asyncEchoService.callThatTimesoutAsync(100).join()
+            fail()
+        } catch (exception: CompletionException) {
+            assertTrue(exception.cause!!.message!!.contains("Request timed out"))
+        }
+        //the timed out call is completed off the shared timer thread
+        val completingThread = asyncEchoService.callThatTimesoutAsync(100).handle { _, _ -> Thread.currentThread().name }
+        assertFalse(completingThread.get(5, TimeUnit.SECONDS) == "RPCfy-timer")
+    }
+
+    @Test
+    fun testManyCallsInFlight() {
+        val asyncEchoService = EchoService_JsonRpcProxy(clientHandler)
+        //more than the slots of the pending call table, so that some of them overflow
+        val results = (0 until 20000).map { asyncEchoService.echoStringAsync("World$it") }
+        results.forEachIndexed { index, result -> assertEquals("World${index}Result", result.get(10, TimeUnit.SECONDS)) }
+    }
+
+    @Test
+    fun testDispatchExecutor() {
+        val executor = Executors.newFixedThreadPool(4)
+        val asyncEchoService = EchoService_JsonRpcProxy(clientHandler)
+        try {
+            serverHandler.setDispatchExecutor(executor, JsonRPCMessageHandler.DispatchOrder.UNORDERED)
+            val slowCall = asyncEchoService.callThatTimesoutAsync(500)
+            assertEquals("WorldResult", echoService.echoString("World"))
+            assertFalse(slowCall.isDone)
+            assertEquals(500, slowCall.get())
+
+            //calls to the same service wait for the ones received before
+            serverHandler.setDispatchExecutor(executor, JsonRPCMessageHandler.DispatchOrder.PER_SERVICE)
+            val orderedSlowCall = asyncEchoService.callThatTimesoutAsync(100)
+            assertEquals("WorldResult", echoService.echoString("World"))
+            assertTrue(orderedSlowCall.isDone)
+
+            serverHandler.setDispatchExecutor(executor, JsonRPCMessageHandler.DispatchOrder.PER_REMOTE_HANDLER)
+            val results = (0 until 100).map { asyncEchoService.echoStringAsync("World$it") }
+            results.forEachIndexed { index, result -> assertEquals("World${index}Result", result.get(5, TimeUnit.SECONDS)) }
+        } finally {
+            serverHandler.setDispatchExecutor(null, null)
+            executor.shutdown()
+        }
+    }
+
+    @Test
+    fun testCancellation() {
+        val executor = Executors.newSingleThreadExecutor()
+        val asyncEchoService = EchoService_JsonRpcProxy(clientHandler)
+        try {
+            serverHandler.setDispatchExecutor(executor, JsonRPCMessageHandler.DispatchOrder.UNORDERED)
+            serverHandler.setInterruptOnCancel(true)
+
+            //the running call is interrupted, and the queued one is skipped
+            val runningCall = asyncEchoService.callThatTimesoutAsync(60000)
+            val queuedCall = asyncEchoService.callThatTimesoutAsync(60000)
+            Thread.sleep(100)
+            assertTrue(runningCall.cancel(true))
+            assertTrue(queuedCall.cancel(true))
+            val start = System.currentTimeMillis()
+            assertEquals("WorldResult", echoService.echoString("World"))
+            assertTrue(System.currentTimeMillis() - start < 10000)
+
+            //a timed out call is cancelled as well
+            clientHandler.setRequestTimeout(100)
+            try {
+                echoService.callThatTimesout(60000)
+                fail("Expecting failure")
+            } catch (expected: RuntimeException) {
+            }
+            clientHandler.setRequestTimeout(10000)
+            assertEquals("WorldResult", echoService.echoString("World"))
+            assertEquals(0, clientHandler.inFlightCount)
+        } finally {
+            serverHandler.setDispatchExecutor(null, null)
+            executor.shutdown()
+        }
+    }
+
+    @Test
+    fun testExpiredRequests() {
+        val executor = Executors.newSingleThreadExecutor()
+        val started = CountDownLatch(1)
+        val release = CountDownLatch(1)
+        try {
+            serverHandler.setDispatchExecutor(executor, JsonRPCMessageHandler.DispatchOrder.UNORDERED)
+            executor.execute {
+                started.countDown()
+                release.await()
+            }
+            started.await()
+            //the caller waits only for 1ms, which is up by the time the executor gets to it
+            serverHandler.onMessage("{\"jsonrpc\":\"2.0\",\"method\":\"echoString\",\"interface\":\"sample.rpcfy.EchoService\"," +
+                    "\"method_id\":${EchoService_JsonRpcStub.METHOD_echoString_3},\"handler_id\":1,\"id\":1,\"params\":{\"input\":\"World\"},\"timeout\":1}")
+            Thread.sleep(50)
+            release.countDown()
+
+            var remainingTime = -1L
+            serverHandler.addMethodDelegate(RPCMethodDelegate(EchoService::class.java, EchoService_JsonRpcStub.METHOD_echoString_3, object : EchoServiceImpl() {
+                override fun echoString(input: String?): String? {
+                    remainingTime = serverHandler.remainingTime
+                    return super.echoString(input)
+                }
+            }))
+            clientHandler.setRequestTimeout(EchoService::class.java, EchoService_JsonRpcProxy.METHOD_echoString_3, 5000)
+            assertEquals("WorldResult", echoService.echoString("World"))
+            assertEquals(1, serverHandler.expiredCount)
+            assertTrue(remainingTime in 1..5000)
+        } finally {
+            clientHandler.setRequestTimeout(EchoService::class.java, EchoService_JsonRpcProxy.METHOD_echoString_3, 0)
+            serverHandler.setDispatchExecutor(null, null)
+            executor.shutdown()
+        }
+    }
+
+    @Test
+    fun testVirtualThreads() {
+        if (!VirtualThreads.isSupported()) {
+            try {
+                VirtualThreads.newVirtualThreadPerTaskExecutor()
+                fail()
+            } catch (expected: UnsupportedOperationException) {
+            }
+            return
+        }
+        val executor = VirtualThreads.newVirtualThreadPerTaskExecutor()
+        try {
+            serverHandler.setDispatchExecutor(executor, JsonRPCMessageHandler.DispatchOrder.UNORDERED)
+            val results = (0 until 1000).map { executor.submit(Callable { echoService.echoString("World$it") }) }
+            results.forEachIndexed { index, result -> assertEquals("World${index}Result", result.get(10, TimeUnit.SECONDS)) }
+        } finally {
+            serverHandler.setDispatchExecutor(null, null)
+            executor.shutdown()
+        }
+    }
+
+    @Test
+    fun testInFlightLimit() {
+        val executor = Executors.newFixedThreadPool(4)
+        val asyncEchoService = EchoService_JsonRpcProxy(clientHandler)
+        try {
+            serverHandler.setDispatchExecutor(executor, JsonRPCMessageHandler.DispatchOrder.UNORDERED)
+            clientHandler.setInFlightPolicy(JsonRPCMessageHandler.InFlightPolicy.FAIL_FAST, 0)
+            clientHandler.setInFlightLimit(EchoService::class.java, EchoService_JsonRpcProxy.METHOD_callThatTimesout_15, 1)
+            val rejectedCount = clientHandler.getRejectedCount()
+            val slowCall = asyncEchoService.callThatTimesoutAsync(300)
+            assertEquals(1, clientHandler.getInFlightCount())
+            try {
+                asyncEchoService.callThatTimesout(10)
+                fail()
+            } catch (exception: RPCException) {
+                assertEquals(RPCException.Type.LIMIT_EXCEEDED, exception.type)
+            }
+            val rejectedAsyncCall = asyncEchoService.callThatTimesoutAsync(10)
+            try {
+                rejectedAsyncCall.get()
+                fail()
+            } catch (exception: ExecutionException) {
+                assertEquals(RPCException.Type.LIMIT_EXCEEDED, (exception.cause as RPCException).type)
+            }
+            assertEquals(rejectedCount + 2, clientHandler.getRejectedCount())
+            //other methods are not limited
+            assertEquals("WorldResult", echoService.echoString("World"))
+
+            clientHandler.setInFlightPolicy(JsonRPCMessageHandler.InFlightPolicy.WAIT, 5000)
+            assertEquals(10, asyncEchoService.callThatTimesout(10))
+            assertTrue(slowCall.isDone)
+            assertEquals(0, clientHandler.getInFlightCount())
+        } finally {
+            clientHandler.setInFlightLimit(EchoService::class.java, EchoService_JsonRpcProxy.METHOD_callThatTimesout_15, 0)
+            clientHandler.setInFlightPolicy(JsonRPCMessageHandler.InFlightPolicy.BLOCK, 0)
+            serverHandler.setDispatchExecutor(null, null)
+            executor.shutdown()
+        }
+    }
+
+    @Test
+    fun testInFlightLimitChainedAsync() {
+        //the responses are delivered on the only dispatch thread, which must not be blocked by the chained calls
+        val executor = Executors.newSingleThreadExecutor()
+        val asyncEchoService = EchoService_JsonRpcProxy(clientHandler)
+        try {
+            serverHandler.setDispatchExecutor(executor, JsonRPCMessageHandler.DispatchOrder.UNORDERED)
+            clientHandler.setInFlightLimit(1)
+            val result = asyncEchoService.echoStringAsync("A").thenCompose {
+                val first = asyncEchoService.echoStringAsync("C")
+                val second = asyncEchoService.echoStringAsync("D")
+                first.thenCombine(second) { c, d -> c + d }
+            }
+            assertEquals("CResultDResult", result.get(5, TimeUnit.SECONDS))
+            assertEquals(0, clientHandler.getInFlightCount())
+        } finally {
+            clientHandler.setInFlightLimit(0)
+            serverHandler.setDispatchExecutor(null, null)
+            executor.shutdown()
+        }
+    }
+
+    @Test
+    fun testBatching() {
+        val asyncEchoService = EchoService_JsonRpcProxy(clientHandler)
+        try {
+            clientHandler.setBatching(10, 1 shl 16, 50)
+            val results = (0 until 25).map { asyncEchoService.echoStringAsync("World$it") }
+            results.forEachIndexed { index, result -> assertEquals("World${index}Result", result.get(5, TimeUnit.SECONDS)) }
+            //the requests and the responses of each batch
+            assertEquals(6, batchesSent.get())
+
+            //a blocking call waits for the window at most
+            assertEquals("WorldResult", echoService.echoString("World"))
+
+            clientHandler.setBatching(10, 1 shl 16, 0)
+            assertEquals("WorldResult", echoService.echoString("World"))
+            val matchingResults = AtomicInteger()
+            val threads = (0 until 4).map {
+                thread {
+                    (0 until 100).forEach {
+                        if (echoService.echoString("World$it") == "World${it}Result") {
+                            matchingResults.incrementAndGet()
+                        }
+                    }
+                }
+            }
+            threads.forEach { it.join() }
+            assertEquals(400, matchingResults.get())
+        } finally {
+            clientHandler.setBatching(1, 0, 0)
+        }
+    }
+
+    @Test
+    fun testWriteCoalescing() {
+        val asyncEchoService = EchoService_JsonRpcProxy(clientHandler)
+        try {
+            clientHandler.setWriteCoalescing(16, 1 shl 16, 2000)
+            serverHandler.setWriteCoalescing(16, 1 shl 16, 0)
+            val results = (0 until 100).map { asyncEchoService.echoStringAsync("World$it") }
+            results.forEachIndexed { index, result -> assertEquals("World${index}Result", result.get(5, TimeUnit.SECONDS)) }
+            assertTrue(batchesSent.get() > 0)
+
+            //batches of requests are merged into the writes
+            clientHandler.setBatching(4, 1 shl 16, 0)
+            val matchingResults = AtomicInteger()
+            val threads = (0 until 4).map {
+                thread {
+                    (0 until 100).forEach {
+                        if (echoService.echoString("World$it") == "World${it}Result") {
+                            matchingResults.incrementAndGet()
+                        }
+                    }
+                }
+            }
+            threads.forEach { it.join() }
+            assertEquals(400, matchingResults.get())
+
+            //clearing the handler stops its writer thread, and sends the batched requests first
+            val writerCount = { Thread.getAllStackTraces().keys.count { it.name == "RPCfy-writer" } }
+            val writersBefore = writerCount()
+            clientHandler.setBatching(4, 1 shl 16, 60000)
+            clientMessagesSent.setLength(0)
+            asyncEchoService.echoStringAsync("Batched")
+            clientHandler.clear()
+            var waited = 0
+            while (writerCount() >= writersBefore && waited++ < 100) {
+                Thread.sleep(10)
+            }
+            assertEquals(writersBefore - 1, writerCount())
+            val messagesSent = clientMessagesSent.toString()
+            assertTrue(messagesSent.indexOf("Batched") in 0 until messagesSent.indexOf("\$/cancelRequest"))
+
+            //the coalescing resumes with a new writer thread
+            val batchesBefore = batchesSent.get()
+            clientHandler.setBatching(1, 0, 0)
+            val resumedResults = (0 until 20).map { asyncEchoService.echoStringAsync("World$it") }
+            resumedResults.forEachIndexed { index, result -> assertEquals("World${index}Result", result.get(5, TimeUnit.SECONDS)) }
+            assertEquals(writersBefore, writerCount())
+            assertTrue(batchesSent.get() > batchesBefore)
+        } finally {
+            clientHandler.setBatching(1, 0, 0)
+            clientHandler.setWriteCoalescing(1, 0, 0)
+            serverHandler.setWriteCoalescing(1, 0, 0)
+        }
+    }
+
+    @Test
+    fun testSenderPool() {
+        val sentCounts = IntArray(3)
+        var dropMessages = false
+        val senders = (0 until 3).map { index ->
+            MessageSender<String> { message ->
+                synchronized(sentCounts) {
+                    sentCounts[index]++
+                }
+                if (index > 0 || !dropMessages) {
+                    serverQueue.put(message)
+                }
+            }
+        }
+        clientHandler2 = JsonRPCMessageHandler(senders, JsonRPCMessageHandler.SenderSelection.ROUND_ROBIN)
+        val pooledEchoService = EchoService_JsonRpcProxy(clientHandler2)
+        (0 until 30).forEach { assertEquals("World${it}Result", pooledEchoService.echoString("World$it")) }
+        assertTrue(sentCounts.all { it == 10 })
+
+        //a connection that does not get its calls through is not used again while they are waiting
+        dropMessages = true
+        Arrays.fill(sentCounts, 0)
+        clientHandler2 = JsonRPCMessageHandler(senders, JsonRPCMessageHandler.SenderSelection.LEAST_IN_FLIGHT)
+        val lostCall = EchoService_JsonRpcProxy(clientHandler2).echoStringAsync("Lost")
+        (0 until 30).forEach { assertEquals("World${it}Result", EchoService_JsonRpcProxy(clientHandler2).echoString("World$it")) }
+        assertEquals(1, sentCounts[0])
+        assertFalse(lostCall.isDone)
+
+        //the requests in a batch or a coalesced write are counted for the connection it goes over
+        listOf<(JsonRPCMessageHandler) -> Unit>(
+                { it.setBatching(10, 1 shl 16, 0) },
+                { it.setWriteCoalescing(16, 1 shl 16, 0) }
+        ).forEach { configure ->
+            clientHandler2?.clear()
+            Arrays.fill(sentCounts, 0)
+            clientHandler2 = JsonRPCMessageHandler(senders, JsonRPCMessageHandler.SenderSelection.LEAST_IN_FLIGHT)
+            configure(clientHandler2!!)
+            val lostBatchedCall = EchoService_JsonRpcProxy(clientHandler2).echoStringAsync("Lost")
+            //the calls that follow are not to go out in the same write
+            while (synchronized(sentCounts) { sentCounts[0] } == 0) {
+                Thread.sleep(1)
+            }
+            (0 until 30).forEach { assertEquals("World${it}Result", EchoService_JsonRpcProxy(clientHandler2).echoString("World$it")) }
+            assertEquals(1, sentCounts[0])
+            assertFalse(lostBatchedCall.isDone)
+        }
+    }
+
+    private fun testSchemaEchoService(schemaEchoService: SchemaEchoService) {
+        assertEquals(Long.MIN_VALUE + 6, schemaEchoService.add(1, Long.MIN_VALUE, 2, 3))
+        assertEquals(Double.MAX_VALUE, schemaEchoService.scale(Double.MAX_VALUE, 1f, 'x', false))
+        assertEquals(-2.5, schemaEchoService.scale(1.0, 2.5f, '\u4e16', true))
+        assertEquals("\u00e9\u4e16\ud83d\ude00Result", schemaEchoService.echoString("\u00e9\u4e16\ud83d\ude00"))
+        assertEquals("Result", schemaEchoService.echoString(""))
+        assertNull(schemaEchoService.echoString(null))
+        assertEquals(Int.MIN_VALUE, schemaEchoService.echoInteger(Int.MIN_VALUE))
+        assertNull(schemaEchoService.echoInteger(null))
+        assertEquals(MyObj("Hello", 300), schemaEchoService.echoObject(MyObj("Hello", 300)))
+        assertNull(schemaEchoService.echoObject(null))
+        assertEquals(listOf(MyObj("A", 1), MyObj("B", -2)), schemaEchoService.echoList(listOf(MyObj("A", 1), MyObj("B", -2))))
+        assertEquals(mapOf("A" to 1, "B" to Int.MAX_VALUE), schemaEchoService.echoMap(mapOf("A" to 1, "B" to Int.MAX_VALUE)))
+        assertTrue(Arrays.equals(intArrayOf(1, -1, Int.MAX_VALUE), schemaEchoService.echoArray(intArrayOf(1, -1, Int.MAX_VALUE))))
+        assertNull(schemaEchoService.echoArray(null))
+
+        val latch = CountDownLatch(1)
+        val listener = object : EchoServiceListener {
+            override fun onEcho(input: String) {
+                assertEquals("Echo", input)
+                latch.countDown()
+            }
+        }
+        assertNull(schemaEchoService.echoListener(null))
+        val listenerProxy = schemaEchoService.echoListener(listener)
+        assertNotNull(listenerProxy)
+        schemaEchoService.notifyListener(listenerProxy, "Echo")
+        assertTrue(latch.await(5, TimeUnit.SECONDS))
+
+        try {
+            schemaEchoService.testException("Error")
+            fail()
+        } catch (exception: CustomException) {
+        }
+    }
+
+    open class SchemaEchoServiceImpl : SchemaEchoService {
+
+        override fun add(a: Int, b: Long, c: Short, d: Byte): Long = a + b + c + d
+
+        override fun scale(value: Double, factor: Float, unit: Char, negate: Boolean): Double = if (negate) -value * factor else value * factor
+
+        override fun echoString(input: String?): String? = input?.let { it + "Result" }
+
+        override fun echoInteger(input: Int?): Int? = input
+
+        override fun echoObject(input: MyObj?): MyObj? = input
+
+        override fun echoList(input: List<MyObj>?): List<MyObj>? = input
+
+        override fun echoMap(input: Map<String, Int>?): Map<String, Int>? = input
+
+        override fun echoArray(input: IntArray?): IntArray? = input
+
+        override fun echoListener(listener: EchoServiceListener?): EchoServiceListener? = listener
+
+        override fun notifyListener(listener: EchoServiceListener?, input: String?) {
+            listener?.onEcho(input)
+        }
+
+        override fun testException(input: String?): String = throw CustomException()
+    }
+
+
 }